@@ -0,0 +1,51 @@
+plugins {
+    java
+    id("me.champeau.jmh") version "0.7.2"
+    id("io.papermc.paperweight.userdev")
+}
+
+// = = =
+
+val paperApiName = "1.21.5-R0.1-SNAPSHOT"
+val jmhVersionName = "1.37"
+
+// = = =
+
+java {
+    toolchain.languageVersion.set(JavaLanguageVersion.of(21))
+}
+
+repositories {
+    mavenCentral()
+    maven ("https://repo.papermc.io/repository/maven-public/") //paper
+    maven ("https://libraries.minecraft.net")  // mojang
+}
+
+dependencies {
+    jmh(project(":"))
+    paperweight.paperDevBundle(paperApiName)
+    jmh("org.xerial:sqlite-jdbc:3.46.0.0")
+    jmh("org.openjdk.jmh:jmh-core:$jmhVersionName")
+    jmh("org.openjdk.jmh:jmh-generator-annprocess:$jmhVersionName")
+}
+
+// userdev only puts the server (NMS, CraftBukkit) on the compile classpath, item benchmarks also run it
+configurations.named("jmh") {
+    extendsFrom(configurations.compileOnly.get())
+}
+
+jmh {
+    jmhVersion.set(jmhVersionName)
+    // machine-readable results, compare them between runs to spot regressions
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("reports/jmh/results.json"))
+    // e.g. ./gradlew :NyaaCoreBenchmark:jmh -PjmhIncludes=OrmBenchmark.selectByPk
+    if (project.hasProperty("jmhIncludes")) {
+        includes.add(project.property("jmhIncludes").toString())
+    }
+}
+
+tasks.withType<JavaCompile> {
+    options.encoding = Charsets.UTF_8.name()
+    options.release.set(21)
+}
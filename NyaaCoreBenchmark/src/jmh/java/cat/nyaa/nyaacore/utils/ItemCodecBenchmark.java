@@ -0,0 +1,229 @@
+package cat.nyaa.nyaacore.utils;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode/decode throughput and output size of every {@link ItemCodec}, over synthetic item NBT
+ * shaped like what 1.21 servers save: plain stacks, named and enchanted gear, books and filled shulker boxes.
+ * <p>
+ * Saving items needs a running server, so the NBT is built by hand and fed to {@link ItemContainerCodec} directly.
+ * That is also why this suite lives in the package of the codec instead of {@code cat.nyaa.nyaacorebenchmark}.
+ * The compressed size of each corpus is printed during setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ItemCodecBenchmark {
+
+    @Param({"PLAIN_ITEM", "GEAR_ITEM", "INVENTORY", "SHULKER_BOX"})
+    public Corpus corpus;
+
+    @Param({"STORE", "FAST_DEFLATE", "DEFLATE", "DICTIONARY_DEFLATE"})
+    public ItemCodec codec;
+
+    private List<byte[]> items;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void buildCorpus() throws IOException {
+        items = corpus.build(new Random(42));
+        encoded = copy(ItemContainerCodec.encode(items.size(), (i, out) -> out.write(items.get(i)), ItemContainerCodec.V2, codec));
+        int raw = items.stream().mapToInt(b -> b.length).sum();
+        System.out.printf("%n%s %s: %d bytes of nbt -> %d bytes%n", corpus, codec, raw, encoded.length);
+    }
+
+    @Benchmark
+    public ByteBuffer encode() throws IOException {
+        return ItemContainerCodec.encode(items.size(), (i, out) -> out.write(items.get(i)), ItemContainerCodec.V2, codec);
+    }
+
+    @Benchmark
+    public void decode(Blackhole bh) throws IOException {
+        ItemContainerCodec.decode(encoded, (array, offset, length) -> bh.consume(length));
+    }
+
+    private static byte[] copy(ByteBuffer buffer) {
+        byte[] ret = new byte[buffer.remaining()];
+        buffer.get(ret);
+        return ret;
+    }
+
+    public enum Corpus {
+        PLAIN_ITEM {
+            @Override
+            List<byte[]> build(Random random) throws IOException {
+                return List.of(item("minecraft:cobblestone", 64, null));
+            }
+        },
+        GEAR_ITEM {
+            @Override
+            List<byte[]> build(Random random) throws IOException {
+                return List.of(gear(random));
+            }
+        },
+        INVENTORY {
+            @Override
+            List<byte[]> build(Random random) throws IOException {
+                List<byte[]> ret = new ArrayList<>();
+                for (int i = 0; i < 36; i++) {
+                    switch (i % 4) {
+                        case 0 -> ret.add(gear(random));
+                        case 1 -> ret.add(book(random));
+                        default -> ret.add(item(BLOCKS[random.nextInt(BLOCKS.length)], 1 + random.nextInt(64), null));
+                    }
+                }
+                return ret;
+            }
+        },
+        SHULKER_BOX {
+            @Override
+            List<byte[]> build(Random random) throws IOException {
+                List<byte[]> contents = new ArrayList<>();
+                for (int i = 0; i < 27; i++) {
+                    contents.add(i % 3 == 0 ? gear(random) : item(BLOCKS[random.nextInt(BLOCKS.length)], 1 + random.nextInt(64), null));
+                }
+                return List.of(item("minecraft:shulker_box", 1, nbt -> {
+                    nbt.writeByte(9);
+                    nbt.writeUTF("minecraft:container");
+                    nbt.writeByte(10);
+                    nbt.writeInt(contents.size());
+                    for (int i = 0; i < contents.size(); i++) {
+                        nbt.writeByte(3);
+                        nbt.writeUTF("slot");
+                        nbt.writeInt(i);
+                        nbt.writeByte(10);
+                        nbt.writeUTF("item");
+                        nbt.write(contents.get(i));
+                        nbt.writeByte(0);
+                    }
+                }));
+            }
+        };
+
+        private static final String[] BLOCKS = {"minecraft:stone", "minecraft:oak_log", "minecraft:torch", "minecraft:iron_ingot",
+                "minecraft:bread", "minecraft:diamond", "minecraft:redstone", "minecraft:glass"};
+        private static final String[] TOOLS = {"minecraft:diamond_sword", "minecraft:netherite_sword", "minecraft:diamond_pickaxe",
+                "minecraft:netherite_pickaxe", "minecraft:bow", "minecraft:netherite_chestplate"};
+        private static final String[] ENCHANTMENTS = {"minecraft:sharpness", "minecraft:unbreaking", "minecraft:mending",
+                "minecraft:efficiency", "minecraft:fortune", "minecraft:protection", "minecraft:looting"};
+
+        abstract List<byte[]> build(Random random) throws IOException;
+
+        static byte[] gear(Random random) throws IOException {
+            return item(TOOLS[random.nextInt(TOOLS.length)], 1, nbt -> {
+                nbt.writeByte(3);
+                nbt.writeUTF("minecraft:damage");
+                nbt.writeInt(random.nextInt(500));
+                nbt.writeByte(10);
+                nbt.writeUTF("minecraft:custom_name");
+                text(nbt, "Blade #" + random.nextInt(10000), "gold");
+                nbt.writeByte(9);
+                nbt.writeUTF("minecraft:lore");
+                nbt.writeByte(10);
+                nbt.writeInt(3);
+                text(nbt, "Forged in the nether", "gray");
+                text(nbt, "Owner: player" + random.nextInt(1000), "aqua");
+                text(nbt, "Level " + random.nextInt(100), "yellow");
+                nbt.writeByte(10);
+                nbt.writeUTF("minecraft:enchantments");
+                int count = 1 + random.nextInt(4);
+                for (int i = 0; i < count; i++) {
+                    nbt.writeByte(3);
+                    nbt.writeUTF(ENCHANTMENTS[(i * 3 + random.nextInt(3)) % ENCHANTMENTS.length]);
+                    nbt.writeInt(1 + random.nextInt(5));
+                }
+                nbt.writeByte(0);
+                nbt.writeByte(3);
+                nbt.writeUTF("minecraft:repair_cost");
+                nbt.writeInt(random.nextInt(40));
+                nbt.writeByte(10);
+                nbt.writeUTF("minecraft:custom_data");
+                nbt.writeByte(8);
+                nbt.writeUTF("plugin_item_id");
+                nbt.writeUTF("rpgitem-" + random.nextInt(200));
+                nbt.writeByte(0);
+            });
+        }
+
+        static byte[] book(Random random) throws IOException {
+            return item("minecraft:written_book", 1, nbt -> {
+                nbt.writeByte(10);
+                nbt.writeUTF("minecraft:written_book_content");
+                nbt.writeByte(10);
+                nbt.writeUTF("title");
+                nbt.writeByte(8);
+                nbt.writeUTF("raw");
+                nbt.writeUTF("Notes " + random.nextInt(100));
+                nbt.writeByte(0);
+                nbt.writeByte(8);
+                nbt.writeUTF("author");
+                nbt.writeUTF("player" + random.nextInt(1000));
+                nbt.writeByte(9);
+                nbt.writeUTF("pages");
+                nbt.writeByte(10);
+                nbt.writeInt(3);
+                for (int i = 0; i < 3; i++) {
+                    nbt.writeByte(8);
+                    nbt.writeUTF("raw");
+                    nbt.writeUTF("{\"text\":\"Page " + i + ": meet at spawn, bring " + random.nextInt(64) + " iron\"}");
+                    nbt.writeByte(0);
+                }
+                nbt.writeByte(0);
+            });
+        }
+
+        static void text(DataOutputStream nbt, String text, String color) throws IOException {
+            nbt.writeByte(8);
+            nbt.writeUTF("text");
+            nbt.writeUTF(text);
+            nbt.writeByte(8);
+            nbt.writeUTF("color");
+            nbt.writeUTF(color);
+            nbt.writeByte(1);
+            nbt.writeUTF("italic");
+            nbt.writeByte(0);
+            nbt.writeByte(0);
+        }
+
+        // compound payload as written by ItemStackUtils: id, count, components, data version
+        static byte[] item(String id, int count, ComponentWriter components) throws IOException {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream nbt = new DataOutputStream(bos);
+            nbt.writeByte(8);
+            nbt.writeUTF("id");
+            nbt.writeUTF(id);
+            nbt.writeByte(3);
+            nbt.writeUTF("count");
+            nbt.writeInt(count);
+            if (components != null) {
+                nbt.writeByte(10);
+                nbt.writeUTF("components");
+                components.write(nbt);
+                nbt.writeByte(0);
+            }
+            nbt.writeByte(3);
+            nbt.writeUTF("nyaacore_itemstack_dataversion");
+            nbt.writeInt(4325);
+            nbt.writeByte(0);
+            return bos.toByteArray();
+        }
+    }
+
+    @FunctionalInterface
+    interface ComponentWriter {
+        void write(DataOutputStream nbt) throws IOException;
+    }
+}
@@ -0,0 +1,72 @@
+package cat.nyaa.nyaacorebenchmark.item;
+
+import cat.nyaa.nyaacore.utils.ItemTagUtils;
+import net.minecraft.SharedConstants;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.world.item.Items;
+import org.bukkit.craftbukkit.inventory.CraftItemStack;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and reading N custom data keys of one item: one {@link ItemTagUtils} call per key
+ * versus a single {@link ItemTagUtils#edit} / {@link ItemTagUtils#read}.
+ * The item already carries other custom data, which every per-key write copies again.
+ * <p>
+ * Only the Minecraft registries are bootstrapped, no server is started.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ItemTagBenchmark {
+
+    @Param({"1", "5", "10"})
+    public int keys;
+
+    @Param({"20"})
+    public int existingKeys;
+
+    private String[] names;
+    private ItemStack item;
+
+    @Setup(Level.Trial)
+    public void createItem() {
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+        names = new String[keys];
+        for (int i = 0; i < keys; i++) names[i] = "bench_key_" + i;
+        item = CraftItemStack.asCraftMirror(new net.minecraft.world.item.ItemStack(Items.DIAMOND_SWORD));
+        ItemTagUtils.edit(item, tag -> {
+            for (int i = 0; i < existingKeys; i++) tag.setString("existing_" + i, "value of an existing key " + i);
+        });
+    }
+
+    @Benchmark
+    public void writePerKey() {
+        for (int i = 0; i < names.length; i++) ItemTagUtils.setInt(item, names[i], i);
+    }
+
+    @Benchmark
+    public void writeBatch() {
+        ItemTagUtils.edit(item, tag -> {
+            for (int i = 0; i < names.length; i++) tag.setInt(names[i], i);
+        });
+    }
+
+    @Benchmark
+    public void readPerKey(Blackhole bh) {
+        for (String name : names) bh.consume(ItemTagUtils.getInt(item, name));
+    }
+
+    @Benchmark
+    public void readBatch(Blackhole bh) {
+        ItemTagUtils.TagReader tag = ItemTagUtils.read(item);
+        for (String name : names) bh.consume(tag.getInt(name));
+    }
+}
@@ -0,0 +1,28 @@
+package cat.nyaa.nyaacorebenchmark.orm;
+
+import cat.nyaa.nyaacore.orm.annotations.Column;
+import cat.nyaa.nyaacore.orm.annotations.Table;
+
+/**
+ * A typical "balance" style table: a primary key and a couple of numbers.
+ */
+@Table("bench_narrow")
+public class NarrowRecord {
+    @Column(primary = true)
+    public long id;
+    @Column
+    public long balance;
+    @Column
+    public int counter;
+
+    public NarrowRecord() {
+    }
+
+    public static NarrowRecord of(long id) {
+        NarrowRecord ret = new NarrowRecord();
+        ret.id = id;
+        ret.balance = id * 100;
+        ret.counter = (int) (id % 64);
+        return ret;
+    }
+}
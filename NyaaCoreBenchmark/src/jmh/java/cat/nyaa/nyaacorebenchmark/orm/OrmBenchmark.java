@@ -0,0 +1,124 @@
+package cat.nyaa.nyaacorebenchmark.orm;
+
+import cat.nyaa.nyaacore.orm.RollbackGuard;
+import cat.nyaa.nyaacore.orm.WhereClause;
+import cat.nyaa.nyaacore.orm.backends.IConnectedDatabase;
+import cat.nyaa.nyaacore.orm.backends.ITypedTable;
+import cat.nyaa.nyaacore.orm.backends.SQLiteDatabase;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.DriverManager;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+/**
+ * Throughput of the basic {@link ITypedTable} operations on a SQLite file database.
+ * <p>
+ * MariaDB is not covered: the NyaaCore ORM has no working MySQL backend yet
+ * (see {@link cat.nyaa.nyaacore.orm.backends.MysqlDatabase}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrmBenchmark {
+
+    @Param({"NARROW", "WIDE"})
+    public RowWidth rowWidth;
+
+    @Param({"1000"})
+    public int tableSize;
+
+    private Path dbFile;
+    private IConnectedDatabase db;
+    private ITypedTable<Object> table;
+    private long nextId;
+
+    @Setup(Level.Trial)
+    public void openDatabase() throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        dbFile = Files.createTempFile("nyaacore-bench", ".db");
+        db = new SQLiteDatabase(DriverManager.getConnection("jdbc:sqlite:" + dbFile.toAbsolutePath()));
+        table = rowWidth.getTable(db);
+    }
+
+    @Setup(Level.Iteration)
+    public void fillTable() throws Exception {
+        table.delete(WhereClause.EMPTY);
+        try (RollbackGuard guard = new RollbackGuard(db)) {
+            for (long i = 0; i < tableSize; i++) {
+                table.insert(rowWidth.newRow(i));
+            }
+            guard.commit();
+        }
+        nextId = tableSize;
+    }
+
+    @TearDown(Level.Trial)
+    public void closeDatabase() throws Exception {
+        db.close();
+        Files.deleteIfExists(dbFile);
+    }
+
+    private long randomId() {
+        return ThreadLocalRandom.current().nextLong(tableSize);
+    }
+
+    @Benchmark
+    public void insert() {
+        table.insert(rowWidth.newRow(nextId++));
+    }
+
+    @Benchmark
+    public Object selectByPk() {
+        return table.selectUniqueUnchecked(WhereClause.EQ("id", randomId()));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @BenchmarkMode(Mode.AverageTime)
+    public void fullScan(Blackhole bh) {
+        for (Object row : table.select(WhereClause.EMPTY)) {
+            bh.consume(row);
+        }
+    }
+
+    @Benchmark
+    public void update() {
+        long id = randomId();
+        table.update(rowWidth.newRow(id), WhereClause.EQ("id", id));
+    }
+
+    @Benchmark
+    public int count() {
+        return table.count(WhereClause.EMPTY);
+    }
+
+    public enum RowWidth {
+        NARROW(NarrowRecord.class, NarrowRecord::of),
+        WIDE(WideRecord.class, WideRecord::of);
+
+        private final Class<?> recordClass;
+        private final LongFunction<Object> factory;
+
+        RowWidth(Class<?> recordClass, LongFunction<Object> factory) {
+            this.recordClass = recordClass;
+            this.factory = factory;
+        }
+
+        @SuppressWarnings("unchecked")
+        ITypedTable<Object> getTable(IConnectedDatabase db) {
+            return (ITypedTable<Object>) db.getTable(recordClass);
+        }
+
+        Object newRow(long id) {
+            return factory.apply(id);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package cat.nyaa.nyaacorebenchmark.orm;
+
+import cat.nyaa.nyaacore.orm.annotations.Column;
+import cat.nyaa.nyaacore.orm.annotations.Table;
+
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
+
+/**
+ * One column for each type in {@link cat.nyaa.nyaacore.orm.DataTypeMapping},
+ * through both field and getter/setter access.
+ * <p>
+ * ItemStack columns are not here: ItemStack conversion needs a running server
+ * (registries and a loaded world), see NyaaCoreTester for those.
+ */
+@Table("bench_wide")
+public class WideRecord {
+    @Column(primary = true)
+    public long id;
+    @Column
+    public boolean f_bool;
+    @Column
+    public int f_int;
+    @Column
+    public long f_long;
+    @Column
+    public float f_float;
+    @Column
+    public double f_double;
+    @Column
+    public String f_string;
+    @Column
+    public Kind f_enum;
+    @Column
+    public UUID f_uuid;
+    @Column
+    public ZonedDateTime f_time;
+
+    String m_string;
+    UUID m_uuid;
+
+    public WideRecord() {
+    }
+
+    public static WideRecord of(long id) {
+        WideRecord ret = new WideRecord();
+        ret.id = id;
+        ret.f_bool = id % 2 == 0;
+        ret.f_int = (int) id;
+        ret.f_long = id * 31;
+        ret.f_float = id / 3F;
+        ret.f_double = id / 7D;
+        ret.f_string = "player_" + id;
+        ret.f_enum = Kind.values()[(int) (id % Kind.values().length)];
+        ret.f_uuid = new UUID(id, ~id);
+        ret.f_time = ZonedDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+        ret.m_string = "A fairly long description text for row " + id + ", to make the row a bit wider.";
+        ret.m_uuid = new UUID(~id, id);
+        return ret;
+    }
+
+    @Column
+    public String getM_string() {
+        return m_string;
+    }
+
+    public void setM_string(String m_string) {
+        this.m_string = m_string;
+    }
+
+    @Column
+    public UUID getM_uuid() {
+        return m_uuid;
+    }
+
+    public void setM_uuid(UUID m_uuid) {
+        this.m_uuid = m_uuid;
+    }
+
+    public enum Kind {
+        BUY,
+        SELL,
+        AUCTION,
+        MAIL
+    }
+}
@@ -5,4 +5,6 @@ pluginManagement {
     }
 }
 
-rootProject.name = "NyaaCore"
\ No newline at end of file
+rootProject.name = "NyaaCore"
+
+include("NyaaCoreBenchmark")
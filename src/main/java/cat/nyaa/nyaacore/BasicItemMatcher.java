@@ -1,18 +1,13 @@
 package cat.nyaa.nyaacore;
 
 import cat.nyaa.nyaacore.configuration.ISerializable;
-import org.bukkit.ChatColor;
-import org.bukkit.enchantments.Enchantment;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.inventory.meta.Damageable;
-import org.bukkit.inventory.meta.ItemMeta;
-import org.bukkit.inventory.meta.Repairable;
 
-import java.util.*;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
-/* TODO: support NBT matching       */
-/* TODO: item attribute modifiers   */
-/* TODO: item flags                 */
 public class BasicItemMatcher implements ISerializable {
     @Serializable
     public ItemStack itemTemplate = null;
@@ -30,10 +25,19 @@ public class BasicItemMatcher implements ISerializable {
     public MatchingMode nameMatch = MatchingMode.ARBITRARY;
     @Serializable
     public MatchingMode repairCostMatch = MatchingMode.EXACT;
+    @Serializable
+    public Map<String, ItemDataRule> dataRules = new LinkedHashMap<>(); // rule name -> rule on custom data or data components, all must match
+    private transient CompiledItemMatcher compiled;
 
+    /**
+     * @see CompiledItemMatcher#containsMatch(Collection, ItemStack) for matching against the same list repeatedly
+     * @see MatcherIndex for long lists
+     */
     public static boolean containsMatch(Collection<BasicItemMatcher> list, ItemStack item) {
+        if (item == null) return false;
+        CompiledItemMatcher.Candidate candidate = new CompiledItemMatcher.Candidate(item);
         for (BasicItemMatcher m : list) {
-            if (m.matches(item)) {
+            if (m.compile().matches(candidate)) { // cached, see compile()
                 return true;
             }
         }
@@ -41,80 +45,35 @@ public class BasicItemMatcher implements ISerializable {
     }
 
     public boolean matches(ItemStack anotherItem) {
-        ItemStack base = itemTemplate.clone();
-        ItemStack given = anotherItem.clone();
-        base.setAmount(1);
-        given.setAmount(1);
-        if (requireExact) return base.equals(given);
-        if (!base.getType().equals(given.getType())) return false;
-
-        ItemMeta baseItemMeta = base.getItemMeta();
-        ItemMeta givenItemMeta = given.getItemMeta();
-        if (repairCostMatch == MatchingMode.EXACT &&
-                baseItemMeta instanceof Repairable && givenItemMeta instanceof Repairable &&
-                !(((Repairable) givenItemMeta).getRepairCost() == ((Repairable) baseItemMeta).getRepairCost())) {
-            return false;
-        }
-
-        int baseDamage = ((Damageable) baseItemMeta).getDamage();
-        int givenDamage = ((Damageable) givenItemMeta).getDamage();
-        if (minDamageValue == -2 && givenDamage < baseDamage) return false;
-        if (minDamageValue >= 0 && givenDamage < minDamageValue) return false;
-        if (maxDamageValue == -2 && givenDamage > baseDamage) return false;
-        if (maxDamageValue >= 0 && givenDamage > maxDamageValue) return false;
-
-        String baseDisplay = getDisplayName(base);
-        String givenDisplay = getDisplayName(given);
-        if (nameMatch == MatchingMode.EXACT && !baseDisplay.equals(givenDisplay)) return false;
-        if (nameMatch == MatchingMode.EXACT_TEXT && !ChatColor.stripColor(baseDisplay).equals(ChatColor.stripColor(givenDisplay)))
-            return false;
-        if (nameMatch == MatchingMode.CONTAINS && !givenDisplay.contains(baseDisplay)) return false;
-        if (nameMatch == MatchingMode.CONTAINS_TEXT && !ChatColor.stripColor(givenDisplay).contains(ChatColor.stripColor(baseDisplay)))
-            return false;
-
-        Map<Enchantment, Integer> baseEnch = base.getEnchantments();
-        Map<Enchantment, Integer> givenEnch = given.getEnchantments();
-        if (enchantMatch == MatchingMode.EXACT || enchantMatch == MatchingMode.EXACT_TEXT) {
-            if (!baseEnch.equals(givenEnch)) return false;
-        } else if (enchantMatch == MatchingMode.CONTAINS || enchantMatch == MatchingMode.CONTAINS_TEXT) {
-            for (Map.Entry<Enchantment, Integer> e : baseEnch.entrySet()) {
-                if (!givenEnch.containsKey(e.getKey()) || givenEnch.get(e.getKey()) < e.getValue())
-                    return false;
-            }
-        }
-
-        String[] baseLore = getLore(base);
-        String[] givenLore = getLore(given);
-        if (loreMatch == MatchingMode.EXACT && !Arrays.deepEquals(baseLore, givenLore)) return false;
-        if (loreMatch == MatchingMode.CONTAINS && !containStrArr(givenLore, baseLore, false)) return false;
-        if (loreMatch == MatchingMode.EXACT_TEXT) {
-            for (int i = 0; i < baseLore.length; i++) baseLore[i] = ChatColor.stripColor(baseLore[i]);
-            for (int i = 0; i < givenLore.length; i++) givenLore[i] = ChatColor.stripColor(givenLore[i]);
-            if (!Arrays.deepEquals(baseLore, givenLore)) return false;
-        }
-        return loreMatch != MatchingMode.CONTAINS_TEXT || containStrArr(givenLore, baseLore, true);
+        return compile().matches(anotherItem);
     }
 
-    private String getDisplayName(ItemStack i) {
-        if (i.hasItemMeta() && i.getItemMeta().hasDisplayName()) return i.getItemMeta().getDisplayName();
-        return i.getType().name();
+    /**
+     * The compiled matcher is cached until a field of this matcher is assigned.
+     * Call {@link #invalidate()} after changing the template or the data rules in place.
+     *
+     * @return the matcher with the template features precomputed
+     */
+    public CompiledItemMatcher compile() {
+        CompiledItemMatcher ret = compiled;
+        if (ret == null || !ret.isCompiledFrom(this)) {
+            ret = new CompiledItemMatcher(this);
+            compiled = ret;
+        }
+        return ret;
     }
 
-    private String[] getLore(ItemStack i) {
-        if (!i.hasItemMeta() || !i.getItemMeta().hasLore()) return new String[0];
-        return i.getItemMeta().getLore().toArray(new String[0]);
+    /**
+     * Drop the cached compiled matcher
+     */
+    public void invalidate() {
+        compiled = null;
     }
 
-    private boolean containStrArr(String[] sample, String[] pattern, boolean stripColor) {
-        Set<String> sampleSet = new HashSet<>();
-        for (String s : sample) {
-            sampleSet.add(stripColor ? ChatColor.stripColor(s) : s);
-        }
-        for (String s : pattern) {
-            if (!sampleSet.contains(s))
-                return false;
-        }
-        return true;
+    @Override
+    public void deserialize(ConfigurationSection config) {
+        ISerializable.super.deserialize(config);
+        compiled = null;
     }
 
     public enum MatchingMode {
@@ -0,0 +1,320 @@
+package cat.nyaa.nyaacore;
+
+import cat.nyaa.nyaacore.BasicItemMatcher.MatchingMode;
+import cat.nyaa.nyaacore.utils.ItemFingerprint;
+import net.minecraft.core.component.DataComponentMap;
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.craftbukkit.inventory.CraftItemStack;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.Damageable;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.inventory.meta.Repairable;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * A {@link BasicItemMatcher} with everything about its template worked out once:
+ * stripped name, lore lines and sets, enchantments, damage bounds, repair cost and {@link ItemDataRule}s.
+ * Candidates are read through a {@link Candidate}, which reads the item meta once
+ * and only the features some matcher asks for, and is never cloned.
+ * <p>
+ * Created by {@link BasicItemMatcher#compile()}, later changes to the matcher or its template are not seen.
+ * <p>
+ * Same rules as before compiling, except that an item whose meta is not {@link Damageable} counts as damage 0,
+ * and {@link MatchingMode#CONTAINS_TEXT} strips the colors of the template lore too.
+ */
+public final class CompiledItemMatcher implements Predicate<ItemStack> {
+    private final Material type;
+    private final boolean requireExact;
+    private final ItemStack template;
+    private ItemFingerprint fingerprint; // of the template, computed when first asked for
+
+    private final Predicate<DataComponentMap>[] dataRules;
+    private final boolean needsMeta;
+    private final Integer repairCost; // null if not compared
+    private final int minDamage;
+    private final int maxDamage;
+    private final MatchingMode nameMatch;
+    private final String name; // raw or stripped, as nameMatch compares
+    private final MatchingMode enchantMatch;
+    private final Map<Enchantment, Integer> enchants;
+    private final MatchingMode loreMatch;
+    private final List<String> lore; // raw or stripped, as loreMatch compares
+
+    // settings of the source matcher, to tell whether it was reassigned since
+    private final ItemStack sourceTemplate;
+    private final Map<String, ItemDataRule> sourceDataRules;
+    private final int sourceMinDamage;
+    private final int sourceMaxDamage;
+    private final MatchingMode sourceRepairCostMatch;
+
+    CompiledItemMatcher(BasicItemMatcher matcher) {
+        if (matcher.itemTemplate == null) throw new IllegalArgumentException("matcher has no template");
+        sourceTemplate = matcher.itemTemplate;
+        sourceDataRules = matcher.dataRules;
+        sourceMinDamage = matcher.minDamageValue;
+        sourceMaxDamage = matcher.maxDamageValue;
+        sourceRepairCostMatch = matcher.repairCostMatch;
+        template = matcher.itemTemplate.clone();
+        template.setAmount(1);
+        type = template.getType();
+        requireExact = matcher.requireExact;
+
+        dataRules = compileDataRules(matcher);
+
+        ItemMeta meta = template.getItemMeta();
+        repairCost = matcher.repairCostMatch == MatchingMode.EXACT && meta instanceof Repairable r ? r.getRepairCost() : null;
+        int damage = meta instanceof Damageable d ? d.getDamage() : 0;
+        minDamage = matcher.minDamageValue == -2 ? damage : matcher.minDamageValue >= 0 ? matcher.minDamageValue : Integer.MIN_VALUE;
+        maxDamage = matcher.maxDamageValue == -2 ? damage : matcher.maxDamageValue >= 0 ? matcher.maxDamageValue : Integer.MAX_VALUE;
+
+        nameMatch = matcher.nameMatch;
+        String displayName = meta != null && meta.hasDisplayName() ? meta.getDisplayName() : type.name();
+        name = isText(nameMatch) ? ChatColor.stripColor(displayName) : displayName;
+
+        enchantMatch = matcher.enchantMatch;
+        enchants = meta == null ? Collections.emptyMap() : Map.copyOf(meta.getEnchants());
+
+        loreMatch = matcher.loreMatch;
+        List<String> lines = meta != null && meta.hasLore() ? meta.getLore() : Collections.emptyList();
+        lore = isText(loreMatch) ? lines.stream().map(ChatColor::stripColor).toList() : List.copyOf(lines);
+
+        needsMeta = repairCost != null || minDamage != Integer.MIN_VALUE || maxDamage != Integer.MAX_VALUE
+                || nameMatch != MatchingMode.ARBITRARY || enchantMatch != MatchingMode.ARBITRARY || loreMatch != MatchingMode.ARBITRARY;
+    }
+
+    /**
+     * @return false if a field of the matcher was assigned since it was compiled; changes inside the template or the rules are not seen
+     */
+    boolean isCompiledFrom(BasicItemMatcher matcher) {
+        return matcher.itemTemplate == sourceTemplate && matcher.dataRules == sourceDataRules
+                && matcher.requireExact == requireExact && matcher.minDamageValue == sourceMinDamage && matcher.maxDamageValue == sourceMaxDamage
+                && matcher.nameMatch == nameMatch && matcher.enchantMatch == enchantMatch && matcher.loreMatch == loreMatch
+                && matcher.repairCostMatch == sourceRepairCostMatch;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Predicate<DataComponentMap>[] compileDataRules(BasicItemMatcher matcher) {
+        if (requireExact || matcher.dataRules == null || matcher.dataRules.isEmpty()) return new Predicate[0];
+        DataComponentMap components = CraftItemStack.unwrap(template).getComponents();
+        List<Predicate<DataComponentMap>> ret = new ArrayList<>();
+        for (Map.Entry<String, ItemDataRule> e : matcher.dataRules.entrySet()) {
+            try {
+                ret.add(e.getValue().compile(components));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("data rule " + e.getKey() + ": " + ex.getMessage(), ex);
+            }
+        }
+        return ret.toArray(new Predicate[0]);
+    }
+
+    private static boolean isText(MatchingMode mode) {
+        return mode == MatchingMode.EXACT_TEXT || mode == MatchingMode.CONTAINS_TEXT;
+    }
+
+    /**
+     * @return true if any of the matchers matches the item, its features are read only once
+     */
+    public static boolean containsMatch(Collection<CompiledItemMatcher> list, ItemStack item) {
+        Candidate candidate = new Candidate(item);
+        for (CompiledItemMatcher m : list) {
+            if (m.matches(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Material getType() {
+        return type;
+    }
+
+    public boolean isRequireExact() {
+        return requireExact;
+    }
+
+    /**
+     * @return fingerprint of the template if exact matching is required, otherwise null
+     */
+    public ItemFingerprint getFingerprint() {
+        if (requireExact && fingerprint == null) fingerprint = ItemFingerprint.of(template);
+        return fingerprint;
+    }
+
+    /**
+     * @return the stripped display name every matching item has, null if the name is not required to be equal
+     */
+    String getNameKey() {
+        if (requireExact) return null;
+        return switch (nameMatch) {
+            case EXACT -> ChatColor.stripColor(name);
+            case EXACT_TEXT -> name;
+            default -> null;
+        };
+    }
+
+    @Override
+    public boolean test(ItemStack item) {
+        return matches(item);
+    }
+
+    public boolean matches(ItemStack item) {
+        return item != null && matches(new Candidate(item));
+    }
+
+    public boolean matches(Candidate candidate) {
+        ItemStack item = candidate.item;
+        if (requireExact) {
+            // the fingerprint only saves time if already known, e.g. from a MatcherIndex lookup
+            if (candidate.fingerprint != null && !getFingerprint().equals(candidate.fingerprint)) return false;
+            return template.isSimilar(item);
+        }
+        if (item.getType() != type) return false;
+        if (dataRules.length > 0) {
+            DataComponentMap components = candidate.components();
+            for (Predicate<DataComponentMap> rule : dataRules) {
+                if (!rule.test(components)) return false;
+            }
+        }
+        if (!needsMeta) return true;
+
+        ItemMeta meta = candidate.meta();
+        if (repairCost != null && meta instanceof Repairable r && r.getRepairCost() != repairCost) return false;
+
+        if (minDamage != Integer.MIN_VALUE || maxDamage != Integer.MAX_VALUE) {
+            int damage = meta instanceof Damageable d ? d.getDamage() : 0;
+            if (damage < minDamage || damage > maxDamage) return false;
+        }
+
+        switch (nameMatch) {
+            case EXACT -> {
+                if (!name.equals(candidate.name())) return false;
+            }
+            case EXACT_TEXT -> {
+                if (!name.equals(candidate.strippedName())) return false;
+            }
+            case CONTAINS -> {
+                if (!candidate.name().contains(name)) return false;
+            }
+            case CONTAINS_TEXT -> {
+                if (!candidate.strippedName().contains(name)) return false;
+            }
+            default -> {
+            }
+        }
+
+        switch (enchantMatch) {
+            case EXACT, EXACT_TEXT -> {
+                if (!enchants.equals(candidate.enchants())) return false;
+            }
+            case CONTAINS, CONTAINS_TEXT -> {
+                if (!enchants.isEmpty()) {
+                    Map<Enchantment, Integer> given = candidate.enchants();
+                    for (Map.Entry<Enchantment, Integer> e : enchants.entrySet()) {
+                        Integer level = given.get(e.getKey());
+                        if (level == null || level < e.getValue()) return false;
+                    }
+                }
+            }
+            default -> {
+            }
+        }
+
+        return switch (loreMatch) {
+            case EXACT -> lore.equals(candidate.lore());
+            case EXACT_TEXT -> lore.equals(candidate.strippedLore());
+            case CONTAINS -> lore.isEmpty() || candidate.loreSet().containsAll(lore);
+            case CONTAINS_TEXT -> lore.isEmpty() || candidate.strippedLoreSet().containsAll(lore);
+            default -> true;
+        };
+    }
+
+    /**
+     * An item being matched, its features are read on first use and shared by all matchers
+     */
+    public static final class Candidate {
+        private final ItemStack item;
+        private DataComponentMap components;
+        private boolean metaRead;
+        private ItemMeta meta;
+        private ItemFingerprint fingerprint;
+        private String name;
+        private String strippedName;
+        private Map<Enchantment, Integer> enchants;
+        private List<String> lore;
+        private List<String> strippedLore;
+        private Set<String> loreSet;
+        private Set<String> strippedLoreSet;
+
+        public Candidate(ItemStack item) {
+            if (item == null) throw new IllegalArgumentException();
+            this.item = item;
+        }
+
+        public ItemStack getItem() {
+            return item;
+        }
+
+        ItemFingerprint fingerprint() {
+            if (fingerprint == null) fingerprint = ItemFingerprint.of(item);
+            return fingerprint;
+        }
+
+        DataComponentMap components() {
+            if (components == null) components = CraftItemStack.unwrap(item).getComponents();
+            return components;
+        }
+
+        ItemMeta meta() {
+            if (!metaRead) {
+                meta = item.getItemMeta();
+                metaRead = true;
+            }
+            return meta;
+        }
+
+        String name() {
+            if (name == null) {
+                ItemMeta meta = meta();
+                name = meta != null && meta.hasDisplayName() ? meta.getDisplayName() : item.getType().name();
+            }
+            return name;
+        }
+
+        String strippedName() {
+            if (strippedName == null) strippedName = ChatColor.stripColor(name());
+            return strippedName;
+        }
+
+        Map<Enchantment, Integer> enchants() {
+            if (enchants == null) enchants = meta() == null ? Collections.emptyMap() : meta().getEnchants();
+            return enchants;
+        }
+
+        List<String> lore() {
+            if (lore == null) {
+                ItemMeta meta = meta();
+                lore = meta != null && meta.hasLore() ? meta.getLore() : Collections.emptyList();
+            }
+            return lore;
+        }
+
+        List<String> strippedLore() {
+            if (strippedLore == null) strippedLore = lore().stream().map(ChatColor::stripColor).toList();
+            return strippedLore;
+        }
+
+        Set<String> loreSet() {
+            if (loreSet == null) loreSet = new HashSet<>(lore());
+            return loreSet;
+        }
+
+        Set<String> strippedLoreSet() {
+            if (strippedLoreSet == null) strippedLoreSet = new HashSet<>(strippedLore());
+            return strippedLoreSet;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package cat.nyaa.nyaacore;
+
+import cat.nyaa.nyaacore.configuration.ISerializable;
+import net.minecraft.core.component.DataComponentMap;
+import net.minecraft.core.component.DataComponentType;
+import net.minecraft.core.component.DataComponents;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.item.component.CustomData;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * A rule of {@link BasicItemMatcher} on the custom data or a data component of the item.
+ * Evaluated on the component map of the item, nothing is serialized.
+ * <p>
+ * {@link Mode#EQUALS} without a value compares with the template, which also works for
+ * components like attribute modifiers or tooltip display (item flags).
+ */
+public class ItemDataRule implements ISerializable {
+    @Serializable
+    public Target target = Target.CUSTOM_DATA;
+    @Serializable
+    public String key; // custom data key, nested compounds separated by `.`; or component id, e.g. `minecraft:unbreakable`
+    @Serializable
+    public Mode mode = Mode.PRESENT;
+    @Serializable
+    public String value = null; // for EQUALS on custom data: string or number to compare with; `null` means same as template
+    @Serializable
+    public double min = Double.NEGATIVE_INFINITY; // for RANGE, inclusive
+    @Serializable
+    public double max = Double.POSITIVE_INFINITY; // for RANGE, inclusive
+
+    public ItemDataRule() {
+    }
+
+    public ItemDataRule(Target target, String key, Mode mode) {
+        this.target = target;
+        this.key = key;
+        this.mode = mode;
+    }
+
+    public static ItemDataRule range(Target target, String key, double min, double max) {
+        ItemDataRule rule = new ItemDataRule(target, key, Mode.RANGE);
+        rule.min = min;
+        rule.max = max;
+        return rule;
+    }
+
+    /**
+     * @param template components of the matcher template
+     */
+    Predicate<DataComponentMap> compile(DataComponentMap template) {
+        if (key == null || key.isEmpty()) throw new IllegalArgumentException("rule has no key");
+        if (target == Target.COMPONENT) {
+            ResourceLocation id = ResourceLocation.tryParse(key);
+            DataComponentType<?> type = id == null ? null : BuiltInRegistries.DATA_COMPONENT_TYPE.getValue(id);
+            if (type == null) throw new IllegalArgumentException("unknown data component: " + key);
+            return switch (mode) {
+                case PRESENT -> c -> c.has(type);
+                case ABSENT -> c -> !c.has(type);
+                case EQUALS -> {
+                    if (value != null) throw new IllegalArgumentException("data components are compared with the template: " + key);
+                    Object expected = template.get(type);
+                    yield c -> Objects.equals(expected, c.get(type));
+                }
+                case RANGE -> {
+                    double lo = min, hi = max;
+                    yield c -> c.get(type) instanceof Number n && inRange(n.doubleValue(), lo, hi);
+                }
+            };
+        }
+
+        String[] path = key.split("\\.");
+        return switch (mode) {
+            case PRESENT -> c -> getTag(c, path) != null;
+            case ABSENT -> c -> getTag(c, path) == null;
+            case EQUALS -> {
+                if (value == null) {
+                    Tag expected = getTag(template, path);
+                    Tag copy = expected == null ? null : expected.copy();
+                    yield c -> Objects.equals(copy, getTag(c, path));
+                }
+                String expected = value;
+                double expectedNumber = parseDouble(value);
+                yield c -> {
+                    Tag tag = getTag(c, path);
+                    if (tag == null) return false;
+                    Optional<Number> n = tag.asNumber();
+                    if (n.isPresent()) return n.get().doubleValue() == expectedNumber;
+                    return tag.asString().map(expected::equals).orElse(false);
+                };
+            }
+            case RANGE -> {
+                double lo = min, hi = max;
+                yield c -> {
+                    Tag tag = getTag(c, path);
+                    return tag != null && tag.asNumber().map(n -> inRange(n.doubleValue(), lo, hi)).orElse(false);
+                };
+            }
+        };
+    }
+
+    private static boolean inRange(double v, double min, double max) {
+        return v >= min && v <= max;
+    }
+
+    private static double parseDouble(String s) {
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException ex) {
+            return Double.NaN; // never equal
+        }
+    }
+
+    private static Tag getTag(DataComponentMap components, String[] path) {
+        CustomData customData = components.get(DataComponents.CUSTOM_DATA);
+        if (customData == null) return null;
+        CompoundTag tag = customData.getUnsafe();
+        for (int i = 0; i < path.length - 1; i++) {
+            tag = tag.getCompound(path[i]).orElse(null);
+            if (tag == null) return null;
+        }
+        return tag.get(path[path.length - 1]);
+    }
+
+    public enum Target {
+        CUSTOM_DATA,
+        COMPONENT
+    }
+
+    public enum Mode {
+        PRESENT,
+        ABSENT,
+        EQUALS,
+        RANGE // numeric custom data, or components holding a number like `minecraft:damage`
+    }
+}
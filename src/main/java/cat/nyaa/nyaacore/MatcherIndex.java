@@ -0,0 +1,225 @@
+package cat.nyaa.nyaacore;
+
+import cat.nyaa.nyaacore.CompiledItemMatcher.Candidate;
+import cat.nyaa.nyaacore.utils.ItemFingerprint;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.*;
+
+/**
+ * Look up which of many item rules match an item, without trying every rule.
+ * <p>
+ * Each rule is an object of the caller (a shop entry, a recipe...) with a {@link BasicItemMatcher}.
+ * Rules requiring exact items are bucketed by {@link ItemFingerprint}, the others by material,
+ * and rules requiring an equal name are further bucketed by their stripped name.
+ * Only rules in the buckets of the item are fully evaluated, in the order they were added.
+ * <p>
+ * Not thread safe.
+ *
+ * @param <T> type of the rules
+ */
+public final class MatcherIndex<T> {
+    private final Map<ItemFingerprint, List<Entry<T>>> exact = new HashMap<>();
+    private final Map<Material, TypeBucket<T>> byType = new EnumMap<>(Material.class);
+    private final Map<T, List<Entry<T>>> entries = new HashMap<>();
+    private long nextSeq;
+    private int size;
+
+    private long queries;
+    private long evaluations;
+    private long matches;
+
+    /**
+     * Add a rule, the matcher is compiled now and later changes to it are not seen
+     */
+    public MatcherIndex<T> add(T rule, BasicItemMatcher matcher) {
+        return add(rule, matcher.compile());
+    }
+
+    /**
+     * Add a rule, a rule may be added more than once with different matchers
+     */
+    public MatcherIndex<T> add(T rule, CompiledItemMatcher matcher) {
+        if (rule == null || matcher == null) throw new IllegalArgumentException();
+        Entry<T> entry = new Entry<>(nextSeq++, rule, matcher);
+        if (matcher.isRequireExact()) {
+            exact.computeIfAbsent(matcher.getFingerprint(), k -> new ArrayList<>()).add(entry);
+        } else {
+            TypeBucket<T> bucket = byType.computeIfAbsent(matcher.getType(), k -> new TypeBucket<>());
+            String nameKey = matcher.getNameKey();
+            if (nameKey == null) {
+                bucket.unnamed.add(entry);
+            } else {
+                bucket.named.computeIfAbsent(nameKey, k -> new ArrayList<>()).add(entry);
+            }
+        }
+        entries.computeIfAbsent(rule, k -> new ArrayList<>()).add(entry);
+        size++;
+        return this;
+    }
+
+    /**
+     * Remove all matchers of a rule
+     *
+     * @return false if the rule was not in the index
+     */
+    public boolean remove(T rule) {
+        List<Entry<T>> removed = entries.remove(rule);
+        if (removed == null) return false;
+        for (Entry<T> entry : removed) {
+            CompiledItemMatcher matcher = entry.matcher;
+            if (matcher.isRequireExact()) {
+                removeFrom(exact, matcher.getFingerprint(), entry);
+            } else {
+                TypeBucket<T> bucket = byType.get(matcher.getType());
+                String nameKey = matcher.getNameKey();
+                if (nameKey == null) {
+                    bucket.unnamed.remove(entry);
+                } else {
+                    removeFrom(bucket.named, nameKey, entry);
+                }
+                if (bucket.unnamed.isEmpty() && bucket.named.isEmpty()) byType.remove(matcher.getType());
+            }
+            size--;
+        }
+        return true;
+    }
+
+    private static <K, T> void removeFrom(Map<K, List<Entry<T>>> map, K key, Entry<T> entry) {
+        List<Entry<T>> list = map.get(key);
+        list.remove(entry);
+        if (list.isEmpty()) map.remove(key);
+    }
+
+    public void clear() {
+        exact.clear();
+        byType.clear();
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * @return number of matchers in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean containsMatch(ItemStack item) {
+        return findFirst(item) != null;
+    }
+
+    /**
+     * @return the earliest added rule matching the item, null if none
+     */
+    public T findFirst(ItemStack item) {
+        List<Entry<T>> found = find(item, true);
+        return found.isEmpty() ? null : found.get(0).rule;
+    }
+
+    /**
+     * @return all rules matching the item, in the order they were added, each rule at most once
+     */
+    public List<T> findAll(ItemStack item) {
+        List<Entry<T>> found = find(item, false);
+        if (found.isEmpty()) return Collections.emptyList();
+        Set<T> ret = new LinkedHashSet<>();
+        for (Entry<T> entry : found) ret.add(entry.rule);
+        return new ArrayList<>(ret);
+    }
+
+    private List<Entry<T>> find(ItemStack item, boolean firstOnly) {
+        queries++;
+        if (item == null || item.getType().isAir() || size == 0) return Collections.emptyList();
+        Candidate candidate = new Candidate(item);
+        List<Entry<T>> exactBucket = exact.isEmpty() ? null : exact.get(candidate.fingerprint());
+        TypeBucket<T> typeBucket = byType.get(item.getType());
+        List<Entry<T>> namedBucket = typeBucket == null || typeBucket.named.isEmpty() ? null : typeBucket.named.get(candidate.strippedName());
+        List<Entry<T>> unnamedBucket = typeBucket == null ? null : typeBucket.unnamed;
+
+        // merge the buckets, each sorted by seq, evaluating in the order the rules were added
+        List<Entry<T>> ret = new ArrayList<>();
+        int i = 0, j = 0, k = 0;
+        int ni = exactBucket == null ? 0 : exactBucket.size();
+        int nj = namedBucket == null ? 0 : namedBucket.size();
+        int nk = unnamedBucket == null ? 0 : unnamedBucket.size();
+        while (i < ni || j < nj || k < nk) {
+            Entry<T> next = null;
+            if (i < ni) next = exactBucket.get(i);
+            if (j < nj && (next == null || namedBucket.get(j).seq < next.seq)) next = namedBucket.get(j);
+            if (k < nk && (next == null || unnamedBucket.get(k).seq < next.seq)) next = unnamedBucket.get(k);
+            if (i < ni && next == exactBucket.get(i)) i++;
+            else if (j < nj && next == namedBucket.get(j)) j++;
+            else k++;
+
+            evaluations++;
+            if (next.matcher.matches(candidate)) {
+                next.hits++;
+                matches++;
+                ret.add(next);
+                if (firstOnly) break;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return number of times the rule matched a query, summed over its matchers
+     */
+    public long getHits(T rule) {
+        List<Entry<T>> list = entries.get(rule);
+        if (list == null) return 0;
+        long ret = 0;
+        for (Entry<T> entry : list) ret += entry.hits;
+        return ret;
+    }
+
+    /**
+     * @return number of lookups since the last {@link #resetStats()}
+     */
+    public long getQueries() {
+        return queries;
+    }
+
+    /**
+     * @return number of matchers fully evaluated, those not ruled out by their bucket
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * @return number of evaluated matchers which matched
+     */
+    public long getMatches() {
+        return matches;
+    }
+
+    public void resetStats() {
+        queries = 0;
+        evaluations = 0;
+        matches = 0;
+        for (List<Entry<T>> list : entries.values()) {
+            for (Entry<T> entry : list) entry.hits = 0;
+        }
+    }
+
+    private static final class TypeBucket<T> {
+        final Map<String, List<Entry<T>>> named = new HashMap<>();
+        final List<Entry<T>> unnamed = new ArrayList<>();
+    }
+
+    private static final class Entry<T> {
+        final long seq;
+        final T rule;
+        final CompiledItemMatcher matcher;
+        long hits;
+
+        Entry(long seq, T rule, CompiledItemMatcher matcher) {
+            this.seq = seq;
+            this.rule = rule;
+            this.matcher = matcher;
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package cat.nyaa.nyaacore;
 
-import cat.nyaa.nyaacore.utils.ItemStackUtils;
+import cat.nyaa.nyaacore.utils.ItemJsonCache;
 import cat.nyaa.nyaacore.utils.LocaleUtils;
 import net.md_5.bungee.api.ChatMessageType;
 import net.md_5.bungee.api.chat.BaseComponent;
@@ -37,18 +37,12 @@ public class Message {
         return "{name:\"{\\\"text\\\":\\\"" + player.getName() + "\\\"}\",id:\"" + player.getUniqueId() + "\",type:\"minecraft:player\"}";
     }
 
+    /**
+     * Get the hover json of an item, without book pages and with container contents trimmed.
+     * The item itself is never modified. Rendered json is cached, see {@link ItemJsonCache}.
+     */
     public static String getItemJsonStripped(ItemStack item) {
-        ItemStack cloned = item.clone();
-        if (cloned.hasItemMeta()) {
-            var meta = cloned.getItemMeta();
-            if(meta instanceof BookMeta) {
-                return ItemStackUtils.itemToJson(removeBookContent(cloned));
-            }
-            if (meta != null) {
-                cloned.setItemMeta(filterItemMeta(meta));
-            }
-        }
-        return ItemStackUtils.itemToJson(cloned);
+        return ItemJsonCache.getStrippedJson(item);
     }
 
 
@@ -142,14 +136,16 @@ public class Message {
         if (items == null || items.length == 0) return this;
         Map<String, BaseComponent> varMap = new HashMap<>();
         for (int i = 0; i < items.length; i++) {
-            ItemStack clone = items[i].clone();
-            boolean hasCustomName = clone.hasItemMeta() && clone.getItemMeta().hasDisplayName();
-            BaseComponent cmp = hasCustomName ? new TextComponent(TextComponent.fromLegacyText(clone.getItemMeta().getDisplayName())) : LocaleUtils.getNameComponent(clone);
-            cmp.setHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_ITEM, new BaseComponent[]{new TextComponent(getItemJsonStripped(clone))}));
-            varMap.put(String.format("{amount:%d}", i), new TextComponent(Integer.toString(clone.getAmount())));
+            // items are only read here, so shared items (e.g. ItemStackUtils#itemsFromBase64Shared) can be passed in
+            ItemStack item = items[i];
+            ItemMeta meta = item.hasItemMeta() ? item.getItemMeta() : null;
+            boolean hasCustomName = meta != null && meta.hasDisplayName();
+            BaseComponent cmp = hasCustomName ? new TextComponent(TextComponent.fromLegacyText(meta.getDisplayName())) : LocaleUtils.getNameComponent(item);
+            cmp.setHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_ITEM, new BaseComponent[]{new TextComponent(getItemJsonStripped(item))}));
+            varMap.put(String.format("{amount:%d}", i), new TextComponent(Integer.toString(item.getAmount())));
             varMap.put(String.format("{itemName:%d}", i), cmp);
             if (i == 0) {
-                varMap.put("{amount}", new TextComponent(Integer.toString(clone.getAmount())));
+                varMap.put("{amount}", new TextComponent(Integer.toString(item.getAmount())));
                 varMap.put("{itemName}", cmp);
             }
         }
@@ -0,0 +1,107 @@
+package cat.nyaa.nyaacore;
+
+import cat.nyaa.nyaacore.cmdreceiver.Arguments;
+import cat.nyaa.nyaacore.cmdreceiver.CommandReceiver;
+import cat.nyaa.nyaacore.cmdreceiver.SubCommand;
+import cat.nyaa.nyaacore.orm.metrics.DatabaseMetrics;
+import cat.nyaa.nyaacore.orm.metrics.OrmMetrics;
+import cat.nyaa.nyaacore.orm.metrics.TableMetrics;
+import cat.nyaa.nyaacore.utils.ItemJsonCache;
+import cat.nyaa.nyaacore.utils.ItemStackUtils;
+import com.google.common.cache.CacheStats;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.Plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Handler of the /nyaacore command
+ */
+public class NyaaCoreCommands extends CommandReceiver {
+
+    public NyaaCoreCommands(Plugin plugin, ILocalizer _i18n) {
+        super(plugin, _i18n);
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + "B";
+        if (bytes < 1024 * 1024) return String.format("%.1fKiB", bytes / 1024D);
+        return String.format("%.1fMiB", bytes / 1024D / 1024D);
+    }
+
+    @Override
+    public String getHelpPrefix() {
+        return "";
+    }
+
+    /**
+     * Print workload counters of all open databases, or the databases whose name contains the argument
+     */
+    @SubCommand(value = "dbstats", permission = "nyaacore.admin", tabCompleter = "dbStatsCompleter")
+    public void dbStats(CommandSender sender, Arguments args) {
+        String filter = args.nextString(null);
+        boolean found = false;
+        for (DatabaseMetrics db : OrmMetrics.getDatabases()) {
+            if (filter != null && !db.getName().contains(filter)) continue;
+            found = true;
+            long transactions = db.getTransactions();
+            msg(sender, "internal.dbstats.database", db.getName(), db.getStatements(), db.getRowsRead(), db.getRowsWritten(),
+                    formatBytes(db.getItemBytesRead()), formatBytes(db.getItemBytesWritten()));
+            msg(sender, "internal.dbstats.transaction", transactions, db.getRollbacks(),
+                    transactions == 0 ? 0 : db.getTransactionMillis() / transactions, db.getMaxTransactionMillis(),
+                    db.getConnections(), db.getConnectionOpenMillis());
+            List<TableMetrics> tables = db.getTables();
+            tables.sort((a, b) -> Long.compare(b.getStatements(), a.getStatements()));
+            for (TableMetrics table : tables) {
+                msg(sender, "internal.dbstats.table", table.getTableName(), table.getStatements(), table.getStatementMillis(),
+                        table.getRowsRead(), table.getRowsWritten(),
+                        formatBytes(table.getItemBytesRead()), formatBytes(table.getItemBytesWritten()));
+            }
+        }
+        if (!found) msg(sender, "internal.dbstats.no_database");
+    }
+
+    /**
+     * Print how many items were loaded from older data versions, see {@link cat.nyaa.nyaacore.orm.ItemDataUpgrader}
+     */
+    @SubCommand(value = "itemversions", permission = "nyaacore.admin")
+    public void itemVersions(CommandSender sender, Arguments args) {
+        Map<Integer, Long> counts = ItemStackUtils.getStaleLoadCounts();
+        msg(sender, "internal.itemversions.current", ItemStackUtils.getCurrentDataVersion());
+        if (counts.isEmpty()) {
+            msg(sender, "internal.itemversions.no_stale");
+        }
+        for (Map.Entry<Integer, Long> e : counts.entrySet()) {
+            msg(sender, "internal.itemversions.stale", e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Print counters of the item deserializer cache and the hover json cache
+     */
+    @SubCommand(value = "itemcache", permission = "nyaacore.admin")
+    public void itemCache(CommandSender sender, Arguments args) {
+        long size = ItemStackUtils.getDeserializerCacheSize();
+        if (size < 0) {
+            msg(sender, "internal.itemcache.disabled");
+        } else {
+            CacheStats stats = ItemStackUtils.getDeserializerCacheStats();
+            msg(sender, "internal.itemcache.stats", size, stats.hitCount(), stats.missCount(),
+                    String.format("%.1f", stats.hitRate() * 100), stats.evictionCount());
+        }
+        CacheStats hover = ItemJsonCache.getStats();
+        msg(sender, "internal.itemcache.hover", ItemJsonCache.size(), hover.hitCount(), hover.missCount(),
+                String.format("%.1f", hover.hitRate() * 100), hover.evictionCount());
+    }
+
+    public List<String> dbStatsCompleter(CommandSender sender, Arguments args) {
+        List<String> ret = new ArrayList<>();
+        String prefix = args.top() == null ? "" : args.top();
+        for (DatabaseMetrics db : OrmMetrics.getDatabases()) {
+            if (db.getName().startsWith(prefix)) ret.add(db.getName());
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,46 @@
+package cat.nyaa.nyaacore;
+
+import cat.nyaa.nyaacore.configuration.PluginConfigure;
+import cat.nyaa.nyaacore.utils.ItemStackUtils;
+import cat.nyaa.nyaacore.utils.TickScheduler;
+import org.bukkit.plugin.java.JavaPlugin;
+
+/**
+ * config.yml of NyaaCore itself
+ */
+public class NyaaCoreConfig extends PluginConfigure {
+    private final JavaPlugin plugin;
+
+    /**
+     * Estimated memory limit of items cached by {@link ItemStackUtils#itemsFromBase64(String)}, 0 to disable the cache
+     */
+    @Serializable
+    public int item_cache_size_mb = (int) (ItemStackUtils.DEFAULT_DESERIALIZER_CACHE_BYTES / 1024 / 1024);
+    /**
+     * Drop cached items not used for this many seconds, 0 to keep them until evicted by size
+     */
+    @Serializable
+    public int item_cache_expire_seconds = 0;
+    /**
+     * Time jobs of the {@link TickScheduler} may take each tick
+     */
+    @Serializable
+    public int tick_budget_micros = (int) (TickScheduler.DEFAULT_BUDGET_NANOS / 1000);
+
+    public NyaaCoreConfig(JavaPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    protected JavaPlugin getPlugin() {
+        return plugin;
+    }
+
+    /**
+     * Apply the loaded values to the utilities they configure
+     */
+    public void apply() {
+        ItemStackUtils.configureDeserializerCache(Math.max(0, item_cache_size_mb) * 1024L * 1024L, Math.max(0, item_cache_expire_seconds));
+        TickScheduler.setBudgetNanos(Math.max(1, tick_budget_micros) * 1000L);
+    }
+}
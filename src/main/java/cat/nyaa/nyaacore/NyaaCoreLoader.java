@@ -1,11 +1,15 @@
 package cat.nyaa.nyaacore;
 
 import cat.nyaa.nyaacore.configuration.NbtItemStack;
+import cat.nyaa.nyaacore.utils.AsyncUtils;
 import cat.nyaa.nyaacore.utils.ClickSelectionUtils;
 import cat.nyaa.nyaacore.utils.OfflinePlayerUtils;
+import cat.nyaa.nyaacore.utils.TickScheduler;
 import net.minecraft.SharedConstants;
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.serialization.ConfigurationSerialization;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.plugin.java.JavaPluginLoader;
@@ -61,10 +65,37 @@ public class NyaaCoreLoader extends JavaPlugin {
             getLogger().info("target minecraft version:" + targetVersion + " ,server version:" + serverVersion);
             Bukkit.getPluginManager().registerEvents(new ClickSelectionUtils._Listener(), this);
             Bukkit.getPluginManager().registerEvents(new OfflinePlayerUtils._Listener(), this);
+            Bukkit.getPluginManager().registerEvents(new AsyncUtils._Listener(), this);
             OfflinePlayerUtils.init();
+            NyaaCoreConfig config = new NyaaCoreConfig(this);
+            config.load();
+            config.apply();
+            LanguageRepository i18n = new LanguageRepository() {
+                @Override
+                protected Plugin getPlugin() {
+                    return NyaaCoreLoader.this;
+                }
+
+                @Override
+                protected String getLanguage() {
+                    return DEFAULT_LANGUAGE;
+                }
+            };
+            i18n.load();
+            PluginCommand command = getCommand("nyaacore");
+            if (command != null) {
+                NyaaCoreCommands commands = new NyaaCoreCommands(this, i18n);
+                command.setExecutor(commands);
+                command.setTabCompleter(commands);
+            }
         }
     }
 
+    @Override
+    public void onDisable() {
+        TickScheduler.shutdown();
+    }
+
     public static class checkVersion {
         private static checkVersion instance;
         private static boolean bypass = false;
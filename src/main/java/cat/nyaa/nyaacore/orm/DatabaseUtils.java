@@ -17,7 +17,13 @@ public class DatabaseUtils {
      */
     public static IConnectedDatabase connect(Plugin plugin, BackendConfig cfg) throws ClassNotFoundException, SQLException {
         if ("sqlite".equalsIgnoreCase(cfg.provider)) {
-            return new SQLiteDatabase(newJdbcConnection(plugin, cfg));
+            long start = System.nanoTime();
+            Connection conn = newJdbcConnection(plugin, cfg);
+            long openNanos = System.nanoTime() - start;
+            // published in OrmMetrics, unlike short-lived connections opened elsewhere
+            SQLiteDatabase db = new SQLiteDatabase(conn, cfg.snapshot_tables, plugin.getName() + "/" + cfg.sqlite_file);
+            db.getMetrics().recordConnection(openNanos);
+            return db;
         } else if ("mysql".equalsIgnoreCase(cfg.provider)) {
             throw new RuntimeException("NyaaCore ORM MySQL backend is not implemented");
         } else {
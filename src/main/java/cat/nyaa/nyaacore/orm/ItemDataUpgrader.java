@@ -0,0 +1,138 @@
+package cat.nyaa.nyaacore.orm;
+
+import cat.nyaa.nyaacore.orm.backends.BackendConfig;
+import cat.nyaa.nyaacore.utils.AsyncUtils;
+import cat.nyaa.nyaacore.utils.ItemStackUtils;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Re-encode items stored with an older data version, so they no longer go through the DataFixer on every load.
+ * {@link ItemStackUtils#getStaleLoadCounts()} tells whether this is needed.
+ * <p>
+ * Config files are already covered: {@link cat.nyaa.nyaacore.configuration.FileConfigure#load()}
+ * saves right after loading, which re-encodes every {@link cat.nyaa.nyaacore.configuration.NbtItemStack}.
+ * Plugins keeping base64 strings elsewhere can use {@link #upgradeBase64(String)}.
+ */
+public final class ItemDataUpgrader {
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private ItemDataUpgrader() {
+    }
+
+    /**
+     * @param base64 string created by {@link ItemStackUtils#itemsToBase64(java.util.List)}
+     * @return the same items encoded with the current data version, or the string itself if it is not stale
+     */
+    public static String upgradeBase64(String base64) {
+        if (!ItemStackUtils.isStale(base64)) return base64;
+        return ItemStackUtils.itemsToBase64(ItemStackUtils.itemsFromBase64(base64));
+    }
+
+    /**
+     * Re-encode stale ItemStack columns of a table on a virtual thread, with a connection of its own.
+     *
+     * @param plugin      the plugin owning the database
+     * @param cfg         the database config
+     * @param recordClass the table type
+     * @return number of cells re-encoded, completed on the virtual thread
+     */
+    public static CompletableFuture<Long> upgradeTableAsync(Plugin plugin, BackendConfig cfg, Class<?> recordClass) {
+        return AsyncUtils.supplyIo(plugin, "upgrade-items", () -> {
+            try (Connection conn = DatabaseUtils.newJdbcConnection(plugin, cfg)) {
+                long cells = upgradeTable(conn, ObjectModifier.fromClass(recordClass), DEFAULT_BATCH_SIZE);
+                if (cells > 0) plugin.getLogger().info("Upgraded " + cells + " item cells in table " + ObjectModifier.fromClass(recordClass).getTableName());
+                return cells;
+            }
+        });
+    }
+
+    /**
+     * Re-encode stale ItemStack columns of a table.
+     * Rows are read in batches of rowid, each batch is written in its own short transaction.
+     * A cell is only overwritten if it did not change since it was read.
+     * Snapshot tables need {@link cat.nyaa.nyaacore.orm.backends.SQLiteDatabase#reloadSnapshots()} afterwards.
+     *
+     * @param conn      the connection, should not be shared with the server thread
+     * @param om        the table type
+     * @param batchSize rows per batch
+     * @return number of cells re-encoded
+     */
+    public static long upgradeTable(Connection conn, ObjectModifier<?> om, int batchSize) throws SQLException {
+        if (batchSize <= 0) throw new IllegalArgumentException();
+        List<String> itemColumns = new ArrayList<>();
+        for (String colName : om.getColNames()) {
+            if (om.getTypeConvertorForColumn(colName) instanceof DataTypeMapping.ItemStackConverter) {
+                itemColumns.add(colName);
+            }
+        }
+        if (itemColumns.isEmpty()) return 0;
+
+        String select = "SELECT rowid," + String.join(",", itemColumns) + " FROM " + om.tableName + " WHERE rowid>? ORDER BY rowid LIMIT ?";
+        long upgraded = 0;
+        long lastRowid = Long.MIN_VALUE;
+        while (true) {
+            List<Long> rowids = new ArrayList<>();
+            List<String[]> values = new ArrayList<>();
+            try (PreparedStatement stmt = conn.prepareStatement(select)) {
+                stmt.setLong(1, lastRowid);
+                stmt.setInt(2, batchSize);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        rowids.add(rs.getLong(1));
+                        String[] row = new String[itemColumns.size()];
+                        for (int i = 0; i < row.length; i++) row[i] = rs.getString(i + 2);
+                        values.add(row);
+                    }
+                }
+            }
+            if (rowids.isEmpty()) return upgraded;
+            lastRowid = rowids.get(rowids.size() - 1);
+
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                for (int col = 0; col < itemColumns.size(); col++) {
+                    String colName = itemColumns.get(col);
+                    String update = "UPDATE " + om.tableName + " SET " + colName + "=? WHERE rowid=? AND " + colName + "=?";
+                    try (PreparedStatement stmt = conn.prepareStatement(update)) {
+                        boolean hasBatch = false;
+                        for (int row = 0; row < rowids.size(); row++) {
+                            String oldValue = values.get(row)[col];
+                            if (oldValue == null || oldValue.isEmpty()) continue;
+                            String newValue;
+                            try {
+                                newValue = upgradeBase64(oldValue);
+                            } catch (RuntimeException ex) {
+                                Bukkit.getLogger().warning("not a valid itemstack value in table " + om.tableName + ", rowid " + rowids.get(row) + ": " + ex);
+                                continue;
+                            }
+                            if (newValue.equals(oldValue)) continue;
+                            stmt.setString(1, newValue);
+                            stmt.setLong(2, rowids.get(row));
+                            stmt.setString(3, oldValue);
+                            stmt.addBatch();
+                            hasBatch = true;
+                        }
+                        if (hasBatch) {
+                            for (int count : stmt.executeBatch()) {
+                                if (count > 0) upgraded += count;
+                            }
+                        }
+                    }
+                }
+                conn.commit();
+            } catch (SQLException | RuntimeException ex) {
+                conn.rollback();
+                throw ex;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+    }
+}
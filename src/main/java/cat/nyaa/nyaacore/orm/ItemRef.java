@@ -0,0 +1,37 @@
+package cat.nyaa.nyaacore.orm;
+
+/**
+ * Reference to an item interned in an {@link ItemStore}.
+ * Can be used as a column type, it is stored as the item hash.
+ */
+public final class ItemRef {
+    private final String hash;
+
+    ItemRef(String hash) {
+        if (hash == null || hash.isEmpty()) throw new IllegalArgumentException();
+        this.hash = hash;
+    }
+
+    public static ItemRef fromString(String hash) {
+        return new ItemRef(hash);
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ItemRef && hash.equals(((ItemRef) o).hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash.hashCode();
+    }
+}
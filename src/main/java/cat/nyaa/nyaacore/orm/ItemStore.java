@@ -0,0 +1,131 @@
+package cat.nyaa.nyaacore.orm;
+
+import cat.nyaa.nyaacore.orm.annotations.Column;
+import cat.nyaa.nyaacore.orm.annotations.Table;
+import cat.nyaa.nyaacore.orm.backends.IConnectedDatabase;
+import cat.nyaa.nyaacore.orm.backends.ITypedTable;
+import cat.nyaa.nyaacore.utils.ItemStackUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Content-addressed item storage.
+ * <p>
+ * Each distinct item is stored once in the table {@code nyaacore_item_store}, keyed by the SHA-256 of its binary NBT.
+ * Other tables keep an {@link ItemRef} column instead of an ItemStack column,
+ * so the same 64 diamonds in a thousand rows are stored and decoded only once.
+ * Decoded items are kept in a soft-referenced cache in front of the table.
+ * <p>
+ * The hash includes the data version, items saved after a server upgrade are stored again under a new hash.
+ * Like the database it is built on, an ItemStore is not thread safe.
+ */
+public class ItemStore {
+    private final IConnectedDatabase db;
+    private final ITypedTable<StoredItem> table;
+    private final Cache<String, ItemStack> prototypes = CacheBuilder.newBuilder().softValues().build();
+
+    public ItemStore(IConnectedDatabase db) {
+        this.db = db;
+        this.table = db.getTable(StoredItem.class);
+    }
+
+    /**
+     * @return the reference the item would be stored under, without storing it
+     */
+    public static ItemRef hash(ItemStack item) {
+        try {
+            return new ItemRef(Hashing.sha256().hashBytes(ItemStackUtils.itemToBinary(item)).toString());
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Store the item if no identical item is stored yet
+     *
+     * @return reference to the stored item
+     */
+    public ItemRef put(ItemStack item) {
+        if (item == null) throw new IllegalArgumentException();
+        ItemRef ref = hash(item);
+        if (prototypes.getIfPresent(ref.getHash()) == null) {
+            WhereClause where = WhereClause.EQ("hash", ref.getHash());
+            if (table.count(where) == 0) {
+                StoredItem record = new StoredItem();
+                record.hash = ref.getHash();
+                record.item = item;
+                try {
+                    table.insert(record);
+                } catch (RuntimeException ex) {
+                    if (table.count(where) == 0) throw ex; // not inserted by someone else meanwhile
+                }
+            }
+            prototypes.put(ref.getHash(), item.clone());
+        }
+        return ref;
+    }
+
+    /**
+     * @return a copy of the stored item, or null if no item is stored under the reference
+     */
+    public ItemStack get(ItemRef ref) {
+        if (ref == null) return null;
+        ItemStack prototype = prototypes.getIfPresent(ref.getHash());
+        if (prototype == null) {
+            StoredItem record = table.selectUniqueUnchecked(WhereClause.EQ("hash", ref.getHash()));
+            if (record == null || record.item == null) return null;
+            prototype = record.item;
+            prototypes.put(ref.getHash(), prototype);
+        }
+        return prototype.clone();
+    }
+
+    /**
+     * Delete all stored items not in the given set, e.g. the references collected from all tables using this store.
+     *
+     * @return number of items deleted
+     */
+    public int retainAll(Set<ItemRef> inUse) {
+        List<String> unused = new ArrayList<>();
+        try (Statement st = db.getConnection().createStatement();
+             ResultSet rs = st.executeQuery("SELECT hash FROM " + table.getTableName())) {
+            while (rs.next()) {
+                String hash = rs.getString(1);
+                if (!inUse.contains(new ItemRef(hash))) unused.add(hash);
+            }
+        } catch (SQLException ex) {
+            throw new RuntimeException(ex);
+        }
+        if (unused.isEmpty()) return 0;
+        try (PreparedStatement stmt = db.getConnection().prepareStatement("DELETE FROM " + table.getTableName() + " WHERE hash=?")) {
+            for (String hash : unused) {
+                stmt.setString(1, hash);
+                stmt.addBatch();
+                prototypes.invalidate(hash);
+            }
+            stmt.executeBatch();
+        } catch (SQLException ex) {
+            throw new RuntimeException(ex);
+        }
+        return unused.size();
+    }
+
+    @Table("nyaacore_item_store")
+    public static class StoredItem {
+        @Column(primary = true)
+        public String hash;
+        @Column
+        public ItemStack item;
+    }
+}
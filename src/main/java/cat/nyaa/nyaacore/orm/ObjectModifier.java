@@ -2,6 +2,8 @@ package cat.nyaa.nyaacore.orm;
 
 import cat.nyaa.nyaacore.orm.annotations.Column;
 import cat.nyaa.nyaacore.orm.annotations.Table;
+import com.google.common.collect.MapMaker;
+import org.bukkit.inventory.ItemStack;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
@@ -30,6 +32,9 @@ public class ObjectModifier<T> {
     public final List<String> orderedColumnName = new ArrayList<>();
     public final Map<String, ObjectFieldModifier> columns = new HashMap<>();
     public final String primaryKey; // null if no primary key
+    // change tracking, see Table#trackChanges()
+    public final boolean trackChanges;
+    private final Map<T, Object[]> loadedValues; // weak identity keys, null if not tracking
 
     private ObjectModifier(Class<T> tableClass) throws NoSuchMethodException {
         Table annotationTable = tableClass.getDeclaredAnnotation(Table.class);
@@ -48,6 +53,8 @@ public class ObjectModifier<T> {
         } else {
             this.tableName = annotationTable.value();
         }
+        this.trackChanges = annotationTable != null && annotationTable.trackChanges();
+        this.loadedValues = trackChanges ? new MapMaker().weakKeys().makeMap() : null;
 
         String pkColumn = null;
 
@@ -193,9 +200,50 @@ public class ObjectModifier<T> {
             Object colValue = rs.getObject(colName);
             setSqlValue(obj, colName, colValue);
         }
+        if (trackChanges) markClean(obj);
         return obj;
     }
 
+    /**
+     * Remember current column values of the object as what is stored in database.
+     * Does nothing if the table does not track changes.
+     * ItemStack columns keep a copy of the item instead of the serialized string,
+     * so unchanged items are never serialized again.
+     */
+    public void markClean(T obj) {
+        if (!trackChanges) return;
+        Object[] values = new Object[orderedColumnName.size()];
+        for (int i = 0; i < values.length; i++) {
+            ObjectFieldModifier fm = columns.get(orderedColumnName.get(i));
+            if (fm.typeConverter instanceof DataTypeMapping.ItemStackConverter) {
+                ItemStack item = (ItemStack) fm.getJavaObject(obj);
+                values[i] = item == null ? null : item.clone();
+            } else {
+                values[i] = fm.getSqlObject(obj);
+            }
+        }
+        loadedValues.put(obj, values);
+    }
+
+    /**
+     * Get the columns modified since the object was loaded or last marked clean.
+     *
+     * @param obj the java object
+     * @return changed column names, or null if the table does not track changes or the object is not tracked
+     */
+    public List<String> getChangedColumns(T obj) {
+        if (!trackChanges) return null;
+        Object[] values = loadedValues.get(obj);
+        if (values == null) return null;
+        List<String> changed = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            ObjectFieldModifier fm = columns.get(orderedColumnName.get(i));
+            Object current = fm.typeConverter instanceof DataTypeMapping.ItemStackConverter ? fm.getJavaObject(obj) : fm.getSqlObject(obj);
+            if (!Objects.equals(values[i], current)) changed.add(orderedColumnName.get(i));
+        }
+        return changed;
+    }
+
     /**
      * Get certain columns(fields) from a table object
      * and the column objects should have been converted to database acceptable objects: long/float/string
@@ -1,6 +1,7 @@
 package cat.nyaa.nyaacore.orm;
 
 import cat.nyaa.nyaacore.orm.backends.IConnectedDatabase;
+import cat.nyaa.nyaacore.orm.metrics.DatabaseMetrics;
 
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -21,10 +22,13 @@ import java.sql.SQLException;
  */
 public class RollbackGuard implements AutoCloseable {
     private final Connection conn;
+    private final DatabaseMetrics metrics;
+    private final long startNanos = System.nanoTime();
     private boolean needRollbackOnClose = false;
 
     public RollbackGuard(IConnectedDatabase db) {
         conn = db.getConnection();
+        metrics = db.getMetrics();
         try {
             conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
             conn.setAutoCommit(false);
@@ -39,6 +43,7 @@ public class RollbackGuard implements AutoCloseable {
             conn.commit();
             conn.setAutoCommit(true);
             needRollbackOnClose = false;
+            if (metrics != null) metrics.recordTransaction(startNanos, true);
         } catch (SQLException ex) {
             needRollbackOnClose = true;
         }
@@ -46,7 +51,10 @@ public class RollbackGuard implements AutoCloseable {
 
     @Override
     public void close() throws Exception {
-        if (needRollbackOnClose) conn.rollback();
+        if (needRollbackOnClose) {
+            conn.rollback();
+            if (metrics != null) metrics.recordTransaction(startNanos, false);
+        }
         conn.setAutoCommit(true);
     }
 }
@@ -0,0 +1,353 @@
+package cat.nyaa.nyaacore.orm;
+
+import cat.nyaa.nyaacore.orm.backends.BackendConfig;
+import cat.nyaa.nyaacore.utils.ItemStackUtils;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.Plugin;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Export/import typed tables in a compact binary dump format.
+ * <p>
+ * Structure of a dump:
+ * - Header: magic "NYTD", version byte, table name (UTF), column count (int), column names (UTF)
+ * - Rows: row body size (int, always positive), then one cell per column in header order
+ * - End: a zero int
+ * <p>
+ * Structure of a cell:
+ * - First byte: cell type, see CELL_* constants
+ * - Then the value: 8 bytes for numbers, int length + bytes for strings (UTF-8) and items (binary NBT)
+ * <p>
+ * Values are dumped as their SQL representation, except ItemStack columns,
+ * which are dumped as binary NBT ({@link ItemStackUtils#itemToBinary(ItemStack)})
+ * instead of compressed base64.
+ */
+public final class TableDumpUtils {
+    private static final int MAGIC = 0x4E595444; // "NYTD"
+    private static final byte VERSION = 1;
+    private static final byte CELL_NULL = 0;
+    private static final byte CELL_LONG = 1;
+    private static final byte CELL_DOUBLE = 2;
+    private static final byte CELL_STRING = 3;
+    private static final byte CELL_ITEM = 4;
+    private static final int IMPORT_BATCH_SIZE = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Export the rows of a table which match the where clause.
+     *
+     * @param conn the connection
+     * @param om   the table type
+     * @param out  the channel, left open
+     * @return number of rows exported
+     */
+    public static long export(Connection conn, ObjectModifier<?> om, WhereClause where, WritableByteChannel out) throws IOException {
+        writeFully(out, ByteBuffer.wrap(header(om)));
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out), BUFFER_SIZE));
+        List<Object> parameters = new ArrayList<>();
+        String sql = where.appendWhereClause("SELECT " + om.getColumnNamesString() + " FROM " + om.tableName, parameters, om);
+        long rows = writeRows(conn, om, sql, parameters, dos);
+        dos.writeInt(0);
+        dos.flush();
+        return rows;
+    }
+
+    /**
+     * Export a table with several connections in parallel.
+     * <p>
+     * The table is split into ranges of the primary key (the rowid if the primary key is not an integer),
+     * each range is exported to a temporary file by its own connection,
+     * then the files are concatenated into the target file with {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+     * Each connection only holds short reads, so the table is never locked for the whole export.
+     *
+     * @param plugin      the plugin owning the database
+     * @param cfg         the database config, used to open one connection per worker
+     * @param recordClass the table type
+     * @param target      the dump file, overwritten if exists
+     * @param parallelism number of workers
+     * @return number of rows exported
+     */
+    public static long exportParallel(Plugin plugin, BackendConfig cfg, Class<?> recordClass, Path target, int parallelism) throws IOException {
+        if (parallelism <= 0) throw new IllegalArgumentException();
+        ObjectModifier<?> om = ObjectModifier.fromClass(recordClass);
+        String rangeColumn = getRangeColumn(om);
+        long min, max;
+        try (Connection conn = DatabaseUtils.newJdbcConnection(plugin, cfg);
+             Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(String.format("SELECT MIN(%1$s), MAX(%1$s) FROM %2$s", rangeColumn, om.tableName))) {
+            rs.next();
+            min = rs.getLong(1);
+            max = rs.getLong(2);
+        } catch (SQLException | ClassNotFoundException ex) {
+            throw new IOException(ex);
+        }
+
+        long step = Math.max(1, (max - min) / parallelism + 1);
+        List<Path> chunkFiles = new ArrayList<>();
+        List<Future<Long>> results = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            for (long start = min; start <= max; start += step) {
+                final long lo = start;
+                final long hi = Math.min(max, start + step - 1);
+                Path chunkFile = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".part");
+                chunkFiles.add(chunkFile);
+                results.add(executor.submit(() -> exportRange(plugin, cfg, om, rangeColumn, lo, hi, chunkFile)));
+                if (hi == max) break;
+            }
+            long rows = 0;
+            for (Future<Long> f : results) {
+                rows += f.get();
+            }
+
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(out, ByteBuffer.wrap(header(om)));
+                for (Path chunkFile : chunkFiles) {
+                    try (FileChannel in = FileChannel.open(chunkFile, StandardOpenOption.READ)) {
+                        long size = in.size();
+                        long pos = 0;
+                        while (pos < size) {
+                            pos += in.transferTo(pos, size - pos, out);
+                        }
+                    }
+                }
+                writeFully(out, ByteBuffer.allocate(4).putInt(0, 0));
+            }
+            return rows;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+            for (Path chunkFile : chunkFiles) {
+                Files.deleteIfExists(chunkFile);
+            }
+        }
+    }
+
+    /**
+     * Import a dump into a table, in one transaction. If the connection already has a transaction open,
+     * the rows become part of it and a failed import only undoes its own rows.
+     * Columns are matched by name, so the column order of the dump does not matter.
+     *
+     * @param conn the connection
+     * @param om   the table type
+     * @param in   the channel, left open
+     * @return number of rows imported
+     */
+    public static long importRows(Connection conn, ObjectModifier<?> om, ReadableByteChannel in) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(Channels.newInputStream(in), BUFFER_SIZE));
+        if (dis.readInt() != MAGIC) throw new IOException("not a table dump");
+        byte version = dis.readByte();
+        if (version != VERSION) throw new IOException("unsupported table dump version: " + version);
+        dis.readUTF(); // table name, informative only
+        int columnCount = dis.readInt();
+        String[] columns = new String[columnCount];
+        boolean[] itemColumns = new boolean[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columns[i] = dis.readUTF();
+            if (!om.hasColumn(columns[i])) {
+                throw new IOException("column " + columns[i] + " not in table " + om.tableName);
+            }
+            itemColumns[i] = om.getTypeConvertorForColumn(columns[i]) instanceof DataTypeMapping.ItemStackConverter;
+        }
+
+        String sql = String.format("INSERT INTO %s(%s) VALUES(%s)", om.tableName,
+                String.join(",", columns), String.join(",", Collections.nCopies(columnCount, "?")));
+        long rows = 0;
+        try {
+            // inside a caller's transaction, only undo this import on error and leave the commit to the caller
+            boolean autoCommit = conn.getAutoCommit();
+            Savepoint savepoint = null;
+            if (autoCommit) {
+                conn.setAutoCommit(false);
+            } else {
+                savepoint = conn.setSavepoint();
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                int pending = 0;
+                while (dis.readInt() > 0) {
+                    for (int i = 0; i < columnCount; i++) {
+                        Object value = readCell(dis);
+                        if (value == null) {
+                            stmt.setNull(i + 1, Types.NULL);
+                        } else if (itemColumns[i]) {
+                            stmt.setObject(i + 1, DataTypeMapping.ItemStackConverter.INSTANCE.toSqlType((ItemStack) value));
+                        } else {
+                            stmt.setObject(i + 1, value);
+                        }
+                    }
+                    stmt.addBatch();
+                    rows++;
+                    if (++pending >= IMPORT_BATCH_SIZE) {
+                        stmt.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) stmt.executeBatch();
+                if (autoCommit) {
+                    conn.commit();
+                } else {
+                    conn.releaseSavepoint(savepoint);
+                }
+            } catch (SQLException | IOException | RuntimeException ex) {
+                if (autoCommit) {
+                    conn.rollback();
+                } else {
+                    conn.rollback(savepoint);
+                }
+                throw ex;
+            } finally {
+                if (autoCommit) conn.setAutoCommit(true);
+            }
+        } catch (SQLException ex) {
+            throw new IOException(sql, ex);
+        }
+        return rows;
+    }
+
+    private static long exportRange(Plugin plugin, BackendConfig cfg, ObjectModifier<?> om, String rangeColumn, long lo, long hi, Path chunkFile) throws Exception {
+        String sql = String.format("SELECT %s FROM %s WHERE %3$s>=? AND %3$s<=?", om.getColumnNamesString(), om.tableName, rangeColumn);
+        try (Connection conn = DatabaseUtils.newJdbcConnection(plugin, cfg);
+             FileChannel out = FileChannel.open(chunkFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out), BUFFER_SIZE));
+            long rows = writeRows(conn, om, sql, Arrays.asList(lo, hi), dos);
+            dos.flush();
+            return rows;
+        }
+    }
+
+    private static String getRangeColumn(ObjectModifier<?> om) {
+        String pk = om.getPkColName();
+        if (pk != null) {
+            Class<?> type = om.columns.get(pk).javaType;
+            if (type == int.class || type == Integer.class || type == long.class || type == Long.class) {
+                return pk;
+            }
+        }
+        return "rowid";
+    }
+
+    private static byte[] header(ObjectModifier<?> om) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeInt(MAGIC);
+        dos.writeByte(VERSION);
+        dos.writeUTF(om.tableName);
+        dos.writeInt(om.getColNames().size());
+        for (String col : om.getColNames()) {
+            dos.writeUTF(col);
+        }
+        dos.flush();
+        return bos.toByteArray();
+    }
+
+    private static long writeRows(Connection conn, ObjectModifier<?> om, String sql, List<Object> parameters, DataOutputStream out) throws IOException {
+        List<String> columns = om.getColNames();
+        boolean[] itemColumns = new boolean[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            itemColumns[i] = om.getTypeConvertorForColumn(columns.get(i)) instanceof DataTypeMapping.ItemStackConverter;
+        }
+        ByteArrayOutputStream rowBuffer = new ByteArrayOutputStream();
+        DataOutputStream row = new DataOutputStream(rowBuffer);
+        long rows = 0;
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.size(); i++) {
+                stmt.setObject(i + 1, parameters.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    rowBuffer.reset();
+                    for (int i = 0; i < columns.size(); i++) {
+                        writeCell(row, rs.getObject(i + 1), itemColumns[i]);
+                    }
+                    row.flush();
+                    out.writeInt(rowBuffer.size());
+                    rowBuffer.writeTo(out);
+                    rows++;
+                }
+            }
+        } catch (SQLException ex) {
+            throw new IOException(sql, ex);
+        }
+        return rows;
+    }
+
+    // a channel may write only part of the buffer
+    private static void writeFully(WritableByteChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    private static void writeCell(DataOutputStream out, Object value, boolean isItem) throws IOException {
+        if (value == null) {
+            out.writeByte(CELL_NULL);
+        } else if (isItem) {
+            ItemStack item = DataTypeMapping.ItemStackConverter.INSTANCE.toJavaType(value);
+            if (item == null) {
+                out.writeByte(CELL_NULL);
+                return;
+            }
+            byte[] nbt = ItemStackUtils.itemToBinary(item);
+            out.writeByte(CELL_ITEM);
+            out.writeInt(nbt.length);
+            out.write(nbt);
+        } else if (value instanceof Float || value instanceof Double) {
+            out.writeByte(CELL_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            out.writeByte(CELL_LONG);
+            out.writeLong(((Number) value).longValue());
+        } else if (value instanceof String) {
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            out.writeByte(CELL_STRING);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else {
+            throw new IllegalArgumentException("Not a dumpable sql value: " + value.getClass());
+        }
+    }
+
+    private static Object readCell(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case CELL_NULL:
+                return null;
+            case CELL_LONG:
+                return in.readLong();
+            case CELL_DOUBLE:
+                return in.readDouble();
+            case CELL_STRING: {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+            case CELL_ITEM: {
+                byte[] nbt = new byte[in.readInt()];
+                in.readFully(nbt);
+                return ItemStackUtils.itemFromBinary(nbt);
+            }
+            default:
+                throw new IOException("bad cell type: " + type);
+        }
+    }
+}
@@ -9,4 +9,6 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Table {
     String value() default ""; // table name
+
+    boolean trackChanges() default false; // remember loaded values so that ITypedTable#update(Object) writes only changed columns
 }
@@ -2,6 +2,10 @@ package cat.nyaa.nyaacore.orm.backends;
 
 import cat.nyaa.nyaacore.configuration.ISerializable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 public class BackendConfig implements ISerializable {
     @Serializable
     public String provider;
@@ -15,6 +19,11 @@ public class BackendConfig implements ISerializable {
     public String mysql_password;
     @Serializable
     public String mysql_jdbc_driver;
+    /**
+     * Tables to be kept in an in-memory snapshot, see {@link SQLiteDatabase.SnapshotTypedTable}
+     */
+    @Serializable
+    public List<String> snapshot_tables = new ArrayList<>();
 
     public BackendConfig() {
     }
@@ -39,4 +48,17 @@ public class BackendConfig implements ISerializable {
     public static BackendConfig mysqlBackend(String url, String username, String password) {
         return new BackendConfig("mysql", null, url, username, password, null);
     }
+
+    /**
+     * Serve reads of these tables from memory. Writes go to both the database file and the snapshot.
+     * Meant for read-mostly tables like item catalogs or price lists.
+     *
+     * @param tableNames table names, as in {@link cat.nyaa.nyaacore.orm.annotations.Table}
+     * @return this config
+     */
+    public BackendConfig withSnapshotTables(String... tableNames) {
+        if (snapshot_tables == null) snapshot_tables = new ArrayList<>();
+        snapshot_tables.addAll(Arrays.asList(tableNames));
+        return this;
+    }
 }
@@ -2,8 +2,14 @@ package cat.nyaa.nyaacore.orm.backends;
 
 import cat.nyaa.nyaacore.orm.DataTypeMapping;
 import cat.nyaa.nyaacore.orm.NonUniqueResultException;
+import cat.nyaa.nyaacore.orm.ObjectModifier;
+import cat.nyaa.nyaacore.orm.TableDumpUtils;
 import cat.nyaa.nyaacore.orm.WhereClause;
+import cat.nyaa.nyaacore.orm.metrics.TableMetrics;
 
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -25,6 +31,13 @@ abstract class BaseTypedTable<T> implements ITypedTable<T> {
      */
     protected abstract Connection getConnection();
 
+    /**
+     * @return workload counters of this table, or null if not counted
+     */
+    protected TableMetrics getMetrics() {
+        return null;
+    }
+
     @Override
     public void delete(WhereClause where) {
         String sql = "DELETE FROM " + getTableName();
@@ -36,7 +49,13 @@ abstract class BaseTypedTable<T> implements ITypedTable<T> {
                 stmt.setObject(x, obj);
                 x++;
             }
+            long start = System.nanoTime();
             stmt.execute();
+            TableMetrics metrics = getMetrics();
+            if (metrics != null) {
+                metrics.recordStatement(start);
+                metrics.recordRowsWritten(stmt.getUpdateCount());
+            }
         } catch (SQLException ex) {
             throw new RuntimeException(sql, ex);
         }
@@ -44,25 +63,45 @@ abstract class BaseTypedTable<T> implements ITypedTable<T> {
 
     @Override
     public void insert(T object) {
-        String sql = String.format("INSERT INTO %s(%s) VALUES(?", getTableName(), getJavaTypeModifier().getColumnNamesString());
-        for (int i = 1; i < getJavaTypeModifier().getColNames().size(); i++) sql += ",?";
-        sql += ")";
+        String sql = insertSql();
         Map<String, Object> objMap = getJavaTypeModifier().getColumnObjectMap(object);
         try (PreparedStatement stmt = getConnection().prepareStatement(sql)) {
-            for (int i = 1; i <= getJavaTypeModifier().getColNames().size(); i++) {
-                String colName = getJavaTypeModifier().getColNames().get(i - 1);
-                if (!objMap.containsKey(colName) || objMap.get(colName) == null) {
-                    stmt.setNull(i, Types.NULL);
-                } else {
-                    stmt.setObject(i, objMap.get(colName));
-                }
-            }
+            bindInsert(stmt, objMap);
+            long start = System.nanoTime();
             stmt.execute();
+            recordInsert(start, objMap);
         } catch (SQLException ex) {
             throw new RuntimeException(sql + "\n" + objMap.toString(), ex);
         }
     }
 
+    protected String insertSql() {
+        String sql = String.format("INSERT INTO %s(%s) VALUES(?", getTableName(), getJavaTypeModifier().getColumnNamesString());
+        for (int i = 1; i < getJavaTypeModifier().getColNames().size(); i++) sql += ",?";
+        sql += ")";
+        return sql;
+    }
+
+    protected void bindInsert(PreparedStatement stmt, Map<String, Object> objMap) throws SQLException {
+        for (int i = 1; i <= getJavaTypeModifier().getColNames().size(); i++) {
+            String colName = getJavaTypeModifier().getColNames().get(i - 1);
+            if (!objMap.containsKey(colName) || objMap.get(colName) == null) {
+                stmt.setNull(i, Types.NULL);
+            } else {
+                stmt.setObject(i, objMap.get(colName));
+            }
+        }
+    }
+
+    protected void recordInsert(long start, Map<String, Object> objMap) {
+        TableMetrics metrics = getMetrics();
+        if (metrics != null) {
+            metrics.recordStatement(start);
+            metrics.recordRowsWritten(1);
+            metrics.recordItemsWritten(objMap);
+        }
+    }
+
     @Override
     public List<T> select(WhereClause where) {
         String sql = "SELECT " + getJavaTypeModifier().getColumnNamesString() + " FROM " + getTableName();
@@ -75,12 +114,19 @@ abstract class BaseTypedTable<T> implements ITypedTable<T> {
                 x++;
             }
             List<T> results = new ArrayList<T>();
+            TableMetrics metrics = getMetrics();
+            long start = System.nanoTime();
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
                     T obj = getJavaTypeModifier().getObjectFromResultSet(rs);
+                    if (metrics != null) metrics.recordItemsRead(rs);
                     results.add(obj);
                 }
             }
+            if (metrics != null) {
+                metrics.recordStatement(start);
+                metrics.recordRowsRead(results.size());
+            }
             return results;
         } catch (SQLException | ReflectiveOperationException ex) {
             throw new RuntimeException(sql, ex);
@@ -110,12 +156,19 @@ abstract class BaseTypedTable<T> implements ITypedTable<T> {
                 x++;
             }
             T result = null;
+            TableMetrics metrics = getMetrics();
+            long start = System.nanoTime();
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
                     result = getJavaTypeModifier().getObjectFromResultSet(rs);
+                    if (metrics != null) {
+                        metrics.recordItemsRead(rs);
+                        metrics.recordRowsRead(1);
+                    }
                     if (rs.next()) result = null; // if more than one results, then return null;
                 }
             }
+            if (metrics != null) metrics.recordStatement(start);
             return result;
         } catch (SQLException | ReflectiveOperationException ex) {
             throw new RuntimeException(sql, ex);
@@ -133,9 +186,11 @@ abstract class BaseTypedTable<T> implements ITypedTable<T> {
                 stmt.setObject(x, obj);
                 x++;
             }
+            long start = System.nanoTime();
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
                     int count = rs.getInt("C");
+                    if (getMetrics() != null) getMetrics().recordStatement(start);
                     return count;
                 } else {
                     throw new RuntimeException("COUNT() returns empty result");
@@ -175,17 +230,38 @@ abstract class BaseTypedTable<T> implements ITypedTable<T> {
                 }
                 idx++;
             }
+            long start = System.nanoTime();
             stmt.execute();
+            TableMetrics metrics = getMetrics();
+            if (metrics != null) {
+                metrics.recordStatement(start);
+                metrics.recordRowsWritten(stmt.getUpdateCount());
+                metrics.recordItemsWritten(newValues);
+            }
         } catch (SQLException ex) {
             throw new RuntimeException(sql, ex);
         }
     }
 
+    @Override
+    public void update(T record) {
+        ObjectModifier<T> om = getJavaTypeModifier();
+        String pk = om.getPkColName();
+        if (pk == null) throw new IllegalArgumentException("table has no primary key: " + getTableName());
+        List<String> changed = om.getChangedColumns(record);
+        if (changed != null && changed.isEmpty()) return;
+        String[] columns = changed == null ? new String[0] : changed.toArray(new String[0]);
+        update(record, WhereClause.EQ(pk, om.columns.get(pk).getJavaObject(record)), columns);
+        om.markClean(record);
+    }
+
     @Override
     public <R> R selectSingleton(String query, DataTypeMapping.IDataTypeConverter<R> resultTypeConverter) {
         String sql = String.format("SELECT %s FROM %s", query, getTableName());
+        long start = System.nanoTime();
         try (Statement st = getConnection().createStatement();
              ResultSet rs = st.executeQuery(sql)) {
+            if (getMetrics() != null) getMetrics().recordStatement(start);
             if (rs.getMetaData().getColumnCount() != 1) {
                 throw new RuntimeException("result has multiple columns");
             }
@@ -202,4 +278,26 @@ abstract class BaseTypedTable<T> implements ITypedTable<T> {
             throw new RuntimeException(ex);
         }
     }
+
+    @Override
+    public long exportTo(WritableByteChannel out, WhereClause where) throws IOException {
+        long start = System.nanoTime();
+        long rows = TableDumpUtils.export(getConnection(), getJavaTypeModifier(), where, out);
+        if (getMetrics() != null) {
+            getMetrics().recordStatement(start);
+            getMetrics().recordRowsRead(rows);
+        }
+        return rows;
+    }
+
+    @Override
+    public long importFrom(ReadableByteChannel in) throws IOException {
+        long start = System.nanoTime();
+        long rows = TableDumpUtils.importRows(getConnection(), getJavaTypeModifier(), in);
+        if (getMetrics() != null) {
+            getMetrics().recordStatement(start);
+            getMetrics().recordRowsWritten(rows);
+        }
+        return rows;
+    }
 }
@@ -1,5 +1,6 @@
 package cat.nyaa.nyaacore.orm.backends;
 
+import cat.nyaa.nyaacore.orm.metrics.DatabaseMetrics;
 import org.bukkit.plugin.Plugin;
 
 import java.sql.Connection;
@@ -43,6 +44,13 @@ public interface IConnectedDatabase extends AutoCloseable {
 
     boolean verifySchema(String tableName, Class recordClass);
 
+    /**
+     * @return workload counters of this database, or null if not supported
+     */
+    default DatabaseMetrics getMetrics() {
+        return null;
+    }
+
     /**
      * Execute a SQL file bundled with some plugin, using the default Connection.
      *
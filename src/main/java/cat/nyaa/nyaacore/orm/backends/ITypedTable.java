@@ -2,8 +2,12 @@ package cat.nyaa.nyaacore.orm.backends;
 
 import cat.nyaa.nyaacore.orm.NonUniqueResultException;
 import cat.nyaa.nyaacore.orm.ObjectModifier;
+import cat.nyaa.nyaacore.orm.TableDumpUtils;
 import cat.nyaa.nyaacore.orm.WhereClause;
 
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 
 /**
@@ -48,6 +52,16 @@ public interface ITypedTable<T> extends ITable {
      */
     void update(T newRecord, WhereClause where, String... columns);
 
+    /**
+     * Update the record with the same primary key.
+     * If the table is annotated with {@code @Table(trackChanges = true)} and the record was loaded from database,
+     * only columns changed since loading are written, and nothing is written if no column changed.
+     * Otherwise all columns are updated.
+     *
+     * @param record the record, must have a primary key
+     */
+    void update(T record);
+
     /**
      * Select only one record.
      *
@@ -75,4 +89,22 @@ public interface ITypedTable<T> extends ITable {
      * implNote: has small performance advantage over {@link ITypedTable#select(WhereClause)}.size() because it "SELECT COUNT(*)"
      */
     int count(WhereClause where);
+
+    /**
+     * Stream the records matching the where clauses to the channel, in the format of {@link TableDumpUtils}.
+     * See {@link TableDumpUtils#exportParallel} for exporting large tables with several connections.
+     *
+     * @param out the channel, will not be closed
+     * @return number of records exported
+     */
+    long exportTo(WritableByteChannel out, WhereClause where) throws IOException;
+
+    /**
+     * Insert all records of a dump created by {@link #exportTo(WritableByteChannel, WhereClause)}
+     * Either all records are inserted or none.
+     *
+     * @param in the channel, will not be closed
+     * @return number of records imported
+     */
+    long importFrom(ReadableByteChannel in) throws IOException;
 }
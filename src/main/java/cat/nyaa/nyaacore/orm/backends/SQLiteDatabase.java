@@ -1,30 +1,61 @@
 package cat.nyaa.nyaacore.orm.backends;
 
 import cat.nyaa.nyaacore.orm.BundledSQLUtils;
+import cat.nyaa.nyaacore.orm.DataTypeMapping;
 import cat.nyaa.nyaacore.orm.ObjectFieldModifier;
 import cat.nyaa.nyaacore.orm.ObjectModifier;
+import cat.nyaa.nyaacore.orm.WhereClause;
+import cat.nyaa.nyaacore.orm.metrics.DatabaseMetrics;
+import cat.nyaa.nyaacore.orm.metrics.OrmMetrics;
+import cat.nyaa.nyaacore.orm.metrics.TableMetrics;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.Plugin;
 
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.sql.*;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.StringJoiner;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 
 public class SQLiteDatabase implements IConnectedDatabase {
 
     private final Connection dbConn;
+    private final Set<String> snapshotTableNames = new HashSet<>();
+    private final Map<String, SnapshotTypedTable<?>> snapshotTables = new HashMap<>();
+    private final DatabaseMetrics metrics;
 
     public SQLiteDatabase(Connection sqlConnection) {
+        this(sqlConnection, null);
+    }
+
+    /**
+     * @param sqlConnection  the JDBC connection
+     * @param snapshotTables tables whose reads are served from an in-memory snapshot, nullable
+     */
+    public SQLiteDatabase(Connection sqlConnection, Collection<String> snapshotTables) {
+        this(sqlConnection, snapshotTables, null);
+    }
+
+    /**
+     * @param sqlConnection  the JDBC connection
+     * @param snapshotTables tables whose reads are served from an in-memory snapshot, nullable
+     * @param name           name shown in {@link OrmMetrics}, null for a short-lived connection whose workload is not counted
+     */
+    public SQLiteDatabase(Connection sqlConnection, Collection<String> snapshotTables, String name) {
         if (sqlConnection == null) throw new IllegalArgumentException();
         dbConn = sqlConnection;
+        if (snapshotTables != null) snapshotTableNames.addAll(snapshotTables);
         try {
             dbConn.setAutoCommit(true);
             dbConn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
         } catch (SQLException ex) {
             throw new RuntimeException(ex);
         }
+        metrics = name == null ? null : OrmMetrics.register(name);
     }
 
     private static String getTableCreationScheme(ObjectFieldModifier fm) {
@@ -53,9 +84,32 @@ public class SQLiteDatabase implements IConnectedDatabase {
 
     @Override
     public void close() throws SQLException {
+        for (SnapshotTypedTable<?> table : snapshotTables.values()) {
+            table.closeSnapshot();
+        }
+        snapshotTables.clear();
+        if (metrics != null) OrmMetrics.unregister(metrics);
         dbConn.close();
     }
 
+    /**
+     * @return null if the database was opened without a name
+     */
+    @Override
+    public DatabaseMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Reload all snapshot tables from the database file.
+     * Call this after the tables are changed by other connections, raw SQL or a rolled back transaction.
+     */
+    public void reloadSnapshots() {
+        for (SnapshotTypedTable<?> table : snapshotTables.values()) {
+            table.reload();
+        }
+    }
+
     @Override
     public boolean verifySchema(String tableName, Class recordClass) {
         if (tableName == null || recordClass == null) throw new IllegalArgumentException();
@@ -146,12 +200,10 @@ public class SQLiteDatabase implements IConnectedDatabase {
         ObjectModifier<T> om = ObjectModifier.fromClass(recordClass);
 
         try {
-            if (tableExists(om.tableName)) {
-                return this.new SQLiteTypedTable<>(om);
-            } else {
+            if (!tableExists(om.tableName)) {
                 createTable(recordClass);
-                return this.new SQLiteTypedTable<>(om);
             }
+            return newTypedTable(om);
         } catch (SQLException ex) {
             throw new RuntimeException(ex);
         }
@@ -167,17 +219,31 @@ public class SQLiteDatabase implements IConnectedDatabase {
                 if (!verifySchema(om.tableName, recordClass)) {
                     throw new RuntimeException("table schema not match");
                 } else {
-                    return this.new SQLiteTypedTable<>(om);
+                    return newTypedTable(om);
                 }
             } else {
                 createTable(recordClass);
-                return this.new SQLiteTypedTable<>(om);
+                return newTypedTable(om);
             }
         } catch (SQLException ex) {
             throw new RuntimeException(ex);
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private <T> ITypedTable<T> newTypedTable(ObjectModifier<T> om) {
+        if (!snapshotTableNames.contains(om.tableName)) {
+            return this.new SQLiteTypedTable<>(om);
+        }
+        SnapshotTypedTable<?> table = snapshotTables.get(om.tableName);
+        if (table == null || table.getJavaTypeModifier() != om) {
+            if (table != null) table.closeSnapshot();
+            table = this.new SnapshotTypedTable<>(om);
+            snapshotTables.put(om.tableName, table);
+        }
+        return (ITypedTable<T>) table;
+    }
+
     private <T> void createTable(Class<T> cls) {
         if (cls == null) throw new IllegalArgumentException();
         ObjectModifier om = ObjectModifier.fromClass(cls);
@@ -192,10 +258,12 @@ public class SQLiteDatabase implements IConnectedDatabase {
     public class SQLiteTypedTable<T> extends BaseTypedTable<T> {
         private final ObjectModifier<T> javaObjectModifier;
         private final String tableName;
+        private final TableMetrics tableMetrics;
 
         public SQLiteTypedTable(ObjectModifier<T> javaObjectModifier) {
             this.javaObjectModifier = javaObjectModifier;
             this.tableName = javaObjectModifier.tableName;
+            this.tableMetrics = metrics == null ? null : metrics.getTable(javaObjectModifier);
         }
 
         @Override
@@ -212,5 +280,276 @@ public class SQLiteDatabase implements IConnectedDatabase {
         protected Connection getConnection() {
             return dbConn;
         }
+
+        @Override
+        protected TableMetrics getMetrics() {
+            return tableMetrics;
+        }
+
+        /**
+         * Insert a record and get the rowid it was given, in the same statement,
+         * so that concurrent inserts on the connection can not be mistaken for it.
+         */
+        long insertReturningRowid(T object) {
+            String sql = insertSql() + " RETURNING rowid";
+            Map<String, Object> objMap = getJavaTypeModifier().getColumnObjectMap(object);
+            try (PreparedStatement stmt = getConnection().prepareStatement(sql)) {
+                bindInsert(stmt, objMap);
+                long start = System.nanoTime();
+                long rowid;
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next()) throw new SQLException("no rowid returned");
+                    rowid = rs.getLong(1);
+                }
+                recordInsert(start, objMap);
+                return rowid;
+            } catch (SQLException ex) {
+                throw new RuntimeException(sql + "\n" + objMap.toString(), ex);
+            }
+        }
+    }
+
+    /**
+     * A table whose rows are also kept in a private in-memory SQLite database.
+     * <p>
+     * All reads are served by the in-memory copy, writes go to the database file first,
+     * then to the in-memory copy. {@link #reload()} builds a fresh copy and swaps it in.
+     * <p>
+     * Writes and reloads of the table are serialized, so a reload never misses a write made through this table.
+     * Reads are not blocked by a reload, except for the swap itself; the old copy is closed
+     * once the reads using it are finished.
+     * If a write reached the database file but not the in-memory copy, the copy is reloaded;
+     * if that fails too, reads go to the database file until the next successful {@link #reload()}.
+     * <p>
+     * The snapshot only sees writes made through this table object.
+     * Writes made by other connections, through raw SQL, or rolled back by {@link cat.nyaa.nyaacore.orm.RollbackGuard}
+     * are not reflected until the next {@link SQLiteDatabase#reloadSnapshots()}.
+     * <p>
+     * Reads are counted in {@link #getMetrics()} whether the snapshot or the database file served them,
+     * writes are counted once, for the database file.
+     */
+    public class SnapshotTypedTable<T> extends BaseTypedTable<T> {
+        private final SQLiteTypedTable<T> diskTable;
+        private final ReentrantLock writeLock = new ReentrantLock(); // writes and reloads
+        private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock(); // read: using snapshotConn, write: changing it
+        private Connection snapshotConn; // null if stale, then reads go to the database file
+        private boolean snapshotWriting; // guarded by the write lock of snapshotLock
+
+        public SnapshotTypedTable(ObjectModifier<T> javaObjectModifier) {
+            this.diskTable = new SQLiteTypedTable<>(javaObjectModifier);
+            reload();
+        }
+
+        @Override
+        public String getTableName() {
+            return diskTable.getTableName();
+        }
+
+        @Override
+        public ObjectModifier<T> getJavaTypeModifier() {
+            return diskTable.getJavaTypeModifier();
+        }
+
+        /**
+         * Only valid while the read lock of the snapshot is held
+         */
+        @Override
+        protected Connection getConnection() {
+            Connection conn = snapshotConn;
+            return conn == null ? dbConn : conn;
+        }
+
+        @Override
+        protected TableMetrics getMetrics() {
+            return snapshotWriting ? null : diskTable.getMetrics();
+        }
+
+        private <R> R read(Supplier<R> reader) {
+            snapshotLock.readLock().lock();
+            try {
+                return reader.get();
+            } finally {
+                snapshotLock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public List<T> select(WhereClause where) {
+            return read(() -> super.select(where));
+        }
+
+        @Override
+        public T selectUniqueUnchecked(WhereClause where) {
+            return read(() -> super.selectUniqueUnchecked(where));
+        }
+
+        @Override
+        public int count(WhereClause where) {
+            return read(() -> super.count(where));
+        }
+
+        @Override
+        public <R> R selectSingleton(String query, DataTypeMapping.IDataTypeConverter<R> resultTypeConverter) {
+            return read(() -> super.selectSingleton(query, resultTypeConverter));
+        }
+
+        @Override
+        public long exportTo(WritableByteChannel out, WhereClause where) throws IOException {
+            snapshotLock.readLock().lock();
+            try {
+                return super.exportTo(out, where);
+            } finally {
+                snapshotLock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Write to the database file, then apply the same change to the snapshot
+         */
+        private void write(Runnable diskWrite, Runnable snapshotWrite) {
+            writeLock.lock();
+            try {
+                diskWrite.run();
+                snapshotLock.writeLock().lock();
+                try {
+                    if (snapshotConn == null) return; // stale, nothing to keep in sync
+                    snapshotWriting = true; // already counted by the disk write
+                    try {
+                        snapshotWrite.run();
+                    } finally {
+                        snapshotWriting = false;
+                    }
+                } catch (RuntimeException ex) {
+                    // the database file has the change, so does the snapshot after the reload
+                    Bukkit.getLogger().log(Level.WARNING, "snapshot of " + getTableName() + " is out of sync, reloading", ex);
+                    try {
+                        reload();
+                    } catch (RuntimeException reloadEx) { // now stale, reads go to the database file
+                        Bukkit.getLogger().log(Level.SEVERE, "failed to reload snapshot of " + getTableName(), reloadEx);
+                    }
+                } finally {
+                    snapshotLock.writeLock().unlock();
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public void insert(T newRecord) {
+            String pk = getJavaTypeModifier().getPkColName();
+            if (pk != null && getJavaTypeModifier().getSqlValue(newRecord, pk) == null) {
+                // the key is generated by the database file, copy the row so that both agree on it
+                long[] rowid = new long[1];
+                write(() -> rowid[0] = diskTable.insertReturningRowid(newRecord),
+                        () -> copyRows(dbConn, snapshotConn, " WHERE rowid=?", rowid[0]));
+            } else {
+                write(() -> diskTable.insert(newRecord), () -> super.insert(newRecord));
+            }
+        }
+
+        @Override
+        public void delete(WhereClause where) {
+            write(() -> diskTable.delete(where), () -> super.delete(where));
+        }
+
+        @Override
+        public void update(T newRecord, WhereClause where, String... columns) {
+            write(() -> diskTable.update(newRecord, where, columns), () -> super.update(newRecord, where, columns));
+        }
+
+        @Override
+        public long importFrom(ReadableByteChannel in) throws IOException {
+            writeLock.lock();
+            try {
+                long rows = diskTable.importFrom(in);
+                reload();
+                return rows;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * Load the table into a new in-memory database, then atomically replace the current one.
+         * Writes through this table wait for the reload, reads only wait for the swap.
+         */
+        public void reload() {
+            writeLock.lock();
+            try {
+                Connection newConn = null;
+                try {
+                    newConn = DriverManager.getConnection("jdbc:sqlite::memory:");
+                    try (Statement st = newConn.createStatement()) {
+                        st.executeUpdate(getTableCreationSql(getJavaTypeModifier().getJavaClass()));
+                    }
+                    newConn.setAutoCommit(false);
+                    copyRows(dbConn, newConn, "");
+                    newConn.commit();
+                    newConn.setAutoCommit(true);
+                } catch (SQLException | RuntimeException ex) {
+                    closeQuietly(newConn);
+                    swap(null); // reads go to the database file
+                    throw new RuntimeException("failed to load snapshot of " + getTableName(), ex);
+                }
+                swap(newConn);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        private void swap(Connection newConn) {
+            Connection oldConn;
+            snapshotLock.writeLock().lock(); // waits for reads of the old connection
+            try {
+                oldConn = snapshotConn;
+                snapshotConn = newConn;
+            } finally {
+                snapshotLock.writeLock().unlock();
+            }
+            closeQuietly(oldConn);
+        }
+
+        private void closeQuietly(Connection conn) {
+            if (conn == null) return;
+            try {
+                conn.close();
+            } catch (SQLException ignored) {
+            }
+        }
+
+        void closeSnapshot() {
+            writeLock.lock();
+            try {
+                swap(null);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        // copy raw sql values, so that no column is converted to java objects
+        private void copyRows(Connection from, Connection to, String whereSuffix, Object... parameters) {
+            String columns = getJavaTypeModifier().getColumnNamesString();
+            int columnCount = getJavaTypeModifier().getColNames().size();
+            String selectSql = "SELECT " + columns + " FROM " + getTableName() + whereSuffix;
+            StringJoiner placeholders = new StringJoiner(",");
+            for (int i = 0; i < columnCount; i++) placeholders.add("?");
+            String insertSql = "INSERT INTO " + getTableName() + "(" + columns + ") VALUES(" + placeholders + ")";
+            try (PreparedStatement select = from.prepareStatement(selectSql);
+                 PreparedStatement insert = to.prepareStatement(insertSql)) {
+                for (int i = 0; i < parameters.length; i++) select.setObject(i + 1, parameters[i]);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        for (int i = 1; i <= columnCount; i++) {
+                            insert.setObject(i, rs.getObject(i));
+                        }
+                        insert.addBatch();
+                    }
+                }
+                insert.executeBatch();
+            } catch (SQLException ex) {
+                throw new RuntimeException(selectSql, ex);
+            }
+        }
     }
 }
@@ -0,0 +1,147 @@
+package cat.nyaa.nyaacore.orm.metrics;
+
+import cat.nyaa.nyaacore.orm.ObjectModifier;
+
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Workload counters of one connected database, created by {@link OrmMetrics#register(String)}
+ */
+public class DatabaseMetrics implements DatabaseMetricsMXBean {
+    private final String name;
+    private final Map<String, TableMetrics> tables = new ConcurrentHashMap<>();
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder connectionOpenNanos = new LongAdder();
+    private final LongAdder transactions = new LongAdder();
+    private final LongAdder rollbacks = new LongAdder();
+    private final LongAdder transactionNanos = new LongAdder();
+    private final LongAccumulator maxTransactionNanos = new LongAccumulator(Long::max, 0);
+    ObjectName objectName; // null if not registered to JMX
+
+    DatabaseMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get or create the counters of a table
+     */
+    public TableMetrics getTable(ObjectModifier<?> javaTypeModifier) {
+        return tables.computeIfAbsent(javaTypeModifier.getTableName(), k -> {
+            TableMetrics table = new TableMetrics(name, javaTypeModifier);
+            if (objectName != null) OrmMetrics.registerTable(this, table);
+            return table;
+        });
+    }
+
+    /**
+     * @return counters of all tables, sorted by table name
+     */
+    public List<TableMetrics> getTables() {
+        List<TableMetrics> ret = new ArrayList<>(tables.values());
+        ret.sort((a, b) -> a.getTableName().compareTo(b.getTableName()));
+        return ret;
+    }
+
+    /**
+     * @param openNanos time spent opening the JDBC connection
+     */
+    public void recordConnection(long openNanos) {
+        connections.increment();
+        connectionOpenNanos.add(openNanos);
+    }
+
+    /**
+     * @param startNanos {@link System#nanoTime()} when the transaction started
+     * @param committed  false if the transaction was rolled back
+     */
+    public void recordTransaction(long startNanos, boolean committed) {
+        long nanos = System.nanoTime() - startNanos;
+        transactions.increment();
+        if (!committed) rollbacks.increment();
+        transactionNanos.add(nanos);
+        maxTransactionNanos.accumulate(nanos);
+    }
+
+    private long sum(ToLongFunction<TableMetrics> counter) {
+        long ret = 0;
+        for (TableMetrics table : tables.values()) {
+            ret += counter.applyAsLong(table);
+        }
+        return ret;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public List<String> getTableNames() {
+        List<String> ret = new ArrayList<>(tables.keySet());
+        ret.sort(String::compareTo);
+        return ret;
+    }
+
+    @Override
+    public long getStatements() {
+        return sum(TableMetrics::getStatements);
+    }
+
+    @Override
+    public long getRowsRead() {
+        return sum(TableMetrics::getRowsRead);
+    }
+
+    @Override
+    public long getRowsWritten() {
+        return sum(TableMetrics::getRowsWritten);
+    }
+
+    @Override
+    public long getItemBytesRead() {
+        return sum(TableMetrics::getItemBytesRead);
+    }
+
+    @Override
+    public long getItemBytesWritten() {
+        return sum(TableMetrics::getItemBytesWritten);
+    }
+
+    @Override
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    @Override
+    public long getConnectionOpenMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(connectionOpenNanos.sum());
+    }
+
+    @Override
+    public long getTransactions() {
+        return transactions.sum();
+    }
+
+    @Override
+    public long getRollbacks() {
+        return rollbacks.sum();
+    }
+
+    @Override
+    public long getTransactionMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(transactionNanos.sum());
+    }
+
+    @Override
+    public long getMaxTransactionMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxTransactionNanos.get());
+    }
+}
@@ -0,0 +1,34 @@
+package cat.nyaa.nyaacore.orm.metrics;
+
+import java.util.List;
+
+/**
+ * JMX view of {@link DatabaseMetrics}, counters are the sum of all tables
+ */
+public interface DatabaseMetricsMXBean {
+    String getName();
+
+    List<String> getTableNames();
+
+    long getStatements();
+
+    long getRowsRead();
+
+    long getRowsWritten();
+
+    long getItemBytesRead();
+
+    long getItemBytesWritten();
+
+    long getConnections();
+
+    long getConnectionOpenMillis();
+
+    long getTransactions();
+
+    long getRollbacks();
+
+    long getTransactionMillis();
+
+    long getMaxTransactionMillis();
+}
@@ -0,0 +1,94 @@
+package cat.nyaa.nyaacore.orm.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of the metrics of all open databases.
+ * <p>
+ * Each database is published to JMX as {@code cat.nyaa.nyaacore.orm:type=Database,name=...}
+ * and each of its tables as {@code cat.nyaa.nyaacore.orm:type=Table,database=...,name=...}.
+ * The same numbers are shown in game by {@code /nyaacore dbstats}.
+ */
+public final class OrmMetrics {
+    public static final String JMX_DOMAIN = "cat.nyaa.nyaacore.orm";
+    private static final List<DatabaseMetrics> databases = new CopyOnWriteArrayList<>();
+
+    private OrmMetrics() {
+    }
+
+    /**
+     * Create metrics for a newly opened database.
+     * A suffix is appended if another open database has the same name.
+     *
+     * @param name usually "plugin/file", used to tell the databases apart
+     */
+    public static synchronized DatabaseMetrics register(String name) {
+        String uniqueName = name;
+        for (int i = 2; isNameTaken(uniqueName); i++) {
+            uniqueName = name + "#" + i;
+        }
+        DatabaseMetrics db = new DatabaseMetrics(uniqueName);
+        try {
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=Database,name=" + ObjectName.quote(uniqueName));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(db, objectName);
+            db.objectName = objectName;
+        } catch (JMException ex) {
+            getLogger().log(Level.WARNING, "Failed to register database metrics: " + uniqueName, ex);
+        }
+        databases.add(db);
+        return db;
+    }
+
+    /**
+     * Remove the metrics of a closed database
+     */
+    public static synchronized void unregister(DatabaseMetrics db) {
+        if (!databases.remove(db)) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (TableMetrics table : db.getTables()) {
+                if (table.objectName != null) server.unregisterMBean(table.objectName);
+            }
+            if (db.objectName != null) server.unregisterMBean(db.objectName);
+        } catch (JMException ex) {
+            getLogger().log(Level.WARNING, "Failed to unregister database metrics: " + db.getName(), ex);
+        }
+    }
+
+    /**
+     * @return metrics of all open databases
+     */
+    public static List<DatabaseMetrics> getDatabases() {
+        return new ArrayList<>(databases);
+    }
+
+    static void registerTable(DatabaseMetrics db, TableMetrics table) {
+        try {
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=Table,database=" + ObjectName.quote(db.getName()) +
+                    ",name=" + ObjectName.quote(table.getTableName()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(table, objectName);
+            table.objectName = objectName;
+        } catch (JMException ex) {
+            getLogger().log(Level.WARNING, "Failed to register table metrics: " + table.getTableName(), ex);
+        }
+    }
+
+    private static boolean isNameTaken(String name) {
+        for (DatabaseMetrics db : databases) {
+            if (db.getName().equals(name)) return true;
+        }
+        return false;
+    }
+
+    private static Logger getLogger() {
+        return Logger.getLogger(OrmMetrics.class.getName());
+    }
+}
@@ -0,0 +1,119 @@
+package cat.nyaa.nyaacore.orm.metrics;
+
+import cat.nyaa.nyaacore.orm.DataTypeMapping;
+import cat.nyaa.nyaacore.orm.ObjectModifier;
+
+import javax.management.ObjectName;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Workload counters of one table in one database, see {@link DatabaseMetrics#getTable(ObjectModifier)}
+ * <p>
+ * Item bytes are the length of the serialized ItemStack columns, as stored in the database.
+ */
+public class TableMetrics implements TableMetricsMXBean {
+    private final String databaseName;
+    private final String tableName;
+    private final List<String> itemColumns = new ArrayList<>();
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder statementNanos = new LongAdder();
+    private final LongAdder rowsRead = new LongAdder();
+    private final LongAdder rowsWritten = new LongAdder();
+    private final LongAdder itemBytesRead = new LongAdder();
+    private final LongAdder itemBytesWritten = new LongAdder();
+    ObjectName objectName; // null if not registered to JMX
+
+    TableMetrics(String databaseName, ObjectModifier<?> javaTypeModifier) {
+        this.databaseName = databaseName;
+        this.tableName = javaTypeModifier.getTableName();
+        for (String colName : javaTypeModifier.getColNames()) {
+            if (javaTypeModifier.getTypeConvertorForColumn(colName) instanceof DataTypeMapping.ItemStackConverter) {
+                itemColumns.add(colName);
+            }
+        }
+    }
+
+    /**
+     * @param startNanos {@link System#nanoTime()} when the statement started
+     */
+    public void recordStatement(long startNanos) {
+        statements.increment();
+        statementNanos.add(System.nanoTime() - startNanos);
+    }
+
+    public void recordRowsRead(long rows) {
+        rowsRead.add(rows);
+    }
+
+    public void recordRowsWritten(long rows) {
+        rowsWritten.add(rows);
+    }
+
+    /**
+     * Count the ItemStack columns of the current row as read
+     */
+    public void recordItemsRead(ResultSet rs) throws SQLException {
+        for (String colName : itemColumns) {
+            String value = rs.getString(colName);
+            if (value != null) itemBytesRead.add(value.length());
+        }
+    }
+
+    /**
+     * Count the ItemStack columns in the SQL values as written
+     *
+     * @param sqlValues column name to SQL value map, columns not in the map are ignored
+     */
+    public void recordItemsWritten(Map<String, Object> sqlValues) {
+        for (String colName : itemColumns) {
+            Object value = sqlValues.get(colName);
+            if (value instanceof String) itemBytesWritten.add(((String) value).length());
+        }
+    }
+
+    @Override
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    @Override
+    public String getTableName() {
+        return tableName;
+    }
+
+    @Override
+    public long getStatements() {
+        return statements.sum();
+    }
+
+    @Override
+    public long getStatementMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(statementNanos.sum());
+    }
+
+    @Override
+    public long getRowsRead() {
+        return rowsRead.sum();
+    }
+
+    @Override
+    public long getRowsWritten() {
+        return rowsWritten.sum();
+    }
+
+    @Override
+    public long getItemBytesRead() {
+        return itemBytesRead.sum();
+    }
+
+    @Override
+    public long getItemBytesWritten() {
+        return itemBytesWritten.sum();
+    }
+}
@@ -0,0 +1,22 @@
+package cat.nyaa.nyaacore.orm.metrics;
+
+/**
+ * JMX view of {@link TableMetrics}
+ */
+public interface TableMetricsMXBean {
+    String getDatabaseName();
+
+    String getTableName();
+
+    long getStatements();
+
+    long getStatementMillis();
+
+    long getRowsRead();
+
+    long getRowsWritten();
+
+    long getItemBytesRead();
+
+    long getItemBytesWritten();
+}
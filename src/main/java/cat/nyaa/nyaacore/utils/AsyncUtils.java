@@ -0,0 +1,234 @@
+package cat.nyaa.nyaacore.utils;
+
+import org.bukkit.Bukkit;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.plugin.Plugin;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Run work on the server thread or on virtual threads, with {@link CompletableFuture}s.
+ * <pre>{@code
+ * AsyncUtils.supplyIo(plugin, "load-mail", () -> database.loadMail(uuid))
+ *         .thenAcceptAsync(mail -> player.openInventory(mail), AsyncUtils.mainThread(plugin));
+ * }</pre>
+ * Blocking work (files, databases, HTTP) goes to {@link #io()}, one virtual thread per task,
+ * instead of occupying the small Bukkit async pool.
+ * <p>
+ * Futures are completed with the exception thrown by the task.
+ * Futures created here are cancelled when their plugin is disabled, running I/O tasks are interrupted.
+ * Execution time is recorded per plugin and task name, see {@link #getMetrics()}.
+ */
+public final class AsyncUtils {
+    private static final ExecutorService io = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("NyaaCore-IO-", 0).factory());
+    private static final Map<Plugin, Set<CompletableFuture<?>>> running = new ConcurrentHashMap<>();
+    private static final Map<Plugin, Executor> mainThreadExecutors = new ConcurrentHashMap<>();
+    private static final Map<String, TaskMetrics> metrics = new ConcurrentHashMap<>();
+
+    private AsyncUtils() {
+    }
+
+    /**
+     * @return executor running tasks on the server thread, directly if called on it, otherwise in the next tick.
+     * Tasks are rejected once the plugin is disabled.
+     */
+    public static Executor mainThread(Plugin plugin) {
+        if (plugin == null) throw new IllegalArgumentException();
+        return mainThreadExecutors.computeIfAbsent(plugin, p -> command -> {
+            if (Bukkit.isPrimaryThread()) {
+                command.run();
+                return;
+            }
+            try {
+                Bukkit.getScheduler().runTask(p, command);
+            } catch (RuntimeException ex) { // plugin disabled
+                throw new RejectedExecutionException(ex);
+            }
+        });
+    }
+
+    /**
+     * @return executor starting a virtual thread for each task, for blocking work
+     */
+    public static Executor io() {
+        return io;
+    }
+
+    /**
+     * Run a blocking task on a virtual thread
+     *
+     * @param name recorded in the metrics, e.g. "load-mail"
+     * @return completed on the virtual thread
+     */
+    public static <T> CompletableFuture<T> supplyIo(Plugin plugin, String name, Callable<T> task) {
+        CompletableFuture<T> future = track(plugin, new CompletableFuture<>());
+        Future<?> thread;
+        try {
+            thread = io.submit(() -> run(plugin, name, task, future));
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+            return future;
+        }
+        future.whenComplete((v, ex) -> {
+            if (ex != null) thread.cancel(true); // cancelled or timed out
+        });
+        return future;
+    }
+
+    /**
+     * Run a blocking task on a virtual thread, which is interrupted if it takes longer than the timeout
+     *
+     * @return completed with a {@link TimeoutException} if the timeout passed
+     */
+    public static <T> CompletableFuture<T> supplyIo(Plugin plugin, String name, Callable<T> task, Duration timeout) {
+        return supplyIo(plugin, name, task).orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    public static CompletableFuture<Void> runIo(Plugin plugin, String name, ThrowingRunnable task) {
+        return supplyIo(plugin, name, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Run a task on the server thread
+     *
+     * @return completed on the server thread
+     */
+    public static <T> CompletableFuture<T> supplyMain(Plugin plugin, String name, Callable<T> task) {
+        CompletableFuture<T> future = track(plugin, new CompletableFuture<>());
+        try {
+            mainThread(plugin).execute(() -> run(plugin, name, task, future));
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    public static CompletableFuture<Void> runMain(Plugin plugin, String name, ThrowingRunnable task) {
+        return supplyMain(plugin, name, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * @return a future completed on the server thread with the outcome of the given future,
+     * cancelled if the plugin is disabled first
+     */
+    public static <T> CompletableFuture<T> onMain(Plugin plugin, CompletableFuture<T> future) {
+        CompletableFuture<T> ret = track(plugin, new CompletableFuture<>());
+        future.whenCompleteAsync((v, ex) -> {
+            if (ex != null) {
+                ret.completeExceptionally(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+            } else {
+                ret.complete(v);
+            }
+        }, mainThread(plugin)).exceptionally(ex -> { // rejected
+            ret.completeExceptionally(ex);
+            return null;
+        });
+        return ret;
+    }
+
+    /**
+     * Cancel all futures of the plugin created here, called when it is disabled
+     */
+    public static void cancelAll(Plugin plugin) {
+        mainThreadExecutors.remove(plugin);
+        Set<CompletableFuture<?>> futures = running.remove(plugin);
+        if (futures == null) return;
+        for (CompletableFuture<?> future : futures) future.cancel(false);
+    }
+
+    /**
+     * @return metrics per "plugin:name"
+     */
+    public static Map<String, TaskMetrics> getMetrics() {
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    private static <T> CompletableFuture<T> track(Plugin plugin, CompletableFuture<T> future) {
+        if (plugin == null) throw new IllegalArgumentException();
+        if (!plugin.isEnabled()) {
+            future.completeExceptionally(new RejectedExecutionException("plugin " + plugin.getName() + " is disabled"));
+            return future;
+        }
+        Set<CompletableFuture<?>> futures = running.computeIfAbsent(plugin, k -> ConcurrentHashMap.newKeySet());
+        futures.add(future);
+        future.whenComplete((v, ex) -> futures.remove(future));
+        return future;
+    }
+
+    private static <T> void run(Plugin plugin, String name, Callable<T> task, CompletableFuture<T> future) {
+        if (future.isDone()) return;
+        TaskMetrics m = metrics.computeIfAbsent(plugin.getName() + ":" + name, k -> new TaskMetrics());
+        long start = System.nanoTime();
+        try {
+            T value = task.call();
+            m.record(System.nanoTime() - start, true);
+            future.complete(value);
+        } catch (Throwable t) {
+            m.record(System.nanoTime() - start, false);
+            future.completeExceptionally(t);
+        }
+    }
+
+    @FunctionalInterface
+    public interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+
+    /**
+     * Execution counters of one task name
+     */
+    public static final class TaskMetrics {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+        void record(long nanos, boolean success) {
+            count.increment();
+            if (!success) failures.increment();
+            this.nanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        public long getTotalNanos() {
+            return nanos.sum();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        public long getAverageNanos() {
+            long c = count.sum();
+            return c == 0 ? 0 : nanos.sum() / c;
+        }
+    }
+
+    public static class _Listener implements Listener {
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onPluginDisable(PluginDisableEvent event) {
+            cancelAll(event.getPlugin());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package cat.nyaa.nyaacore.utils;
+
+import org.bukkit.Bukkit;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.Plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Decode many serialized items at once, e.g. when loading a whole auction house at startup.
+ * <p>
+ * Blobs are decoded on a small shared ForkJoin pool (at most 4 threads, leaving one core for the server thread).
+ * The returned future is completed on the server thread, so callbacks attached to it
+ * may use the items and the Bukkit API directly.
+ * A broken blob only fails its own {@link Result}, the other blobs are still decoded.
+ */
+public final class BulkItemDecoder {
+    private static final AtomicInteger threadId = new AtomicInteger();
+    private static volatile ForkJoinPool pool;
+
+    private BulkItemDecoder() {
+    }
+
+    private static ForkJoinPool getPool() {
+        if (pool == null) {
+            synchronized (BulkItemDecoder.class) {
+                if (pool == null) {
+                    int parallelism = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+                    pool = new ForkJoinPool(parallelism, p -> {
+                        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                        thread.setName("NyaaCore-ItemDecoder-" + threadId.incrementAndGet());
+                        return thread;
+                    }, null, false);
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Decode strings created by {@link ItemStackUtils#itemsToBase64(List)}
+     *
+     * @param plugin owner of the main thread callback
+     * @return one result per blob, in the same order
+     */
+    public static CompletableFuture<List<Result<List<ItemStack>>>> fromBase64(Plugin plugin, List<String> blobs) {
+        return decode(plugin, blobs, ItemStackUtils::itemsFromBase64);
+    }
+
+    /**
+     * Decode byte arrays created by {@link ItemStackUtils#itemToBinary(ItemStack)}
+     *
+     * @param plugin owner of the main thread callback
+     * @return one result per blob, in the same order
+     */
+    public static CompletableFuture<List<Result<ItemStack>>> fromBinary(Plugin plugin, List<byte[]> blobs) {
+        return decode(plugin, blobs, ItemStackUtils::itemFromBinary);
+    }
+
+    private static <S, T> CompletableFuture<List<Result<T>>> decode(Plugin plugin, List<S> blobs, Decoder<S, T> decoder) {
+        if (plugin == null || blobs == null) throw new IllegalArgumentException();
+        try {
+            ItemStackUtils.getDefaultWorld(); // resolve on the calling thread, not on the pool
+        } catch (IllegalStateException ignored) {
+            // reported per item
+        }
+        List<S> input = new ArrayList<>(blobs);
+        CompletableFuture<List<Result<T>>> ret = new CompletableFuture<>();
+        CompletableFuture.supplyAsync(() -> input.parallelStream().map(blob -> {
+            try {
+                return Result.success(decoder.decode(blob));
+            } catch (Throwable t) {
+                return Result.<T>failure(t);
+            }
+        }).collect(Collectors.toList()), getPool()).whenComplete((results, ex) -> {
+            try {
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    if (ex != null) {
+                        ret.completeExceptionally(ex);
+                    } else {
+                        ret.complete(results);
+                    }
+                });
+            } catch (RuntimeException schedulerEx) { // plugin disabled meanwhile
+                ret.completeExceptionally(schedulerEx);
+            }
+        });
+        return ret;
+    }
+
+    @FunctionalInterface
+    private interface Decoder<S, T> {
+        T decode(S blob) throws Exception;
+    }
+
+    /**
+     * Decoded item(s) of one blob, or the reason it could not be decoded
+     */
+    public static final class Result<T> {
+        private final T value;
+        private final Throwable error;
+
+        private Result(T value, Throwable error) {
+            this.value = value;
+            this.error = error;
+        }
+
+        static <T> Result<T> success(T value) {
+            return new Result<>(value, null);
+        }
+
+        static <T> Result<T> failure(Throwable error) {
+            return new Result<>(null, error);
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * @return the decoded value
+         * @throws IllegalStateException if the blob could not be decoded
+         */
+        public T get() {
+            if (error != null) throw new IllegalStateException("Failed to decode item", error);
+            return value;
+        }
+
+        /**
+         * @return the decoded value, or null if the blob could not be decoded
+         */
+        public T getOrNull() {
+            return value;
+        }
+
+        /**
+         * @return why the blob could not be decoded, null if success
+         */
+        public Throwable getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package cat.nyaa.nyaacore.utils;
+
+import java.io.DataOutput;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A growable heap {@link ByteBuffer} usable as {@link DataOutput}, so NBT can be written to it directly.
+ * Meant to be kept in a {@link ThreadLocal} and reused, see {@link #clear()}.
+ * <p>
+ * Output is identical to {@link java.io.DataOutputStream}.
+ */
+final class ByteBufferDataOutput implements DataOutput {
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+    private static final int RETAINED_CAPACITY = 1024 * 1024; // larger buffers are dropped on clear()
+    private ByteBuffer buf = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+    /**
+     * Reset the position to zero, shrinking the buffer if a previous use made it too large to keep around.
+     */
+    ByteBufferDataOutput clear() {
+        if (buf.capacity() > RETAINED_CAPACITY) {
+            buf = ByteBuffer.allocate(INITIAL_CAPACITY);
+        } else {
+            buf.clear();
+        }
+        return this;
+    }
+
+    int position() {
+        return buf.position();
+    }
+
+    void skip(int n) {
+        ensure(n);
+        buf.position(buf.position() + n);
+    }
+
+    void putInt(int index, int v) {
+        buf.putInt(index, v);
+    }
+
+    /**
+     * @return a view of the written bytes, sharing the backing array, only valid until the buffer is used again
+     */
+    ByteBuffer view() {
+        return buf.duplicate().flip();
+    }
+
+    /**
+     * @return a copy of the written bytes
+     */
+    byte[] toByteArray() {
+        byte[] ret = new byte[buf.position()];
+        System.arraycopy(buf.array(), 0, ret, 0, ret.length);
+        return ret;
+    }
+
+    /**
+     * Deflate all remaining bytes of the inputs as one stream and append the result
+     */
+    void deflate(Deflater deflater, ByteBuffer... inputs) {
+        for (int i = 0; i < inputs.length; i++) {
+            boolean last = i == inputs.length - 1;
+            deflater.setInput(inputs[i]);
+            if (last) deflater.finish();
+            while (last ? !deflater.finished() : !deflater.needsInput()) {
+                ensure(Math.max(inputs[i].remaining() / 2, 256));
+                deflater.deflate(buf);
+            }
+        }
+    }
+
+    /**
+     * Inflate all remaining bytes of the input and append the result
+     */
+    void inflate(Inflater inflater, ByteBuffer input) throws DataFormatException {
+        inflate(inflater, input, null);
+    }
+
+    /**
+     * Inflate all remaining bytes of the input and append the result
+     *
+     * @param dictionary preset dictionary the stream was deflated with, null if none
+     */
+    void inflate(Inflater inflater, ByteBuffer input, byte[] dictionary) throws DataFormatException {
+        int chunk = Math.max(input.remaining() * 2, 256); // the input may be a window of a much larger buffer
+        inflater.setInput(input);
+        while (!inflater.finished()) {
+            ensure(chunk);
+            if (inflater.inflate(buf) == 0) {
+                if (inflater.needsDictionary() && dictionary != null) {
+                    inflater.setDictionary(dictionary);
+                    dictionary = null;
+                } else if (inflater.needsInput() || inflater.needsDictionary()) {
+                    throw new DataFormatException("Truncated deflate stream");
+                }
+            }
+        }
+    }
+
+    private void ensure(int n) {
+        if (buf.remaining() >= n) return;
+        int capacity = buf.capacity();
+        while (capacity - buf.position() < n) capacity *= 2;
+        ByteBuffer newBuf = ByteBuffer.allocate(capacity);
+        buf.flip();
+        newBuf.put(buf);
+        buf = newBuf;
+    }
+
+    /**
+     * Append all remaining bytes of the source
+     */
+    void put(ByteBuffer src) {
+        ensure(src.remaining());
+        buf.put(src);
+    }
+
+    @Override
+    public void write(int b) {
+        ensure(1);
+        buf.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b) {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensure(len);
+        buf.put(b, off, len);
+    }
+
+    @Override
+    public void writeBoolean(boolean v) {
+        write(v ? 1 : 0);
+    }
+
+    @Override
+    public void writeByte(int v) {
+        write(v);
+    }
+
+    @Override
+    public void writeShort(int v) {
+        ensure(2);
+        buf.putShort((short) v);
+    }
+
+    @Override
+    public void writeChar(int v) {
+        ensure(2);
+        buf.putChar((char) v);
+    }
+
+    @Override
+    public void writeInt(int v) {
+        ensure(4);
+        buf.putInt(v);
+    }
+
+    @Override
+    public void writeLong(long v) {
+        ensure(8);
+        buf.putLong(v);
+    }
+
+    @Override
+    public void writeFloat(float v) {
+        ensure(4);
+        buf.putFloat(v);
+    }
+
+    @Override
+    public void writeDouble(double v) {
+        ensure(8);
+        buf.putDouble(v);
+    }
+
+    @Override
+    public void writeBytes(String s) {
+        int len = s.length();
+        ensure(len);
+        for (int i = 0; i < len; i++) buf.put((byte) s.charAt(i));
+    }
+
+    @Override
+    public void writeChars(String s) {
+        int len = s.length();
+        ensure(len * 2);
+        for (int i = 0; i < len; i++) buf.putChar(s.charAt(i));
+    }
+
+    /**
+     * Modified UTF-8, same as {@link java.io.DataOutputStream#writeUTF(String)}
+     */
+    @Override
+    public void writeUTF(String s) throws UTFDataFormatException {
+        int len = s.length();
+        int utfLen = len;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80 || c == 0) utfLen += (c >= 0x800) ? 2 : 1;
+        }
+        if (utfLen > 65535) throw new UTFDataFormatException("encoded string too long: " + utfLen + " bytes");
+        ensure(utfLen + 2);
+        buf.putShort((short) utfLen);
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80 && c != 0) {
+                buf.put((byte) c);
+            } else if (c >= 0x800) {
+                buf.put((byte) (0xE0 | ((c >> 12) & 0x0F)));
+                buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                buf.put((byte) (0xC0 | ((c >> 6) & 0x1F)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+}
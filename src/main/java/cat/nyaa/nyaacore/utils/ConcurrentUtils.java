@@ -3,20 +3,37 @@ package cat.nyaa.nyaacore.utils;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.Plugin;
 
+import java.util.concurrent.CancellationException;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.logging.Level;
 
+/**
+ * @deprecated use {@link AsyncUtils}, which supports cancellation, timeouts and exceptions
+ */
+@Deprecated
 public final class ConcurrentUtils {
     /**
-     * Execute a task asynchronously then execute the callback synchronously
+     * Execute a task asynchronously then execute the callback synchronously.
+     * The task runs on a virtual thread of {@link AsyncUtils#io()}, failures are logged and skip the callback.
+     *
+     * @deprecated use {@link AsyncUtils#supplyIo} and {@link AsyncUtils#onMain}
      */
+    @Deprecated
     public static <P, Q> void runAsyncTask(Plugin plugin, P parameter, Function<P, Q> asyncTask, Consumer<Q> callback) {
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            final Q ret = asyncTask.apply(parameter);
-            Bukkit.getScheduler().runTask(plugin, () -> {
-                callback.accept(ret);
-            });
-        });
+        AsyncUtils.onMain(plugin, AsyncUtils.supplyIo(plugin, "runAsyncTask", () -> asyncTask.apply(parameter)))
+                .whenComplete((ret, ex) -> {
+                    if (ex instanceof CancellationException) return; // plugin disabled
+                    if (ex != null) {
+                        plugin.getLogger().log(Level.WARNING, "Async task failed", ex);
+                        return;
+                    }
+                    try {
+                        callback.accept(ret);
+                    } catch (RuntimeException callbackEx) {
+                        plugin.getLogger().log(Level.WARNING, "Callback of async task failed", callbackEx);
+                    }
+                });
     }
 
     /**
@@ -0,0 +1,234 @@
+package cat.nyaa.nyaacore.utils;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.component.DataComponents;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.Container;
+import net.minecraft.world.item.component.ItemContainerContents;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.chunk.LevelChunk;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.craftbukkit.CraftWorld;
+import org.bukkit.craftbukkit.inventory.CraftItemStack;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.Plugin;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+/**
+ * Search the containers of all loaded chunks for items, e.g. to find a contraband item.
+ * <p>
+ * Chunks are scanned on the server thread by the {@link TickScheduler}, a few at a time each tick,
+ * reading block entities directly: no {@link org.bukkit.block.BlockState} snapshot is made
+ * and only matching items are copied. Items inside shulker boxes and other container items are searched too.
+ * Chunks loaded after the scan started and entities (e.g. chest minecarts) are not scanned.
+ * <p>
+ * Compared to {@link NmsUtils#getBlockEntityBlockStates(World)}, nothing is done on other threads,
+ * so nothing races with the server.
+ */
+public final class ContainerScanner {
+    private ContainerScanner() {
+    }
+
+    /**
+     * @see #scan(Plugin, Collection, Predicate, TickScheduler.Priority)
+     */
+    public static Scan scan(Plugin plugin, Collection<World> worlds, Predicate<ItemStack> filter) {
+        return scan(plugin, worlds, filter, TickScheduler.Priority.LOW);
+    }
+
+    /**
+     * Find items similar to the one the fingerprint was taken of, ignoring the amount
+     *
+     * @see #scan(Plugin, Collection, Predicate, TickScheduler.Priority)
+     */
+    public static Scan scan(Plugin plugin, Collection<World> worlds, ItemFingerprint fingerprint) {
+        if (fingerprint == null) throw new IllegalArgumentException();
+        return scan(plugin, worlds, item -> fingerprint.equals(ItemFingerprint.of(item)), TickScheduler.Priority.LOW);
+    }
+
+    /**
+     * Start a scan, must be called on the server thread
+     *
+     * @param plugin   owner of the scan task
+     * @param worlds   worlds whose loaded chunks are scanned
+     * @param filter   tested on the server thread with read-only mirrors of the items,
+     *                 e.g. a {@link cat.nyaa.nyaacore.CompiledItemMatcher}; must not keep them
+     * @param priority share of the {@link TickScheduler} budget
+     * @return the running scan
+     */
+    public static Scan scan(Plugin plugin, Collection<World> worlds, Predicate<ItemStack> filter, TickScheduler.Priority priority) {
+        if (plugin == null || worlds == null || filter == null) throw new IllegalArgumentException();
+        Scan scan = new Scan(worlds, filter);
+        scan.task = TickScheduler.submit(plugin, "container scan", priority, scan::step);
+        scan.task.setProgress(0, scan.chunksTotal);
+        scan.task.getFuture().whenComplete((v, ex) -> {
+            if (ex != null) {
+                scan.future.completeExceptionally(ex);
+            } else {
+                scan.future.complete(Collections.unmodifiableList(scan.hits));
+            }
+        });
+        return scan;
+    }
+
+    public static final class Scan {
+        private final Predicate<ItemStack> filter;
+        private final List<World> chunkWorlds = new ArrayList<>();
+        private final List<long[]> chunkCoords = new ArrayList<>(); // one array of packed x,z per world
+        private final List<Hit> hits = new ArrayList<>();
+        private final CompletableFuture<List<Hit>> future = new CompletableFuture<>();
+        private final int chunksTotal;
+        private int worldIndex;
+        private int chunkIndex;
+        private int chunksScanned;
+        private long containersScanned;
+        private TickScheduler.Task task;
+
+        private Scan(Collection<World> worlds, Predicate<ItemStack> filter) {
+            this.filter = filter;
+            int total = 0;
+            for (World world : worlds) {
+                Chunk[] chunks = world.getLoadedChunks();
+                long[] coords = new long[chunks.length];
+                for (int i = 0; i < chunks.length; i++) {
+                    coords[i] = ((long) chunks[i].getX() << 32) | (chunks[i].getZ() & 0xFFFFFFFFL);
+                }
+                chunkWorlds.add(world);
+                chunkCoords.add(coords);
+                total += coords.length;
+            }
+            chunksTotal = total;
+        }
+
+        /**
+         * Scan the next chunk
+         */
+        private boolean step() {
+            while (worldIndex < chunkWorlds.size() && chunkIndex >= chunkCoords.get(worldIndex).length) {
+                worldIndex++;
+                chunkIndex = 0;
+            }
+            if (worldIndex >= chunkWorlds.size()) return false;
+            long packed = chunkCoords.get(worldIndex)[chunkIndex++];
+            scanChunk(chunkWorlds.get(worldIndex), (int) (packed >> 32), (int) packed);
+            chunksScanned++;
+            task.setProgress(chunksScanned, chunksTotal);
+            return chunksScanned < chunksTotal;
+        }
+
+        private void scanChunk(World world, int x, int z) {
+            if (Bukkit.getWorld(world.getUID()) != world) return; // unloaded
+            ServerLevel level = ((CraftWorld) world).getHandle();
+            LevelChunk chunk = level.getChunkSource().getChunkNow(x, z);
+            if (chunk == null) return;
+            for (BlockEntity blockEntity : chunk.getBlockEntities().values()) {
+                if (!(blockEntity instanceof Container container)) continue;
+                containersScanned++;
+                BlockPos pos = blockEntity.getBlockPos();
+                int size = container.getContainerSize();
+                for (int slot = 0; slot < size; slot++) {
+                    net.minecraft.world.item.ItemStack item = container.getItem(slot);
+                    if (item.isEmpty()) continue;
+                    test(world, pos, slot, item, false);
+                    ItemContainerContents contents = item.get(DataComponents.CONTAINER);
+                    if (contents != null) {
+                        for (net.minecraft.world.item.ItemStack inner : contents.nonEmptyItems()) {
+                            test(world, pos, slot, inner, true);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void test(World world, BlockPos pos, int slot, net.minecraft.world.item.ItemStack item, boolean nested) {
+            if (filter.test(CraftItemStack.asCraftMirror(item))) {
+                hits.add(new Hit(new Location(world, pos.getX(), pos.getY(), pos.getZ()), slot, nested, CraftItemStack.asBukkitCopy(item)));
+            }
+        }
+
+        /**
+         * @return completed on the server thread with all hits once every chunk is scanned
+         */
+        public CompletableFuture<List<Hit>> getFuture() {
+            return future;
+        }
+
+        /**
+         * Stop the scan, the future is cancelled
+         */
+        public void cancel() {
+            future.cancel(false);
+            task.cancel();
+        }
+
+        /**
+         * @return the scheduled task, e.g. to follow progress with {@link TickScheduler.Task#onProgress}
+         */
+        public TickScheduler.Task getTask() {
+            return task;
+        }
+
+        public int getChunksTotal() {
+            return chunksTotal;
+        }
+
+        public int getChunksScanned() {
+            return chunksScanned;
+        }
+
+        public long getContainersScanned() {
+            return containersScanned;
+        }
+    }
+
+    /**
+     * A matching item
+     */
+    public static final class Hit {
+        private final Location location;
+        private final int slot;
+        private final boolean nested;
+        private final ItemStack item;
+
+        Hit(Location location, int slot, boolean nested, ItemStack item) {
+            this.location = location;
+            this.slot = slot;
+            this.nested = nested;
+            this.item = item;
+        }
+
+        /**
+         * @return the block of the container
+         */
+        public Location getLocation() {
+            return location.clone();
+        }
+
+        /**
+         * @return slot of the container holding the item, or holding the shulker box the item is in
+         */
+        public int getSlot() {
+            return slot;
+        }
+
+        /**
+         * @return true if the item is inside an item in the slot, e.g. a shulker box
+         */
+        public boolean isNested() {
+            return nested;
+        }
+
+        /**
+         * @return a copy of the item, as it was when scanned
+         */
+        public ItemStack getItem() {
+            return item.clone();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package cat.nyaa.nyaacore.utils;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+
+import java.util.*;
+
+/**
+ * Contents of an inventory, read once and grouped into similar items,
+ * for running many add/remove/count queries before writing the result back with {@link #apply()}.
+ * <p>
+ * Items are grouped by type, then by {@link ItemStack#isSimilar(ItemStack)} against the first item of each group,
+ * so each item of the inventory is compared once with the groups of its type, and no item is saved or hashed.
+ * Counting and removing cover all slots. Adding never uses the armor slots (36-39) of a player inventory,
+ * same as {@link InventoryUtils#addItems(Inventory, java.util.List)}.
+ * <p>
+ * Items of the inventory are copied only when their slot is changed, and only changed slots are written back.
+ * The snapshot is not updated when the inventory is changed by something else.
+ */
+public final class InventorySnapshot {
+    private final Inventory inventory;
+    private final ItemStack[] items;
+    private final Group[] groups; // group of each slot, null if empty
+    private final BitSet changed = new BitSet();
+    private final BitSet emptyStorageSlots = new BitSet();
+    private final Map<Material, List<Group>> groupsByType = new EnumMap<>(Material.class);
+
+    private InventorySnapshot(Inventory inventory) {
+        this.inventory = inventory;
+        this.items = inventory.getContents();
+        this.groups = new Group[items.length];
+        for (int i = 0; i < items.length; i++) {
+            if (isEmpty(items[i])) {
+                items[i] = null;
+                if (isStorageSlot(i)) emptyStorageSlots.set(i);
+            } else {
+                Group group = getGroup(items[i], true);
+                groups[i] = group;
+                group.slots.set(i);
+                group.amount += items[i].getAmount();
+            }
+        }
+    }
+
+    public static InventorySnapshot of(Inventory inventory) {
+        return new InventorySnapshot(inventory);
+    }
+
+    private static boolean isEmpty(ItemStack item) {
+        return item == null || item.getType().isAir() || item.getAmount() <= 0;
+    }
+
+    /**
+     * @param create create the group if there is none
+     * @return the group of items similar to the given item, null if none and not created
+     */
+    private Group getGroup(ItemStack item, boolean create) {
+        List<Group> candidates = groupsByType.get(item.getType());
+        if (candidates != null) {
+            for (Group group : candidates) {
+                if (group.representative.isSimilar(item)) return group;
+            }
+        }
+        if (!create) return null;
+        if (candidates == null) {
+            candidates = new ArrayList<>(1);
+            groupsByType.put(item.getType(), candidates);
+        }
+        Group group = new Group(item);
+        candidates.add(group);
+        return group;
+    }
+
+    private boolean isStorageSlot(int slot) {
+        return !(slot >= 36 && slot <= 39 && inventory instanceof PlayerInventory);
+    }
+
+    private int maxStackSize(ItemStack item) {
+        return Math.min(item.getMaxStackSize(), inventory.getMaxStackSize());
+    }
+
+    /**
+     * @return total amount of items similar to the given item, in all slots
+     */
+    public int count(ItemStack item) {
+        if (isEmpty(item)) return 0;
+        Group group = getGroup(item, false);
+        return group == null ? 0 : group.amount;
+    }
+
+    /**
+     * @return how many items similar to the given item can still be added
+     */
+    public int space(ItemStack item) {
+        if (isEmpty(item)) return 0;
+        return space(item, getGroup(item, false));
+    }
+
+    private int space(ItemStack item, Group group) {
+        int max = maxStackSize(item);
+        long space = (long) emptyStorageSlots.cardinality() * max;
+        if (group != null) {
+            BitSet slots = group.slots;
+            for (int i = slots.nextSetBit(0); i >= 0; i = slots.nextSetBit(i + 1)) {
+                if (isStorageSlot(i)) space += Math.max(0, max - items[i].getAmount());
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, space);
+    }
+
+    /**
+     * Add the item, filling up similar stacks first, then empty slots. Either all of it is added or nothing.
+     *
+     * @param item the item and amount to add, not modified
+     * @return false if there is not enough space
+     */
+    public boolean add(ItemStack item) {
+        if (isEmpty(item)) return true;
+        int amount = item.getAmount();
+        Group group = getGroup(item, false);
+        if (space(item, group) < amount) return false;
+        int max = maxStackSize(item);
+        if (group != null) {
+            BitSet slots = group.slots;
+            for (int i = slots.nextSetBit(0); i >= 0 && amount > 0; i = slots.nextSetBit(i + 1)) {
+                if (!isStorageSlot(i) || items[i].getAmount() >= max) continue;
+                int added = Math.min(amount, max - items[i].getAmount());
+                setAmount(i, items[i].getAmount() + added);
+                amount -= added;
+            }
+        }
+        while (amount > 0) {
+            int i = emptyStorageSlots.nextSetBit(0);
+            ItemStack stack = item.clone();
+            stack.setAmount(Math.min(amount, max));
+            amount -= stack.getAmount();
+            if (group == null) group = getGroup(stack, true);
+            emptyStorageSlots.clear(i);
+            items[i] = stack;
+            groups[i] = group;
+            group.slots.set(i);
+            group.amount += stack.getAmount();
+            changed.set(i);
+        }
+        return true;
+    }
+
+    /**
+     * Remove items similar to the given item, from the first slots on. Either the whole amount is removed or nothing.
+     *
+     * @param item   the item to remove, its amount is ignored
+     * @param amount the amount to remove
+     * @return false if there are not enough items
+     */
+    public boolean remove(ItemStack item, int amount) {
+        if (amount <= 0) return true;
+        if (isEmpty(item)) return false;
+        Group group = getGroup(item, false);
+        if (group == null || group.amount < amount) return false;
+        BitSet slots = group.slots;
+        for (int i = slots.nextSetBit(0); i >= 0 && amount > 0; i = slots.nextSetBit(i + 1)) {
+            int removed = Math.min(amount, items[i].getAmount());
+            setAmount(i, items[i].getAmount() - removed);
+            amount -= removed;
+        }
+        return true;
+    }
+
+    // change the amount of a non-empty slot, copying its item on first change
+    private void setAmount(int slot, int amount) {
+        Group group = groups[slot];
+        group.amount += amount - items[slot].getAmount();
+        if (amount <= 0) {
+            items[slot] = null;
+            groups[slot] = null;
+            group.slots.clear(slot);
+            if (isStorageSlot(slot)) emptyStorageSlots.set(slot);
+        } else {
+            if (!changed.get(slot)) items[slot] = items[slot].clone();
+            items[slot].setAmount(amount);
+        }
+        changed.set(slot);
+    }
+
+    /**
+     * @return the item of the snapshot in the slot, null if empty. Must not be modified.
+     */
+    public ItemStack getItem(int slot) {
+        return items[slot];
+    }
+
+    public boolean isChanged() {
+        return !changed.isEmpty();
+    }
+
+    /**
+     * Write the changed slots back to the inventory
+     */
+    public void apply() {
+        for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+            inventory.setItem(i, items[i]);
+        }
+        changed.clear();
+    }
+
+    // similar items, confirmed against the item the group was created for
+    private static final class Group {
+        final ItemStack representative;
+        final BitSet slots = new BitSet();
+        int amount;
+
+        Group(ItemStack representative) {
+            this.representative = representative;
+        }
+    }
+}
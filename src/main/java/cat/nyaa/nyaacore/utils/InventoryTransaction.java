@@ -0,0 +1,186 @@
+package cat.nyaa.nyaacore.utils;
+
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.*;
+
+/**
+ * Withdraw and deposit items across several inventories, all or nothing:
+ * <pre>{@code
+ * InventoryTransaction.Result result = new InventoryTransaction()
+ *         .withdraw(player.getInventory(), price)
+ *         .deposit(shopChest, price)
+ *         .transfer(shopChest, player.getInventory(), goods)
+ *         .commit();
+ * if (!result.isSuccess()) result.getFailures().forEach(...);
+ * }</pre>
+ * Operations are planned in the order they were added, against one {@link InventorySnapshot} per inventory,
+ * so a whole batch of trades reads each inventory once. Only if every operation fits, the changed slots of all
+ * inventories are written back. A failed operation does not stop the planning, every failure is reported.
+ * Inventories are told apart with {@link Object#equals(Object)}, so two views of the same container are one inventory.
+ */
+public final class InventoryTransaction {
+    private final List<Operation> operations = new ArrayList<>();
+
+    /**
+     * Remove items similar to the given item, its amount is the amount to remove
+     */
+    public InventoryTransaction withdraw(Inventory inventory, ItemStack item) {
+        return add(inventory, OperationType.WITHDRAW, item);
+    }
+
+    public InventoryTransaction withdraw(Inventory inventory, Collection<ItemStack> items) {
+        for (ItemStack item : items) withdraw(inventory, item);
+        return this;
+    }
+
+    /**
+     * Add a copy of the given item, with its amount
+     */
+    public InventoryTransaction deposit(Inventory inventory, ItemStack item) {
+        return add(inventory, OperationType.DEPOSIT, item);
+    }
+
+    public InventoryTransaction deposit(Inventory inventory, Collection<ItemStack> items) {
+        for (ItemStack item : items) deposit(inventory, item);
+        return this;
+    }
+
+    /**
+     * Withdraw the item from one inventory and deposit it into another
+     */
+    public InventoryTransaction transfer(Inventory from, Inventory to, ItemStack item) {
+        return withdraw(from, item).deposit(to, item);
+    }
+
+    private InventoryTransaction add(Inventory inventory, OperationType type, ItemStack item) {
+        if (inventory == null || item == null) throw new IllegalArgumentException();
+        operations.add(new Operation(inventory, type, item.clone()));
+        return this;
+    }
+
+    /**
+     * Plan all operations without changing any inventory
+     */
+    public Result check() {
+        return plan().result;
+    }
+
+    /**
+     * Plan all operations and apply them if all of them fit
+     *
+     * @return the result, nothing was changed if it is not a success
+     */
+    public Result commit() {
+        Plan plan = plan();
+        if (plan.result.isSuccess()) {
+            for (InventorySnapshot snapshot : plan.snapshots.values()) snapshot.apply();
+        }
+        return plan.result;
+    }
+
+    private Plan plan() {
+        Map<Inventory, InventorySnapshot> snapshots = new LinkedHashMap<>();
+        List<Failure> failures = new ArrayList<>();
+        for (Operation op : operations) {
+            InventorySnapshot snapshot = snapshots.computeIfAbsent(op.inventory, InventorySnapshot::of);
+            int amount = op.item.getAmount();
+            if (op.type == OperationType.WITHDRAW) {
+                if (!snapshot.remove(op.item, amount)) {
+                    failures.add(new Failure(op.inventory, op.type, op.item, amount - snapshot.count(op.item)));
+                }
+            } else {
+                if (!snapshot.add(op.item)) {
+                    failures.add(new Failure(op.inventory, op.type, op.item, amount - snapshot.space(op.item)));
+                }
+            }
+        }
+        return new Plan(snapshots, new Result(failures));
+    }
+
+    public enum OperationType {
+        WITHDRAW,
+        DEPOSIT
+    }
+
+    private static final class Operation {
+        final Inventory inventory;
+        final OperationType type;
+        final ItemStack item;
+
+        Operation(Inventory inventory, OperationType type, ItemStack item) {
+            this.inventory = inventory;
+            this.type = type;
+            this.item = item;
+        }
+    }
+
+    private static final class Plan {
+        final Map<Inventory, InventorySnapshot> snapshots;
+        final Result result;
+
+        Plan(Map<Inventory, InventorySnapshot> snapshots, Result result) {
+            this.snapshots = snapshots;
+            this.result = result;
+        }
+    }
+
+    /**
+     * An operation which did not fit, given the operations planned before it
+     */
+    public static final class Failure {
+        private final Inventory inventory;
+        private final OperationType type;
+        private final ItemStack item;
+        private final int missing;
+
+        Failure(Inventory inventory, OperationType type, ItemStack item, int missing) {
+            this.inventory = inventory;
+            this.type = type;
+            this.item = item;
+            this.missing = missing;
+        }
+
+        public Inventory getInventory() {
+            return inventory;
+        }
+
+        public OperationType getType() {
+            return type;
+        }
+
+        /**
+         * @return a copy of the item of the operation, with the requested amount
+         */
+        public ItemStack getItem() {
+            return item.clone();
+        }
+
+        /**
+         * @return items lacking for a withdrawal, or space lacking for a deposit
+         */
+        public int getMissing() {
+            return missing;
+        }
+    }
+
+    public static final class Result {
+        private final List<Failure> failures;
+
+        Result(List<Failure> failures) {
+            this.failures = Collections.unmodifiableList(failures);
+        }
+
+        public boolean isSuccess() {
+            return failures.isEmpty();
+        }
+
+        /**
+         * @return failed operations in the order they were added, empty on success
+         */
+        public List<Failure> getFailures() {
+            return failures;
+        }
+    }
+}
@@ -5,7 +5,6 @@ import org.bukkit.Material;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.inventory.PlayerInventory;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -41,58 +40,13 @@ public final class InventoryUtils {
     }
 
     private static boolean _addItems(Inventory inventory, List<ItemStack> items) {
-        ItemStack[] tmpInv = new ItemStack[inventory.getSize()];
-        for (int i = 0; i < inventory.getSize(); i++) {
-            if (i >= 36 && i <= 39 && inventory instanceof PlayerInventory) {
-                tmpInv[i] = null;
-                continue;
-            }
-            if (inventory.getItem(i) != null && inventory.getItem(i).getType() != Material.AIR) {
-                tmpInv[i] = inventory.getItem(i).clone();
-            } else {
-                tmpInv[i] = new ItemStack(Material.AIR);
-            }
-        }
+        InventorySnapshot snapshot = InventorySnapshot.of(inventory);
         for (ItemStack item : items) {
-            int amount = item.getAmount();
-            for (int slot = 0; slot < tmpInv.length; slot++) {
-                ItemStack tmp = tmpInv[slot];
-                if (tmp == null) {
-                    continue;
-                }
-                if (tmp.getAmount() < item.getMaxStackSize() && item.isSimilar(tmp)) {
-                    if ((tmp.getAmount() + amount) <= item.getMaxStackSize()) {
-                        tmp.setAmount(amount + tmp.getAmount());
-                        amount = 0;
-                        tmpInv[slot] = tmp;
-                        break;
-                    } else {
-                        amount = amount - (item.getMaxStackSize() - tmp.getAmount());
-                        tmp.setAmount(item.getMaxStackSize());
-                        tmpInv[slot] = tmp;
-                        continue;
-                    }
-                }
-            }
-            if (amount > 0) {
-                for (int i = 0; i < tmpInv.length; i++) {
-                    if (tmpInv[i] != null && tmpInv[i].getType() == Material.AIR) {
-                        item.setAmount(amount);
-                        tmpInv[i] = item.clone();
-                        amount = 0;
-                        break;
-                    }
-                }
-            }
-            if (amount > 0) {
+            if (!snapshot.add(item)) {
                 return false;
             }
         }
-        for (int i = 0; i < tmpInv.length; i++) {
-            if (tmpInv[i] != null && !tmpInv[i].equals(inventory.getItem(i))) {
-                inventory.setItem(i, tmpInv[i]);
-            }
-        }
+        snapshot.apply();
         return true;
     }
 
@@ -101,45 +55,12 @@ public final class InventoryUtils {
     }
 
     public static boolean removeItem(Inventory inventory, ItemStack item, int amount) {
-        ItemStack[] items = new ItemStack[inventory.getSize()];
-        for (int i = 0; i < inventory.getSize(); i++) {
-            if (inventory.getItem(i) != null &&
-                    inventory.getItem(i).getType() != Material.AIR) {
-                items[i] = inventory.getItem(i).clone();
-            } else {
-                items[i] = new ItemStack(Material.AIR);
-            }
-        }
-        boolean success = false;
-        for (int slot = 0; slot < items.length; slot++) {
-            ItemStack tmp = items[slot];
-            if (tmp != null && tmp.isSimilar(item) && tmp.getAmount() > 0) {
-                if (tmp.getAmount() < amount) {
-                    amount = amount - tmp.getAmount();
-                    items[slot] = new ItemStack(Material.AIR);
-                    continue;
-                } else if (tmp.getAmount() > amount) {
-                    tmp.setAmount(tmp.getAmount() - amount);
-                    amount = 0;
-                    success = true;
-                    break;
-                } else {
-                    items[slot] = new ItemStack(Material.AIR);
-                    amount = 0;
-                    success = true;
-                    break;
-                }
-            }
-        }
-        if (success) {
-            for (int i = 0; i < items.length; i++) {
-                if (!items[i].equals(inventory.getItem(i))) {
-                    inventory.setItem(i, items[i]);
-                }
-            }
-            return true;
+        InventorySnapshot snapshot = InventorySnapshot.of(inventory);
+        if (!snapshot.remove(item, amount)) {
+            return false;
         }
-        return false;
+        snapshot.apply();
+        return true;
     }
 
     public static int getAmount(Player p, ItemStack item) {
@@ -147,15 +68,7 @@ public final class InventoryUtils {
     }
 
     public static int getAmount(Inventory inventory, ItemStack item) {
-        int amount = 0;
-        for (int i = 0; i < inventory.getSize(); i++) {
-            if (inventory.getItem(i) != null &&
-                    inventory.getItem(i).getType() != Material.AIR &&
-                    inventory.getItem(i).isSimilar(item)) {
-                amount += inventory.getItem(i).getAmount();
-            }
-        }
-        return amount;
+        return InventorySnapshot.of(inventory).count(item);
     }
 
     public static boolean hasEnoughSpace(Player player, ItemStack item, int amount) {
@@ -167,21 +80,7 @@ public final class InventoryUtils {
     }
 
     public static boolean hasEnoughSpace(Inventory inventory, ItemStack item, int amount) {
-        for (int i = 0; i < inventory.getSize(); i++) {
-            if (i >= 36 && i <= 39 && inventory instanceof PlayerInventory) {
-                continue;
-            }
-            if (inventory.getItem(i) != null && item.isSimilar(inventory.getItem(i)) &&
-                    inventory.getItem(i).getAmount() < item.getMaxStackSize()) {
-                amount -= item.getMaxStackSize() - inventory.getItem(i).getAmount();
-            } else if (inventory.getItem(i) == null || inventory.getItem(i).getType() == Material.AIR) {
-                amount = 0;
-            }
-            if (amount < 1) {
-                return true;
-            }
-        }
-        return false;
+        return InventorySnapshot.of(inventory).space(item) >= amount;
     }
 
     /**
@@ -191,44 +90,25 @@ public final class InventoryUtils {
      * @param inv           the inventory
      * @param itemToBeTaken items to be removed
      * @return If null, then all designated items are removed. If not null, it contains the items missing
+     * @see InventoryTransaction for several inventories
      */
     public static List<ItemStack> withdrawInventoryAtomic(Inventory inv, List<ItemStack> itemToBeTaken) {
-        ItemStack[] itemStacks = inv.getContents();
-        ItemStack[] cloneStacks = new ItemStack[itemStacks.length];
-        for (int i = 0; i < itemStacks.length; i++) {
-            cloneStacks[i] = itemStacks[i] == null ? null : itemStacks[i].clone();
-        }
-
+        InventorySnapshot snapshot = InventorySnapshot.of(inv);
         List<ItemStack> ret = new ArrayList<>();
 
         for (ItemStack item : itemToBeTaken) {
             int sizeReq = item.getAmount();
-
-            for (int i = 0; i < cloneStacks.length; i++) {
-                if (cloneStacks[i] == null) continue;
-                if (cloneStacks[i].isSimilar(item)) {
-                    int sizeSupp = cloneStacks[i].getAmount();
-                    if (sizeSupp > sizeReq) {
-                        cloneStacks[i].setAmount(sizeSupp - sizeReq);
-                        sizeReq = 0;
-                        break;
-                    } else {
-                        cloneStacks[i] = null;
-                        sizeReq -= sizeSupp;
-                        if (sizeReq == 0) break;
-                    }
-                }
-            }
-
-            if (sizeReq > 0) {
+            int sizeSupp = snapshot.count(item);
+            snapshot.remove(item, Math.min(sizeReq, sizeSupp));
+            if (sizeReq > sizeSupp) {
                 ItemStack n = item.clone();
-                item.setAmount(sizeReq);
+                n.setAmount(sizeReq - sizeSupp);
                 ret.add(n);
             }
         }
 
         if (ret.size() == 0) {
-            inv.setContents(cloneStacks);
+            snapshot.apply();
             return null;
         } else {
             return ret;
@@ -0,0 +1,35 @@
+package cat.nyaa.nyaacore.utils;
+
+import java.util.zip.Deflater;
+
+/**
+ * Compression of item containers, chosen per call site, see {@link ItemStackUtils#itemsToBase64(java.util.List, ItemCodec)}.
+ * The codec is recorded in the container header, so readers never need to know which one was used.
+ */
+public enum ItemCodec {
+    /**
+     * No compression, for single small items where deflate barely gains anything
+     */
+    STORE(ItemContainerCodec.CODEC_STORE, Deflater.NO_COMPRESSION),
+    /**
+     * Deflate at the fastest level, for hot paths which serialize often
+     */
+    FAST_DEFLATE(ItemContainerCodec.CODEC_DEFLATE, Deflater.BEST_SPEED),
+    /**
+     * Deflate at the default level, same as the containers written before codecs were selectable
+     */
+    DEFLATE(ItemContainerCodec.CODEC_DEFLATE, Deflater.DEFAULT_COMPRESSION),
+    /**
+     * Deflate with a preset dictionary of common item NBT keys and values,
+     * smallest for single items and short lists, where the data has no repetition of its own yet
+     */
+    DICTIONARY_DEFLATE(ItemContainerCodec.CODEC_DICTIONARY_DEFLATE, Deflater.DEFAULT_COMPRESSION);
+
+    final byte id;
+    final int level;
+
+    ItemCodec(byte id, int level) {
+        this.id = id;
+        this.level = level;
+    }
+}
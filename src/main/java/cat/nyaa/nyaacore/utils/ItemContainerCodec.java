@@ -0,0 +1,343 @@
+package cat.nyaa.nyaacore.utils;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary container for a list of item NBTs, used by {@link ItemStackUtils#itemsToBase64(java.util.List)}.
+ * Items are handed in and out as NBT compound payloads, as written by {@code Tag#write(DataOutput)}.
+ * <p>
+ * Structure of v1 (whole blob deflated):
+ * - First byte (n): number of items, 0 &lt;= n &lt;= 127
+ * - Next 4*n bytes: size of binary nbt for each item
+ * - Next bytes: actual nbt data
+ * <p>
+ * Structure of v2:
+ * - Header, not compressed: magic "NYI", version byte (2), codec byte ({@link ItemCodec}:
+ * 0: stored, 1: deflate of any level, 2: deflate with the preset dictionary {@link #DICTIONARY})
+ * - Then, compressed by the codec:
+ * - Item count (varint), flags byte
+ * - If FLAG_KEY_TABLE: key count (varint), then every key as modified UTF-8 with its 2-byte length prefix
+ * - Size of each item (varint)
+ * - Item data. If FLAG_KEY_TABLE, compound entry names are replaced by their index (varint) in the key table.
+ * <p>
+ * A zlib stream never starts with 'N', so both versions can be told apart by the first byte.
+ */
+final class ItemContainerCodec {
+    static final int V1 = 1;
+    static final int V2 = 2;
+    static final int V1_MAX_ITEMS = 127;
+    private static final byte[] MAGIC = {'N', 'Y', 'I'};
+    private static final int V2_HEADER_SIZE = MAGIC.length + 2;
+    static final byte CODEC_STORE = 0;
+    static final byte CODEC_DEFLATE = 1;
+    static final byte CODEC_DICTIONARY_DEFLATE = 2;
+    private static final int FLAG_KEY_TABLE = 1;
+
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+    // reusable buffers: item nbt, uncompressed container, v2 header, compressed container
+    private static final ThreadLocal<ByteBufferDataOutput> ITEM_BUFFER = ThreadLocal.withInitial(ByteBufferDataOutput::new);
+    private static final ThreadLocal<ByteBufferDataOutput> RAW_BUFFER = ThreadLocal.withInitial(ByteBufferDataOutput::new);
+    private static final ThreadLocal<ByteBufferDataOutput> HEADER_BUFFER = ThreadLocal.withInitial(ByteBufferDataOutput::new);
+    private static final ThreadLocal<ByteBufferDataOutput> PACKED_BUFFER = ThreadLocal.withInitial(ByteBufferDataOutput::new);
+
+    /**
+     * Preset dictionary of {@link #CODEC_DICTIONARY_DEFLATE}: NBT keys and values common in saved items,
+     * as length-prefixed strings like they appear in the NBT, most frequent last.
+     * Existing containers can only be read with the exact same bytes:
+     * never change this list, add a new codec id with a new dictionary instead.
+     */
+    static final byte[] DICTIONARY;
+
+    static {
+        String[] strings = {
+                "minecraft:netherite_sword", "minecraft:diamond_sword", "minecraft:netherite_pickaxe", "minecraft:diamond_pickaxe",
+                "minecraft:elytra", "minecraft:shulker_box", "minecraft:player_head", "minecraft:written_book", "minecraft:potion",
+                "minecraft:sharpness", "minecraft:protection", "minecraft:efficiency", "minecraft:fortune", "minecraft:looting",
+                "minecraft:silk_touch", "minecraft:unbreaking", "minecraft:mending",
+                "signature", "properties", "textures", "minecraft:profile",
+                "title", "author", "pages", "raw", "minecraft:written_book_content", "minecraft:writable_book_content",
+                "potion", "custom_effects", "custom_color", "minecraft:potion_contents",
+                "pattern", "material", "minecraft:trim", "rgb", "minecraft:dyed_color",
+                "minecraft:block_entity_data", "minecraft:bundle_contents", "item", "minecraft:container",
+                "add_value", "add_multiplied_base", "add_multiplied_total", "operation", "amount", "slot", "mainhand", "any",
+                "modifiers", "minecraft:attribute_modifiers", "minecraft:enchantment_glint_override",
+                "minecraft:tooltip_display", "hidden_components", "minecraft:custom_model_data", "floats", "strings",
+                "minecraft:unbreakable", "minecraft:repair_cost", "minecraft:max_damage", "minecraft:damage",
+                "minecraft:rarity", "minecraft:item_model",
+                "minecraft:stored_enchantments", "levels", "minecraft:enchantments",
+                "translate", "extra", "underlined", "strikethrough", "obfuscated", "bold", "italic", "color", "text",
+                "minecraft:item_name", "minecraft:custom_name", "minecraft:lore",
+                "minecraft:custom_data", "nyaacore_itemstack_dataversion", "components", "count", "id", "minecraft:",
+        };
+        ByteBufferDataOutput out = new ByteBufferDataOutput();
+        try {
+            for (String str : strings) out.writeUTF(str);
+        } catch (IOException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+        DICTIONARY = out.toByteArray();
+    }
+
+    private ItemContainerCodec() {
+    }
+
+    /**
+     * Encode items into a container compressed by {@link ItemCodec#DEFLATE}.
+     *
+     * @param count   number of items
+     * @param writer  writes the nbt of the i-th item
+     * @param version {@link #V1} or {@link #V2}
+     * @return view of the compressed container, only valid until the next call from the same thread
+     */
+    static ByteBuffer encode(int count, ItemWriter writer, int version) throws IOException {
+        return encode(count, writer, version, ItemCodec.DEFLATE);
+    }
+
+    /**
+     * Encode items into a compressed container.
+     *
+     * @param count   number of items
+     * @param writer  writes the nbt of the i-th item
+     * @param version {@link #V1} or {@link #V2}
+     * @param codec   the compression, v1 only supports plain deflate
+     * @return view of the compressed container, only valid until the next call from the same thread
+     */
+    static ByteBuffer encode(int count, ItemWriter writer, int version, ItemCodec codec) throws IOException {
+        if (version == V1) {
+            if (count > V1_MAX_ITEMS) throw new IllegalArgumentException("Too many items");
+            if (codec.id != CODEC_DEFLATE) throw new IllegalArgumentException("Codec not supported by v1: " + codec);
+            ByteBufferDataOutput out = RAW_BUFFER.get().clear();
+            out.writeByte(count);
+            int lengthIndex = out.position();
+            out.skip(4 * count);
+            for (int i = 0; i < count; i++) {
+                int start = out.position();
+                writer.write(i, out);
+                out.putInt(lengthIndex, out.position() - start);
+                lengthIndex += 4;
+            }
+            return deflate(PACKED_BUFFER.get().clear(), codec, out.view());
+        } else if (version == V2) {
+            ByteBufferDataOutput nbt = ITEM_BUFFER.get().clear();
+            int[] ends = new int[count];
+            for (int i = 0; i < count; i++) {
+                writer.write(i, nbt);
+                ends[i] = nbt.position();
+            }
+
+            // a key table only pays off when keys repeat across items
+            boolean keyTable = count > 1;
+            ByteBufferDataOutput body = nbt;
+            int[] lengths = new int[count];
+            Map<ByteBuffer, Integer> keys = new HashMap<>();
+            ByteBuffer[] keyList = null;
+            if (keyTable) {
+                body = RAW_BUFFER.get().clear();
+                ByteBuffer in = nbt.view();
+                for (int i = 0; i < count; i++) {
+                    int start = body.position();
+                    copyCompound(in, body, keys, null);
+                    lengths[i] = body.position() - start;
+                }
+                keyList = new ByteBuffer[keys.size()];
+                for (Map.Entry<ByteBuffer, Integer> e : keys.entrySet()) keyList[e.getValue()] = e.getKey();
+            } else {
+                for (int i = 0; i < count; i++) lengths[i] = ends[i] - (i == 0 ? 0 : ends[i - 1]);
+            }
+
+            ByteBufferDataOutput header = HEADER_BUFFER.get().clear();
+            writeVarInt(header, count);
+            header.writeByte(keyTable ? FLAG_KEY_TABLE : 0);
+            if (keyTable) {
+                writeVarInt(header, keyList.length);
+                for (ByteBuffer key : keyList) header.put(key.duplicate());
+            }
+            for (int length : lengths) writeVarInt(header, length);
+
+            ByteBufferDataOutput out = PACKED_BUFFER.get().clear();
+            out.write(MAGIC);
+            out.writeByte(V2);
+            out.writeByte(codec.id);
+            if (codec.id == CODEC_STORE) {
+                out.put(header.view());
+                out.put(body.view());
+                return out.view();
+            }
+            return deflate(out, codec, header.view(), body.view());
+        } else {
+            throw new IllegalArgumentException("Unknown item container version: " + version);
+        }
+    }
+
+    /**
+     * Decode a container created by {@link #encode(int, ItemWriter, int)}, of either version.
+     *
+     * @param reader receives the nbt of each item, in order
+     */
+    static void decode(byte[] blob, ItemReader reader) throws IOException {
+        try {
+            if (isV2(blob)) {
+                if (blob[MAGIC.length] != V2) throw new IOException("Unknown item container version: " + blob[MAGIC.length]);
+                ByteBuffer data = ByteBuffer.wrap(blob, V2_HEADER_SIZE, blob.length - V2_HEADER_SIZE);
+                ByteBuffer in = switch (blob[MAGIC.length + 1]) {
+                    case CODEC_STORE -> data;
+                    case CODEC_DEFLATE -> inflate(data, null);
+                    case CODEC_DICTIONARY_DEFLATE -> inflate(data, DICTIONARY);
+                    default -> throw new IOException("Unknown item container codec: " + blob[MAGIC.length + 1]);
+                };
+                int count = readLength(in);
+                int flags = in.get();
+                ByteBuffer[] keys = null;
+                if ((flags & FLAG_KEY_TABLE) != 0) {
+                    keys = new ByteBuffer[readLength(in)];
+                    for (int i = 0; i < keys.length; i++) {
+                        int length = 2 + Short.toUnsignedInt(in.getShort(in.position()));
+                        keys[i] = in.slice(in.position(), length);
+                        in.position(in.position() + length);
+                    }
+                }
+                int[] lengths = new int[count];
+                for (int i = 0; i < count; i++) lengths[i] = readLength(in);
+                for (int i = 0; i < count; i++) {
+                    if (keys == null) {
+                        reader.read(in.array(), in.position(), lengths[i]);
+                        in.position(in.position() + lengths[i]);
+                    } else {
+                        ByteBufferDataOutput nbt = ITEM_BUFFER.get().clear();
+                        copyCompound(in, nbt, null, keys);
+                        reader.read(nbt.view().array(), 0, nbt.position());
+                    }
+                }
+            } else {
+                ByteBuffer in = inflate(ByteBuffer.wrap(blob), null);
+                int count = in.get();
+                int offset = 1 + 4 * count;
+                for (int i = 0; i < count; i++) {
+                    int length = in.getInt(1 + 4 * i);
+                    reader.read(in.array(), offset, length);
+                    offset += length;
+                }
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | DataFormatException ex) {
+            throw new IOException("Corrupted item container", ex);
+        }
+    }
+
+    static boolean isV2(byte[] blob) {
+        return blob.length >= V2_HEADER_SIZE && blob[0] == MAGIC[0] && blob[1] == MAGIC[1] && blob[2] == MAGIC[2];
+    }
+
+    private static ByteBuffer deflate(ByteBufferDataOutput out, ItemCodec codec, ByteBuffer... inputs) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setLevel(codec.level);
+        if (codec.id == CODEC_DICTIONARY_DEFLATE) deflater.setDictionary(DICTIONARY);
+        out.deflate(deflater, inputs);
+        return out.view();
+    }
+
+    private static ByteBuffer inflate(ByteBuffer input, byte[] dictionary) throws DataFormatException {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        ByteBufferDataOutput out = RAW_BUFFER.get().clear();
+        out.inflate(inflater, input, dictionary);
+        return out.view();
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("VarInt too long");
+    }
+
+    // a varint which can not be larger than the remaining data
+    private static int readLength(ByteBuffer in) throws IOException {
+        int value = readVarInt(in);
+        if (value < 0 || value > in.remaining()) throw new IOException("Corrupted item container");
+        return value;
+    }
+
+    /**
+     * Copy a compound payload, replacing entry names by key table indexes (encodeKeys != null)
+     * or key table indexes by entry names (decodeKeys != null).
+     */
+    private static void copyCompound(ByteBuffer in, ByteBufferDataOutput out, Map<ByteBuffer, Integer> encodeKeys, ByteBuffer[] decodeKeys) throws IOException {
+        while (true) {
+            byte type = in.get();
+            out.writeByte(type);
+            if (type == 0) return;
+            if (encodeKeys != null) {
+                int length = 2 + Short.toUnsignedInt(in.getShort(in.position()));
+                ByteBuffer name = in.slice(in.position(), length);
+                in.position(in.position() + length);
+                Integer index = encodeKeys.get(name);
+                if (index == null) {
+                    index = encodeKeys.size();
+                    encodeKeys.put(name, index);
+                }
+                writeVarInt(out, index);
+            } else {
+                out.put(decodeKeys[readVarInt(in)].duplicate());
+            }
+            copyPayload(type, in, out, encodeKeys, decodeKeys);
+        }
+    }
+
+    private static void copyPayload(byte type, ByteBuffer in, ByteBufferDataOutput out, Map<ByteBuffer, Integer> encodeKeys, ByteBuffer[] decodeKeys) throws IOException {
+        switch (type) {
+            case 1 -> copy(in, out, 1); // byte
+            case 2 -> copy(in, out, 2); // short
+            case 3, 5 -> copy(in, out, 4); // int, float
+            case 4, 6 -> copy(in, out, 8); // long, double
+            case 7 -> copy(in, out, 4 + in.getInt(in.position())); // byte array
+            case 8 -> copy(in, out, 2 + Short.toUnsignedInt(in.getShort(in.position()))); // string
+            case 9 -> { // list
+                byte elementType = in.get();
+                int size = in.getInt();
+                out.writeByte(elementType);
+                out.writeInt(size);
+                for (int i = 0; i < size; i++) copyPayload(elementType, in, out, encodeKeys, decodeKeys);
+            }
+            case 10 -> copyCompound(in, out, encodeKeys, decodeKeys);
+            case 11 -> copy(in, out, 4 + 4 * in.getInt(in.position())); // int array
+            case 12 -> copy(in, out, 4 + 8 * in.getInt(in.position())); // long array
+            default -> throw new IOException("Unknown NBT tag type: " + type);
+        }
+    }
+
+    private static void copy(ByteBuffer in, ByteBufferDataOutput out, int length) {
+        out.put(in.slice(in.position(), length));
+        in.position(in.position() + length);
+    }
+
+    @FunctionalInterface
+    interface ItemWriter {
+        void write(int index, DataOutput out) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface ItemReader {
+        void read(byte[] array, int offset, int length) throws IOException;
+    }
+}
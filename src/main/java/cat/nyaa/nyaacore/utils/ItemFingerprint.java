@@ -0,0 +1,213 @@
+package cat.nyaa.nyaacore.utils;
+
+import com.google.common.collect.MapMaker;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.bukkit.craftbukkit.inventory.CraftItemStack;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * 128-bit fingerprint of an item: its type and data components, not its amount.
+ * Items that can stack have the same fingerprint, so fingerprints can be used as keys of item indexes,
+ * turning a search for similar items into a hash lookup.
+ * <p>
+ * The fingerprint is a murmur3 hash of the saved NBT, where compound entries are hashed independently of their order.
+ * It is stable across restarts, but may change when Minecraft changes how items are saved.
+ * <p>
+ * Computing a fingerprint saves the item, which costs more than one {@link ItemStack#isSimilar(ItemStack)}.
+ * Fingerprints are cached per item object and revalidated with its in-memory hash,
+ * so they only pay off for items looked up repeatedly, or compared with many others.
+ * To compare two items seen once, use {@link ItemStack#isSimilar(ItemStack)}.
+ */
+public final class ItemFingerprint {
+    public static final ItemFingerprint EMPTY = new ItemFingerprint(0, 0);
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private static final ThreadLocal<ByteBufferDataOutput> NBT_BUFFER = ThreadLocal.withInitial(ByteBufferDataOutput::new);
+    // "count" entry of the saved item, with its length prefix
+    private static final ByteBuffer COUNT_KEY = ByteBuffer.wrap(new byte[]{0, 5, 'c', 'o', 'u', 'n', 't'});
+    // nms item -> fingerprint, revalidated with the in-memory component hash as the item may have changed since
+    private static final Map<net.minecraft.world.item.ItemStack, Cached> cache = new MapMaker().weakKeys().makeMap();
+    // bukkit item (not a mirror) -> fingerprint, revalidated with ItemStack#hashCode()
+    private static final Map<ItemStack, Cached> bukkitCache = new MapMaker().weakKeys().makeMap();
+
+    private final long high;
+    private final long low;
+
+    private ItemFingerprint(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Fingerprint of an item, cached per item: per underlying item for {@link CraftItemStack} mirrors,
+     * e.g. items from {@link org.bukkit.inventory.Inventory#getContents()}, per object otherwise.
+     *
+     * @param item the item, null and air give {@link #EMPTY}
+     */
+    public static ItemFingerprint of(ItemStack item) {
+        if (item == null || item.getType().isAir()) return EMPTY;
+        if (!(item instanceof CraftItemStack)) {
+            int hash = item.hashCode(); // includes the amount, a changed amount only costs a recompute
+            Cached cached = bukkitCache.get(item);
+            if (cached != null && cached.hash == hash) return cached.fingerprint;
+            ItemFingerprint ret = compute(CraftItemStack.unwrap(item));
+            bukkitCache.put(item, new Cached(hash, ret));
+            return ret;
+        }
+        net.minecraft.world.item.ItemStack nms = CraftItemStack.unwrap(item);
+        int componentsHash = net.minecraft.world.item.ItemStack.hashItemAndComponents(nms);
+        Cached cached = cache.get(nms);
+        if (cached != null && cached.hash == componentsHash) return cached.fingerprint;
+        ItemFingerprint ret = compute(nms);
+        cache.put(nms, new Cached(componentsHash, ret));
+        return ret;
+    }
+
+    /**
+     * Fingerprint of an item, never cached
+     */
+    public static ItemFingerprint compute(ItemStack item) {
+        if (item == null || item.getType().isAir()) return EMPTY;
+        return compute(CraftItemStack.unwrap(item));
+    }
+
+    private static ItemFingerprint compute(net.minecraft.world.item.ItemStack nms) {
+        if (nms.isEmpty()) return EMPTY;
+        ByteBufferDataOutput out = NBT_BUFFER.get().clear();
+        try {
+            nms.save(ItemStackUtils.getDefaultWorld().getHandle().registryAccess()).write(out);
+            return fromNbt(out.view());
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Only cheaper than {@link ItemStack#isSimilar(ItemStack)} when the fingerprints of both items are cached,
+     * e.g. a template compared with the items of an inventory several times.
+     *
+     * @return true if the items are similar, checking the fingerprints first
+     */
+    public static boolean isSimilar(ItemStack a, ItemStack b) {
+        if (a == null || b == null) return a == b;
+        return of(a).equals(of(b)) && a.isSimilar(b);
+    }
+
+    /**
+     * Fingerprint of a saved item
+     *
+     * @param nbt compound payload of the item, as written by {@code Tag#write(DataOutput)}
+     */
+    static ItemFingerprint fromNbt(ByteBuffer nbt) throws IOException {
+        long[] hash = new long[2];
+        try {
+            hashCompound(nbt, true, hash);
+        } catch (RuntimeException ex) {
+            throw new IOException("Corrupted item nbt", ex);
+        }
+        return new ItemFingerprint(hash[0], hash[1]);
+    }
+
+    // order independent: entry hashes are summed, then the sums hashed again
+    private static void hashCompound(ByteBuffer in, boolean root, long[] ret) throws IOException {
+        long sumHigh = 0, sumLow = 0;
+        int entries = 0;
+        long[] child = new long[2];
+        while (true) {
+            byte type = in.get();
+            if (type == 0) break;
+            int nameLength = 2 + Short.toUnsignedInt(in.getShort(in.position()));
+            ByteBuffer name = in.slice(in.position(), nameLength);
+            in.position(in.position() + nameLength);
+            boolean skip = root && type == 3 && name.equals(COUNT_KEY); // the amount is not part of the fingerprint
+            Hasher hasher = HASH.newHasher().putByte(type).putBytes(name);
+            hashPayload(type, in, hasher, child);
+            if (skip) continue;
+            HashCode entry = hasher.hash();
+            ByteBuffer bytes = ByteBuffer.wrap(entry.asBytes());
+            sumHigh += bytes.getLong();
+            sumLow += bytes.getLong();
+            entries++;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(HASH.newHasher().putLong(sumHigh).putLong(sumLow).putInt(entries).hash().asBytes());
+        ret[0] = bytes.getLong();
+        ret[1] = bytes.getLong();
+    }
+
+    private static void hashPayload(byte type, ByteBuffer in, Hasher hasher, long[] child) throws IOException {
+        switch (type) {
+            case 1 -> hashRaw(in, hasher, 1); // byte
+            case 2 -> hashRaw(in, hasher, 2); // short
+            case 3, 5 -> hashRaw(in, hasher, 4); // int, float
+            case 4, 6 -> hashRaw(in, hasher, 8); // long, double
+            case 7 -> hashRaw(in, hasher, 4 + in.getInt(in.position())); // byte array
+            case 8 -> hashRaw(in, hasher, 2 + Short.toUnsignedInt(in.getShort(in.position()))); // string
+            case 9 -> { // list, order matters
+                byte elementType = in.get();
+                int size = in.getInt();
+                hasher.putByte(elementType).putInt(size);
+                for (int i = 0; i < size; i++) hashPayload(elementType, in, hasher, child);
+            }
+            case 10 -> {
+                hashCompound(in, false, child);
+                hasher.putLong(child[0]).putLong(child[1]);
+            }
+            case 11 -> hashRaw(in, hasher, 4 + 4 * in.getInt(in.position())); // int array
+            case 12 -> hashRaw(in, hasher, 4 + 8 * in.getInt(in.position())); // long array
+            default -> throw new IOException("Unknown NBT tag type: " + type);
+        }
+    }
+
+    private static void hashRaw(ByteBuffer in, Hasher hasher, int length) {
+        hasher.putBytes(in.slice(in.position(), length));
+        in.position(in.position() + length);
+    }
+
+    /**
+     * @return 64 bits of the fingerprint, for indexes which only take a long
+     */
+    public long asLong() {
+        return low;
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ItemFingerprint other)) return false;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) low;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+
+    private static final class Cached {
+        final int hash;
+        final ItemFingerprint fingerprint;
+
+        Cached(int hash, ItemFingerprint fingerprint) {
+            this.hash = hash;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
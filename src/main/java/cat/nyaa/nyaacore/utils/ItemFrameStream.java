@@ -0,0 +1,103 @@
+package cat.nyaa.nyaacore.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Uncompressed stream of item NBTs, used by {@link ItemStackUtils#writeItems(java.util.List, WritableByteChannel)}.
+ * Unlike {@link ItemContainerCodec}, the item count is not known upfront
+ * and neither side ever holds more than one item and a small buffer.
+ * <p>
+ * Structure:
+ * - Header: magic "NYS", version byte (1)
+ * - For each item: size of the nbt (varint, &gt; 0), then the nbt
+ * - End: a zero size (varint)
+ * <p>
+ * The stream compresses well, wrap the channel if it should be compressed.
+ */
+final class ItemFrameStream {
+    private static final byte[] HEADER = {'N', 'Y', 'S', 1};
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // larger frames can only come from corrupted data, a compound payload of an item is far smaller
+    private static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    private static final ThreadLocal<ByteBufferDataOutput> ITEM_BUFFER = ThreadLocal.withInitial(ByteBufferDataOutput::new);
+    private static final ThreadLocal<ByteBufferDataOutput> FRAME_BUFFER = ThreadLocal.withInitial(ByteBufferDataOutput::new);
+
+    private ItemFrameStream() {
+    }
+
+    /**
+     * Write a whole stream. Frames are collected into a reused buffer and written out in chunks of about 64KiB.
+     *
+     * @param count  number of items
+     * @param writer writes the nbt of the i-th item
+     */
+    static void write(WritableByteChannel channel, int count, ItemContainerCodec.ItemWriter writer) throws IOException {
+        ByteBufferDataOutput frames = FRAME_BUFFER.get().clear();
+        frames.write(HEADER);
+        for (int i = 0; i < count; i++) {
+            ByteBufferDataOutput nbt = ITEM_BUFFER.get().clear();
+            writer.write(i, nbt);
+            if (nbt.position() == 0) throw new IllegalArgumentException("Empty item nbt at index " + i);
+            ItemContainerCodec.writeVarInt(frames, nbt.position());
+            frames.put(nbt.view());
+            if (frames.position() >= BUFFER_SIZE) {
+                writeFully(channel, frames.view());
+                frames.clear();
+            }
+        }
+        ItemContainerCodec.writeVarInt(frames, 0);
+        writeFully(channel, frames.view());
+        frames.clear();
+    }
+
+    /**
+     * Read a whole stream, up to and including its end marker. Bytes after the end marker may have been consumed.
+     *
+     * @param reader receives the nbt of each item, in order
+     * @throws EOFException if the channel ends before the end marker
+     */
+    static void read(ReadableByteChannel channel, ItemContainerCodec.ItemReader reader) throws IOException {
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE).flip();
+        in = require(channel, in, HEADER.length);
+        for (byte b : HEADER) {
+            if (in.get() != b) throw new IOException("Not an item stream");
+        }
+        while (true) {
+            int length = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (shift >= 35) throw new IOException("VarInt too long");
+                in = require(channel, in, 1);
+                byte b = in.get();
+                length |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) break;
+            }
+            if (length == 0) return;
+            if (length < 0 || length > MAX_FRAME_SIZE) throw new IOException("Corrupted item stream");
+            in = require(channel, in, length);
+            reader.read(in.array(), in.position(), length);
+            in.position(in.position() + length);
+        }
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    // make sure the buffer (in read mode) has n bytes remaining, growing it for large frames
+    private static ByteBuffer require(ReadableByteChannel channel, ByteBuffer in, int n) throws IOException {
+        if (in.remaining() >= n) return in;
+        if (in.capacity() < n) {
+            in = ByteBuffer.allocate(Math.max(n, in.capacity() * 2)).put(in);
+        } else {
+            in.compact();
+        }
+        while (in.position() < n) {
+            if (channel.read(in) < 0) throw new EOFException("Item stream ended unexpectedly");
+        }
+        return in.flip();
+    }
+}
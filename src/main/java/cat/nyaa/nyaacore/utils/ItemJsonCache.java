@@ -0,0 +1,121 @@
+package cat.nyaa.nyaacore.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import net.minecraft.core.component.DataComponents;
+import net.minecraft.world.item.Items;
+import net.minecraft.world.item.component.ItemContainerContents;
+import net.minecraft.world.item.component.WritableBookContent;
+import net.minecraft.world.item.component.WrittenBookContent;
+import org.bukkit.craftbukkit.inventory.CraftItemStack;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stripped item json for chat hover events, see {@link cat.nyaa.nyaacore.Message#getItemJsonStripped(ItemStack)}.
+ * <p>
+ * Book pages are removed, container contents are cut down to their first 5 items without lore
+ * (the rest become stone). This is done on the NMS components, the item is only copied when something is stripped.
+ * Results are cached by item, components and count, so the same item shown to many players is rendered once.
+ */
+public final class ItemJsonCache {
+    public static final long MAX_CACHED_CHARS = 8L * 1024 * 1024;
+    private static final int CONTAINER_SHOWN_ITEMS = 5;
+    private static final Cache<Key, String> cache = CacheBuilder.newBuilder()
+            .weigher((Key k, String v) -> v.length())
+            .maximumWeight(MAX_CACHED_CHARS)
+            .recordStats()
+            .build();
+
+    private ItemJsonCache() {
+    }
+
+    /**
+     * @param item the item, not modified
+     * @return json of the item without book pages and with container contents trimmed
+     */
+    public static String getStrippedJson(ItemStack item) {
+        net.minecraft.world.item.ItemStack nms = CraftItemStack.unwrap(item);
+        Key lookup = new Key(nms);
+        String json = cache.getIfPresent(lookup);
+        if (json != null) return json;
+        try {
+            json = strip(nms).save(ItemStackUtils.getDefaultWorld().getHandle().registryAccess()).toString();
+        } catch (Throwable t) {
+            throw new RuntimeException("failed to serialize itemstack to nms item", t);
+        }
+        cache.put(new Key(nms.copy()), json); // the key must not change with the caller's item
+        return json;
+    }
+
+    /**
+     * @return hit/miss/eviction counters since server start
+     */
+    public static CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public static long size() {
+        return cache.size();
+    }
+
+    // the item itself if there is nothing to strip, otherwise a stripped copy
+    private static net.minecraft.world.item.ItemStack strip(net.minecraft.world.item.ItemStack item) {
+        boolean book = item.has(DataComponents.WRITTEN_BOOK_CONTENT) || item.has(DataComponents.WRITABLE_BOOK_CONTENT);
+        boolean container = item.has(DataComponents.CONTAINER);
+        if (!book && !container) return item;
+        net.minecraft.world.item.ItemStack ret = item.copy();
+        stripBook(ret);
+        if (container) {
+            List<net.minecraft.world.item.ItemStack> items = new ArrayList<>();
+            for (net.minecraft.world.item.ItemStack content : item.get(DataComponents.CONTAINER).nonEmptyItems()) {
+                if (items.size() < CONTAINER_SHOWN_ITEMS) {
+                    net.minecraft.world.item.ItemStack shown = content.copy();
+                    shown.remove(DataComponents.LORE);
+                    stripBook(shown);
+                    items.add(shown);
+                } else {
+                    items.add(new net.minecraft.world.item.ItemStack(Items.STONE));
+                }
+            }
+            ret.set(DataComponents.CONTAINER, ItemContainerContents.fromItems(items));
+        }
+        return ret;
+    }
+
+    private static void stripBook(net.minecraft.world.item.ItemStack item) {
+        WrittenBookContent written = item.get(DataComponents.WRITTEN_BOOK_CONTENT);
+        if (written != null) {
+            item.set(DataComponents.WRITTEN_BOOK_CONTENT, new WrittenBookContent(written.title(), written.author(), written.generation(), List.of(), written.resolved()));
+        }
+        if (item.has(DataComponents.WRITABLE_BOOK_CONTENT)) {
+            item.set(DataComponents.WRITABLE_BOOK_CONTENT, WritableBookContent.EMPTY);
+        }
+    }
+
+    private static final class Key {
+        private final net.minecraft.world.item.ItemStack item;
+        private final int hash;
+
+        Key(net.minecraft.world.item.ItemStack item) {
+            this.item = item;
+            this.hash = 31 * net.minecraft.world.item.ItemStack.hashItemAndComponents(item) + item.getCount();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key other)) return false;
+            return hash == other.hash && item.getCount() == other.item.getCount()
+                    && net.minecraft.world.item.ItemStack.isSameItemSameComponents(item, other.item);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -2,8 +2,8 @@ package cat.nyaa.nyaacore.utils;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.io.BaseEncoding;
-import com.google.common.io.ByteStreams;
 import com.mojang.datafixers.DSL;
 import com.mojang.datafixers.DataFixer;
 import com.mojang.serialization.Dynamic;
@@ -20,30 +20,31 @@ import org.bukkit.craftbukkit.inventory.CraftItemStack;
 import org.bukkit.inventory.ItemStack;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
-import java.util.zip.Deflater;
-import java.util.zip.DeflaterInputStream;
-import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 public final class ItemStackUtils {
     private static final String NYAACORE_ITEMSTACK_DATAVERSION_KEY = "nyaacore_itemstack_dataversion";
     private static final int NYAACORE_ITEMSTACK_DEFAULT_DATAVERSION = 1139;
-    private static final ThreadLocal<Inflater> NYAA_INFLATER = ThreadLocal.withInitial(Inflater::new);
-    private static final ThreadLocal<Deflater> NYAA_DEFLATER = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<ByteBufferDataOutput> ITEM_BUFFER = ThreadLocal.withInitial(ByteBufferDataOutput::new);
     private static final int currentDataVersion;
-    private static final Cache<String, List<ItemStack>> itemDeserializerCache = CacheBuilder.newBuilder()
-            .weigher((String k, List<ItemStack> v) -> k.getBytes().length)
-            .maximumWeight(256L * 1024 * 1024).build(); // Hard Coded 256M
-    private static NbtAccounter unlimitedNbtAccounter = null;
+    public static final long DEFAULT_DESERIALIZER_CACHE_BYTES = 256L * 1024 * 1024;
+    // rough heap cost of a decoded item: fixed overhead, plus a multiple of its nbt size for the data components
+    private static final int DECODED_ITEM_OVERHEAD = 512;
+    private static final int DECODED_NBT_FACTOR = 4;
+    // null if disabled
+    private static volatile Cache<String, CachedItems> itemDeserializerCache = buildDeserializerCache(DEFAULT_DESERIALIZER_CACHE_BYTES, 0);
+    // data version -> number of items loaded with that version and upgraded by the DataFixer
+    private static final Map<Integer, LongAdder> staleLoads = new ConcurrentHashMap<>();
+    private static volatile CraftWorld defaultWorld;
 
-    private static CraftWorld defaultWorld;
-
-    private static CraftWorld getDefaultWorld() {
+    static CraftWorld getDefaultWorld() {
         if (defaultWorld == null) {
             var worlds = Bukkit.getWorlds();
             if (!worlds.isEmpty()) {
@@ -72,17 +73,17 @@ public final class ItemStackUtils {
      * @return binary NBT representation of the item stack
      */
     public static byte[] itemToBinary(ItemStack itemStack) throws IOException {
+        ByteBufferDataOutput out = ITEM_BUFFER.get().clear();
+        writeItem(itemStack, out);
+        return out.toByteArray();
+    }
+
+    private static void writeItem(ItemStack itemStack, DataOutput out) throws IOException {
         net.minecraft.world.item.ItemStack nativeItemStack = CraftItemStack.unwrap(itemStack);
         CompoundTag tagPrefix = new CompoundTag();
         tagPrefix.putInt(NYAACORE_ITEMSTACK_DATAVERSION_KEY, currentDataVersion);
         Tag tag = nativeItemStack.save(getDefaultWorld().getHandle().registryAccess(), tagPrefix);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream dos = new DataOutputStream(baos);
-        tag.write(dos);
-        byte[] outputByteArray = baos.toByteArray();
-        dos.close();
-        baos.close();
-        return outputByteArray;
+        tag.write(out);
     }
 
     /**
@@ -97,14 +98,10 @@ public final class ItemStackUtils {
     }
 
     public static ItemStack itemFromBinary(byte[] nbt, int offset, int len) throws IOException {
-        if (unlimitedNbtAccounter == null) {
-            unlimitedNbtAccounter = NbtAccounter.unlimitedHeap();
-        }
-
         //Constructor<?> constructNativeItemStackFromCompoundTag = classNativeItemStack.getConstructor(classCompoundTag);
         ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(nbt, offset, len);
         DataInputStream dataInputStream = new DataInputStream(byteArrayInputStream);
-        CompoundTag reconstructedCompoundTag = CompoundTag.TYPE.load(dataInputStream, unlimitedNbtAccounter);
+        CompoundTag reconstructedCompoundTag = CompoundTag.TYPE.load(dataInputStream, NbtAccounter.unlimitedHeap()); // accounter is stateful, one per call
         dataInputStream.close();
         byteArrayInputStream.close();
         int dataVersion = reconstructedCompoundTag.getInt(NYAACORE_ITEMSTACK_DATAVERSION_KEY).orElse(NYAACORE_ITEMSTACK_DEFAULT_DATAVERSION);
@@ -116,6 +113,7 @@ public final class ItemStackUtils {
             if (dataVersion <= 0) {
                 dataVersion = NYAACORE_ITEMSTACK_DEFAULT_DATAVERSION;
             }
+            staleLoads.computeIfAbsent(dataVersion, k -> new LongAdder()).increment();
             DSL.TypeReference References_ITEM_STACK = References.ITEM_STACK;
             NbtOps NbtOps_instance = NbtOps.INSTANCE;
             DataFixer dataFixer_instance = DataFixers.getDataFixer();
@@ -130,99 +128,239 @@ public final class ItemStackUtils {
         return CraftItemStack.asCraftMirror(reconstructedNativeItemStack.get());
     }
 
-    private static byte[] compress(byte[] data) {
-        byte[] ret;
-        Deflater deflater = NYAA_DEFLATER.get();
-        deflater.reset();
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(data);
-             ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-            ByteStreams.copy(new DeflaterInputStream(bis, deflater), bos);
-            ret = bos.toByteArray();
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
-        }
+    /**
+     * Number of items deserialized from an older data version since server start,
+     * each of them went through the DataFixer. See {@link #isStale(String)}.
+     *
+     * @return data version to item count
+     */
+    public static Map<Integer, Long> getStaleLoadCounts() {
+        Map<Integer, Long> ret = new TreeMap<>();
+        staleLoads.forEach((k, v) -> ret.put(k, v.sum()));
         return ret;
     }
 
-    private static byte[] decompress(byte[] data) {
-        byte[] ret;
-        Inflater inflater = NYAA_INFLATER.get();
-        inflater.reset();
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(data);
-             ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-            ByteStreams.copy(new InflaterInputStream(bis, inflater), bos);
-            ret = bos.toByteArray();
+    /**
+     * @return the data version items are serialized with
+     */
+    public static int getCurrentDataVersion() {
+        return currentDataVersion;
+    }
+
+    /**
+     * Check if a string created by {@link #itemsToBase64(List)} contains items of an older data version,
+     * without building the items. Such strings should be re-encoded with
+     * {@code itemsToBase64(itemsFromBase64(base64))} so they no longer need the DataFixer.
+     */
+    public static boolean isStale(String base64) {
+        if (base64.isEmpty()) return false;
+        boolean[] stale = new boolean[1];
+        try {
+            ItemContainerCodec.decode(BaseEncoding.base64().decode(base64), (array, offset, length) -> {
+                try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(array, offset, length))) {
+                    CompoundTag tag = CompoundTag.TYPE.load(dis, NbtAccounter.unlimitedHeap());
+                    if (tag.getInt(NYAACORE_ITEMSTACK_DATAVERSION_KEY).orElse(NYAACORE_ITEMSTACK_DEFAULT_DATAVERSION) < currentDataVersion) {
+                        stale[0] = true;
+                    }
+                }
+            });
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
-        return ret;
+        return stale[0];
     }
 
-    /* *
-     * Structure of binary NBT list:
-     * - First byte (n): number of items (currently limit to 0<=n<=127 i.e. MSB=0)
-     * - Next 4*n bytes (s1~sn): size of binary nbt for each item
-     * - Next sum(s1~sn) bytes: actual data nbt
+    /**
+     * Convert a list of items into the compressed binary list, see {@link ItemContainerCodec} for the format.
+     * Lists of up to 127 items use the v1 format, which older versions of NyaaCore can read, larger lists use v2.
+     * The nbt is written straight into a reused per-thread buffer and compressed into another one.
+     *
+     * @return read-only view of the compressed data, only valid until the next call from the same thread
      */
+    public static ByteBuffer itemsToCompressedBinary(List<ItemStack> items) {
+        return packItems(items, defaultFormat(items), ItemCodec.DEFLATE).asReadOnlyBuffer();
+    }
 
     /**
-     * Convert a list of items into compressed base64 string
+     * Same as {@link #itemsToCompressedBinary(List)}, but always in the v2 format, compressed by the given codec
      */
-    public static String itemsToBase64(List<ItemStack> items) {
-        if (items.isEmpty()) return "";
-        if (items.size() > 127) {
-            throw new IllegalArgumentException("Too many items");
-        }
+    public static ByteBuffer itemsToCompressedBinary(List<ItemStack> items, ItemCodec codec) {
+        return packItems(items, ItemContainerCodec.V2, codec).asReadOnlyBuffer();
+    }
 
-        List<byte[]> nbts = new ArrayList<>();
-        for (ItemStack item : items) {
-            try {
-                nbts.add(itemToBinary(item));
-            } catch (Exception ex) {
-                throw new RuntimeException(ex);
-            }
-        }
+    private static int defaultFormat(List<ItemStack> items) {
+        return items.size() <= ItemContainerCodec.V1_MAX_ITEMS ? ItemContainerCodec.V1 : ItemContainerCodec.V2;
+    }
 
-        byte[] uncompressed_binary;
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
-             DataOutputStream dos = new DataOutputStream(bos)) {
-            dos.writeByte(items.size());
-            for (byte[] nbt : nbts) dos.writeInt(nbt.length);
-            for (byte[] nbt : nbts) dos.write(nbt);
-            uncompressed_binary = bos.toByteArray();
+    private static ByteBuffer packItems(List<ItemStack> items, int format, ItemCodec codec) {
+        try {
+            return ItemContainerCodec.encode(items.size(), (i, out) -> writeItem(items.get(i), out), format, codec);
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
+    }
 
-        return BaseEncoding.base64().encode(compress(uncompressed_binary));
+    /**
+     * Convert a list of items into compressed base64 string.
+     * Lists of up to 127 items use the v1 format, which older versions of NyaaCore can read, larger lists use v2.
+     */
+    public static String itemsToBase64(List<ItemStack> items) {
+        return itemsToBase64(items, defaultFormat(items));
     }
 
     /**
-     * Convert base64 string back to a list of items
+     * Convert a list of items into compressed base64 string of the given format.
+     * The v2 format has no item limit and shares NBT key names between items, it is smaller for long lists.
+     *
+     * @param format 1 or 2
      */
-    public static List<ItemStack> itemsFromBase64(String base64) {
-        List<ItemStack> stack = itemDeserializerCache.getIfPresent(base64);
-        if (stack != null) return stack.stream().map(ItemStack::clone).collect(Collectors.toList());
-        if (base64.length() <= 0) return new ArrayList<>();
+    public static String itemsToBase64(List<ItemStack> items, int format) {
+        return itemsToBase64(items, format, ItemCodec.DEFLATE);
+    }
 
-        byte[] uncompressedBinary = decompress(BaseEncoding.base64().decode(base64));
+    /**
+     * Convert a list of items into base64 string of the v2 format, compressed by the given codec.
+     * Strings of every codec are read back by {@link #itemsFromBase64(String)}, but not by NyaaCore versions before codecs existed.
+     */
+    public static String itemsToBase64(List<ItemStack> items, ItemCodec codec) {
+        return itemsToBase64(items, ItemContainerCodec.V2, codec);
+    }
+
+    private static String itemsToBase64(List<ItemStack> items, int format, ItemCodec codec) {
+        if (items.isEmpty()) return "";
+        ByteBuffer compressed = packItems(items, format, codec);
+        return BaseEncoding.base64().encode(compressed.array(), compressed.arrayOffset() + compressed.position(), compressed.remaining());
+    }
+
+    /**
+     * Stream items to a channel, one frame per item, without building the whole blob in memory.
+     * The data is not compressed: wrap the channel, e.g. {@code Channels.newChannel(new GZIPOutputStream(out))},
+     * if it should be. The channel is not closed and must be blocking.
+     *
+     * @param items   the items
+     * @param channel the destination
+     */
+    public static void writeItems(List<ItemStack> items, WritableByteChannel channel) throws IOException {
+        ItemFrameStream.write(channel, items.size(), (i, out) -> writeItem(items.get(i), out));
+    }
+
+    /**
+     * Read items written by {@link #writeItems(List, WritableByteChannel)}.
+     * The channel is not closed and must be blocking.
+     *
+     * @param channel the source
+     * @return the items, in order
+     */
+    public static List<ItemStack> readItems(ReadableByteChannel channel) throws IOException {
         List<ItemStack> ret = new ArrayList<>();
+        readItems(channel, ret::add);
+        return ret;
+    }
 
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(uncompressedBinary);
-             DataInputStream dis = new DataInputStream(bis)) {
-            int n = dis.readByte();
-            int[] nbtLength = new int[n];
-            for (int i = 0; i < n; i++) nbtLength[i] = dis.readInt();
-            for (int i = 0; i < n; i++) {
-                byte[] tmp = new byte[nbtLength[i]];
-                dis.readFully(tmp);
-                ret.add(itemFromBinary(tmp));
-            }
+    /**
+     * Read items written by {@link #writeItems(List, WritableByteChannel)}, handing each item over as soon as it is decoded,
+     * so even huge dumps never need to be held in memory at once.
+     * The channel is not closed and must be blocking.
+     *
+     * @param channel  the source
+     * @param consumer receives the items, in order
+     */
+    public static void readItems(ReadableByteChannel channel, Consumer<ItemStack> consumer) throws IOException {
+        ItemFrameStream.read(channel, (array, offset, length) -> consumer.accept(itemFromBinary(array, offset, length)));
+    }
+
+    /**
+     * Convert base64 string of either format back to a list of items
+     */
+    public static List<ItemStack> itemsFromBase64(String base64) {
+        List<ItemStack> items = decodeCached(base64).items;
+        List<ItemStack> ret = new ArrayList<>(items.size());
+        for (ItemStack item : items) ret.add(item.clone());
+        return ret;
+    }
+
+    /**
+     * Same as {@link #itemsFromBase64(String)}, but without copying the items.
+     * The returned items may be shared with other callers through the deserializer cache,
+     * so they must only be inspected and never modified, e.g. for hover texts or matching.
+     *
+     * @param base64 string created by {@link #itemsToBase64(List)}
+     * @return unmodifiable list of items which must not be modified
+     */
+    public static List<ItemStack> itemsFromBase64Shared(String base64) {
+        return decodeCached(base64).items;
+    }
+
+    /**
+     * Single item version of {@link #itemsFromBase64Shared(String)}, the item must not be modified.
+     */
+    public static ItemStack itemFromBase64Shared(String base64) {
+        if (base64 == null) throw new IllegalArgumentException();
+        List<ItemStack> ret = itemsFromBase64Shared(base64);
+        if (!ret.isEmpty()) return ret.get(0);
+        return null;
+    }
+
+    private static CachedItems decodeCached(String base64) {
+        Cache<String, CachedItems> cache = itemDeserializerCache;
+        if (cache != null) {
+            CachedItems cached = cache.getIfPresent(base64);
+            if (cached != null) return cached;
+        }
+        if (base64.length() <= 0) return CachedItems.EMPTY;
+
+        List<ItemStack> ret = new ArrayList<>();
+        long[] weight = {base64.length()};
+        try {
+            ItemContainerCodec.decode(BaseEncoding.base64().decode(base64), (array, offset, length) -> {
+                ret.add(itemFromBinary(array, offset, length));
+                weight[0] += DECODED_ITEM_OVERHEAD + (long) DECODED_NBT_FACTOR * length;
+            });
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
-        itemDeserializerCache.put(base64, ret.stream().map(ItemStack::clone).collect(Collectors.toList()));
-        return ret;
+        CachedItems decoded = new CachedItems(Collections.unmodifiableList(ret), (int) Math.min(Integer.MAX_VALUE, weight[0]));
+        if (cache != null) cache.put(base64, decoded);
+        return decoded;
+    }
+
+    private static Cache<String, CachedItems> buildDeserializerCache(long maxBytes, long expireAfterAccessSeconds) {
+        if (maxBytes <= 0) return null;
+        CacheBuilder<String, CachedItems> builder = CacheBuilder.newBuilder()
+                .weigher((String k, CachedItems v) -> v.weight)
+                .maximumWeight(maxBytes)
+                .recordStats();
+        if (expireAfterAccessSeconds > 0) builder.expireAfterAccess(expireAfterAccessSeconds, TimeUnit.SECONDS);
+        return builder.build();
+    }
+
+    /**
+     * Replace the cache used by {@link #itemsFromBase64(String)}. Cached items and statistics are dropped.
+     * Entries are weighted by an estimate of the decoded items' memory, not by the string length.
+     *
+     * @param maxBytes                 estimated memory limit of cached items, 0 to disable the cache
+     * @param expireAfterAccessSeconds drop entries not used for this long, 0 to keep them until evicted by size
+     */
+    public static void configureDeserializerCache(long maxBytes, long expireAfterAccessSeconds) {
+        Cache<String, CachedItems> old = itemDeserializerCache;
+        itemDeserializerCache = buildDeserializerCache(maxBytes, expireAfterAccessSeconds);
+        if (old != null) old.invalidateAll();
+    }
+
+    /**
+     * @return hit/miss/eviction counters of the deserializer cache since it was last configured, all zero if disabled
+     */
+    public static CacheStats getDeserializerCacheStats() {
+        Cache<String, CachedItems> cache = itemDeserializerCache;
+        return cache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : cache.stats();
+    }
+
+    /**
+     * @return number of entries in the deserializer cache, -1 if disabled
+     */
+    public static long getDeserializerCacheSize() {
+        Cache<String, CachedItems> cache = itemDeserializerCache;
+        return cache == null ? -1 : cache.size();
     }
 
     public static String itemToBase64(ItemStack item) {
@@ -230,10 +368,18 @@ public final class ItemStackUtils {
         return itemsToBase64(Collections.singletonList(item));
     }
 
+    /**
+     * Single item version of {@link #itemsToBase64(List, ItemCodec)}
+     */
+    public static String itemToBase64(ItemStack item, ItemCodec codec) {
+        if (item == null) throw new IllegalArgumentException();
+        return itemsToBase64(Collections.singletonList(item), codec);
+    }
+
     public static ItemStack itemFromBase64(String base64) {
         if (base64 == null) throw new IllegalArgumentException();
-        List<ItemStack> ret = itemsFromBase64(base64);
-        if (ret != null && !ret.isEmpty()) return ret.get(0);
+        List<ItemStack> ret = itemsFromBase64Shared(base64);
+        if (!ret.isEmpty()) return ret.get(0).clone();
         return null;
     }
 
@@ -265,4 +411,15 @@ public final class ItemStackUtils {
     public static Object asNMSCopy(ItemStack itemStack) {
         return CraftItemStack.asNMSCopy(itemStack);
     }
+
+    private static final class CachedItems {
+        static final CachedItems EMPTY = new CachedItems(Collections.emptyList(), 0);
+        final List<ItemStack> items;
+        final int weight;
+
+        CachedItems(List<ItemStack> items, int weight) {
+            this.items = items;
+            this.weight = weight;
+        }
+    }
 }
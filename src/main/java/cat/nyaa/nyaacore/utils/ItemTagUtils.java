@@ -8,10 +8,42 @@ import org.bukkit.craftbukkit.inventory.CraftItemStack;
 import org.bukkit.inventory.ItemStack;
 
 import java.lang.reflect.Field;
+import java.util.Collections;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public class ItemTagUtils {
 
+    /**
+     * Read several keys of the custom data with a single component lookup.
+     * The reader is a snapshot: later changes to the item are not visible through it.
+     *
+     * @param item the item, its custom data is not copied
+     * @return reader of the custom data, empty if the item has none
+     */
+    public static TagReader read(ItemStack item) {
+        CompoundTag tag = getTag(CraftItemStack.unwrap(item));
+        return new TagReader(tag == null ? new CompoundTag() : tag);
+    }
+
+    /**
+     * Change several keys of the custom data at once.
+     * The custom data is copied once for the whole edit, instead of once per key like the setX methods.
+     *
+     * @param item   the item, must be a {@link CraftItemStack} as other items can not be changed in place
+     * @param editor changes the custom data, must not keep the editor after returning
+     * @return false if the item is not a {@link CraftItemStack} and nothing was changed
+     */
+    public static boolean edit(ItemStack item, Consumer<TagEditor> editor) {
+        if (!(item instanceof CraftItemStack)) {
+            return false;
+        }
+        net.minecraft.world.item.ItemStack nmsItem = CraftItemStack.unwrap(item);
+        CustomData.update(DataComponents.CUSTOM_DATA, nmsItem, (tag) -> editor.accept(new TagEditor(tag)));
+        return true;
+    }
+
     public static Optional<String> getString(ItemStack item, String key) {
         net.minecraft.world.item.ItemStack nmsItem = CraftItemStack.unwrap(item);
         CompoundTag tag = getTag(nmsItem);
@@ -229,4 +261,136 @@ public class ItemTagUtils {
         }
         return customData.getUnsafe();
     }
+
+    /**
+     * Typed view of custom data, see {@link #read(ItemStack)}
+     */
+    public static class TagReader {
+        final CompoundTag tag;
+
+        TagReader(CompoundTag tag) {
+            this.tag = tag;
+        }
+
+        public boolean contains(String key) {
+            return tag.contains(key);
+        }
+
+        public Set<String> keys() {
+            return Collections.unmodifiableSet(tag.keySet());
+        }
+
+        public Optional<String> getString(String key) {
+            return tag.getString(key);
+        }
+
+        public Optional<Integer> getInt(String key) {
+            return tag.getInt(key);
+        }
+
+        public Optional<Double> getDouble(String key) {
+            return tag.getDouble(key);
+        }
+
+        public Optional<Short> getShort(String key) {
+            return tag.getShort(key);
+        }
+
+        public Optional<Byte> getByte(String key) {
+            return tag.getByte(key);
+        }
+
+        public Optional<Long> getLong(String key) {
+            return tag.getLong(key);
+        }
+
+        public Optional<long[]> getLongArray(String key) {
+            return tag.getLongArray(key);
+        }
+
+        public Optional<int[]> getIntArray(String key) {
+            return tag.getIntArray(key);
+        }
+
+        public Optional<byte[]> getByteArray(String key) {
+            return tag.getByteArray(key);
+        }
+
+        public Optional<Boolean> getBoolean(String key) {
+            return tag.getBoolean(key);
+        }
+
+        public Optional<Float> getFloat(String key) {
+            return tag.getFloat(key);
+        }
+    }
+
+    /**
+     * Typed editor of custom data, see {@link #edit(ItemStack, Consumer)}. Setters return the editor for chaining.
+     */
+    public static class TagEditor extends TagReader {
+        TagEditor(CompoundTag tag) {
+            super(tag);
+        }
+
+        public TagEditor remove(String key) {
+            tag.remove(key);
+            return this;
+        }
+
+        public TagEditor setString(String key, String value) {
+            tag.putString(key, value);
+            return this;
+        }
+
+        public TagEditor setInt(String key, int value) {
+            tag.putInt(key, value);
+            return this;
+        }
+
+        public TagEditor setDouble(String key, double value) {
+            tag.putDouble(key, value);
+            return this;
+        }
+
+        public TagEditor setShort(String key, short value) {
+            tag.putShort(key, value);
+            return this;
+        }
+
+        public TagEditor setByte(String key, byte value) {
+            tag.putByte(key, value);
+            return this;
+        }
+
+        public TagEditor setLong(String key, long value) {
+            tag.putLong(key, value);
+            return this;
+        }
+
+        public TagEditor setLongArray(String key, long[] value) {
+            tag.putLongArray(key, value);
+            return this;
+        }
+
+        public TagEditor setIntArray(String key, int[] value) {
+            tag.putIntArray(key, value);
+            return this;
+        }
+
+        public TagEditor setByteArray(String key, byte[] value) {
+            tag.putByteArray(key, value);
+            return this;
+        }
+
+        public TagEditor setBoolean(String key, boolean value) {
+            tag.putBoolean(key, value);
+            return this;
+        }
+
+        public TagEditor setFloat(String key, float value) {
+            tag.putFloat(key, value);
+            return this;
+        }
+    }
 }
@@ -119,6 +119,9 @@ public final class NmsUtils {
         return BlockEntityList.entrySet().stream().parallel().map(Map.Entry::getKey).map(p -> world.getBlockAt(p.getX(), p.getY(), p.getZ())).collect(Collectors.toList());
     }
 
+    /**
+     * @see ContainerScanner to search the contents of containers without making snapshots
+     */
     public static List<BlockState> getBlockEntityBlockStates(World world) {
         Map<BlockPos, BlockEntity> BlockEntityList = ((CraftWorld) world).getHandle().capturedTileEntities;
         // Safe to parallelize getPosition and getBlockAt
@@ -0,0 +1,143 @@
+package cat.nyaa.nyaacore.utils;
+
+import net.minecraft.nbt.*;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.Optional;
+
+/**
+ * A typed key of item custom data, meant to be declared once as a constant:
+ * <pre>{@code
+ * static final TagKey<Integer> LEVEL = TagKey.ofInt("rpg.level").withDefault(1);
+ * int level = LEVEL.getOrDefault(item);
+ * }</pre>
+ * Reading a key stored with another tag type gives an empty value instead of throwing or converting,
+ * e.g. an int key holding a double. Booleans are stored as bytes, so a boolean key reads any byte.
+ * Several keys can be read and written together with a {@link TagSchema}.
+ */
+public final class TagKey<T> {
+    private final String name;
+    private final Class<? extends Tag> tagType;
+    private final Reader<T> reader;
+    private final Writer<T> writer;
+    private final T defaultValue;
+
+    private TagKey(String name, Class<? extends Tag> tagType, Reader<T> reader, Writer<T> writer, T defaultValue) {
+        if (name == null || name.isEmpty()) throw new IllegalArgumentException("empty tag key");
+        this.name = name;
+        this.tagType = tagType;
+        this.reader = reader;
+        this.writer = writer;
+        this.defaultValue = defaultValue;
+    }
+
+    public static TagKey<String> ofString(String name) {
+        return new TagKey<>(name, StringTag.class, ItemTagUtils.TagReader::getString, ItemTagUtils.TagEditor::setString, null);
+    }
+
+    public static TagKey<Integer> ofInt(String name) {
+        return new TagKey<>(name, IntTag.class, ItemTagUtils.TagReader::getInt, ItemTagUtils.TagEditor::setInt, null);
+    }
+
+    public static TagKey<Long> ofLong(String name) {
+        return new TagKey<>(name, LongTag.class, ItemTagUtils.TagReader::getLong, ItemTagUtils.TagEditor::setLong, null);
+    }
+
+    public static TagKey<Short> ofShort(String name) {
+        return new TagKey<>(name, ShortTag.class, ItemTagUtils.TagReader::getShort, ItemTagUtils.TagEditor::setShort, null);
+    }
+
+    public static TagKey<Byte> ofByte(String name) {
+        return new TagKey<>(name, ByteTag.class, ItemTagUtils.TagReader::getByte, ItemTagUtils.TagEditor::setByte, null);
+    }
+
+    public static TagKey<Double> ofDouble(String name) {
+        return new TagKey<>(name, DoubleTag.class, ItemTagUtils.TagReader::getDouble, ItemTagUtils.TagEditor::setDouble, null);
+    }
+
+    public static TagKey<Float> ofFloat(String name) {
+        return new TagKey<>(name, FloatTag.class, ItemTagUtils.TagReader::getFloat, ItemTagUtils.TagEditor::setFloat, null);
+    }
+
+    public static TagKey<Boolean> ofBoolean(String name) {
+        return new TagKey<>(name, ByteTag.class, ItemTagUtils.TagReader::getBoolean, ItemTagUtils.TagEditor::setBoolean, null);
+    }
+
+    public static TagKey<int[]> ofIntArray(String name) {
+        return new TagKey<>(name, IntArrayTag.class, ItemTagUtils.TagReader::getIntArray, ItemTagUtils.TagEditor::setIntArray, null);
+    }
+
+    public static TagKey<long[]> ofLongArray(String name) {
+        return new TagKey<>(name, LongArrayTag.class, ItemTagUtils.TagReader::getLongArray, ItemTagUtils.TagEditor::setLongArray, null);
+    }
+
+    public static TagKey<byte[]> ofByteArray(String name) {
+        return new TagKey<>(name, ByteArrayTag.class, ItemTagUtils.TagReader::getByteArray, ItemTagUtils.TagEditor::setByteArray, null);
+    }
+
+    /**
+     * @return a key of the same name and type, with the value used by the getOrDefault methods when the key is missing
+     */
+    public TagKey<T> withDefault(T defaultValue) {
+        return new TagKey<>(name, tagType, reader, writer, defaultValue);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public T getDefaultValue() {
+        return defaultValue;
+    }
+
+    /**
+     * @return the value, empty if missing or stored with another type
+     */
+    public Optional<T> get(ItemStack item) {
+        return read(ItemTagUtils.read(item));
+    }
+
+    public T getOrDefault(ItemStack item) {
+        return get(item).orElse(defaultValue);
+    }
+
+    /**
+     * @return false if the item is not a CraftItemStack and nothing was changed, see {@link ItemTagUtils#edit}
+     */
+    public boolean set(ItemStack item, T value) {
+        return ItemTagUtils.edit(item, tag -> write(tag, value));
+    }
+
+    public boolean remove(ItemStack item) {
+        return ItemTagUtils.edit(item, tag -> tag.remove(name));
+    }
+
+    Optional<T> read(ItemTagUtils.TagReader tag) {
+        if (!tagType.isInstance(tag.tag.get(name))) return Optional.empty(); // the getters of CompoundTag convert numbers
+        return reader.read(tag, name);
+    }
+
+    // null removes the key
+    void write(ItemTagUtils.TagEditor tag, T value) {
+        if (value == null) {
+            tag.remove(name);
+        } else {
+            writer.write(tag, name, value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TagKey{" + name + "}";
+    }
+
+    @FunctionalInterface
+    private interface Reader<T> {
+        Optional<T> read(ItemTagUtils.TagReader tag, String key);
+    }
+
+    @FunctionalInterface
+    private interface Writer<T> {
+        void write(ItemTagUtils.TagEditor tag, String key, T value);
+    }
+}
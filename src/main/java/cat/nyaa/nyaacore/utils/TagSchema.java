@@ -0,0 +1,147 @@
+package cat.nyaa.nyaacore.utils;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.util.*;
+
+/**
+ * A fixed set of {@link TagKey}s, read from and written to an item's custom data in one pass:
+ * <pre>{@code
+ * static final TagSchema RPG_ITEM = TagSchema.builder().add(LEVEL).add(OWNER).add(DURABILITY).build();
+ * TagSchema.Values values = RPG_ITEM.read(item);
+ * values.set(LEVEL, values.getOrDefault(LEVEL) + 1);
+ * RPG_ITEM.write(item, values);
+ * }</pre>
+ * Reading looks up the custom data once for all keys, writing copies it once for all changed keys.
+ */
+public final class TagSchema {
+    private final List<TagKey<?>> keys;
+    private final Map<TagKey<?>, Integer> indexes = new IdentityHashMap<>();
+
+    private TagSchema(List<TagKey<?>> keys) {
+        this.keys = Collections.unmodifiableList(new ArrayList<>(keys));
+        for (int i = 0; i < keys.size(); i++) indexes.put(keys.get(i), i);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public List<TagKey<?>> getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return values of all keys, missing keys and keys stored with another type are empty
+     */
+    public Values read(ItemStack item) {
+        ItemTagUtils.TagReader tag = ItemTagUtils.read(item);
+        Values ret = new Values();
+        for (int i = 0; i < keys.size(); i++) ret.values[i] = keys.get(i).read(tag).orElse(null);
+        return ret;
+    }
+
+    /**
+     * @return values with every key empty, for writing a new item
+     */
+    public Values newValues() {
+        return new Values();
+    }
+
+    /**
+     * Write the keys changed through {@link Values#set(TagKey, Object)} or {@link Values#remove(TagKey)}.
+     * Other keys of the custom data are kept.
+     *
+     * @return false if the item is not a CraftItemStack and nothing was changed, see {@link ItemTagUtils#edit}
+     */
+    public boolean write(ItemStack item, Values values) {
+        if (values.schema() != this) throw new IllegalArgumentException("values of another schema");
+        if (values.changed.isEmpty()) return true;
+        boolean ret = ItemTagUtils.edit(item, tag -> {
+            for (int i = values.changed.nextSetBit(0); i >= 0; i = values.changed.nextSetBit(i + 1)) {
+                writeValue(keys.get(i), tag, values.values[i]);
+            }
+        });
+        if (ret) values.changed.clear();
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void writeValue(TagKey<T> key, ItemTagUtils.TagEditor tag, Object value) {
+        key.write(tag, (T) value);
+    }
+
+    private int indexOf(TagKey<?> key) {
+        Integer index = indexes.get(key);
+        if (index == null) throw new IllegalArgumentException(key + " is not part of this schema");
+        return index;
+    }
+
+    public static final class Builder {
+        private final List<TagKey<?>> keys = new ArrayList<>();
+        private final Set<String> names = new HashSet<>();
+
+        private Builder() {
+        }
+
+        public Builder add(TagKey<?> key) {
+            if (!names.add(key.getName())) throw new IllegalArgumentException("duplicate tag key " + key.getName());
+            keys.add(key);
+            return this;
+        }
+
+        public TagSchema build() {
+            return new TagSchema(keys);
+        }
+    }
+
+    /**
+     * Values of the keys of a schema, in a plain array indexed by key
+     */
+    public final class Values {
+        private final Object[] values = new Object[keys.size()];
+        private final BitSet changed = new BitSet();
+
+        private Values() {
+        }
+
+        TagSchema schema() {
+            return TagSchema.this;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T> Optional<T> get(TagKey<T> key) {
+            return Optional.ofNullable((T) values[indexOf(key)]);
+        }
+
+        /**
+         * @return the value, or the default value of the key if empty
+         */
+        @SuppressWarnings("unchecked")
+        public <T> T getOrDefault(TagKey<T> key) {
+            T value = (T) values[indexOf(key)];
+            return value == null ? key.getDefaultValue() : value;
+        }
+
+        public boolean isPresent(TagKey<?> key) {
+            return values[indexOf(key)] != null;
+        }
+
+        /**
+         * @param value the new value, null removes the key on write
+         */
+        public <T> Values set(TagKey<T> key, T value) {
+            int index = indexOf(key);
+            values[index] = value;
+            changed.set(index);
+            return this;
+        }
+
+        public Values remove(TagKey<?> key) {
+            int index = indexOf(key);
+            values[index] = null;
+            changed.set(index);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package cat.nyaa.nyaacore.utils;
+
+import cat.nyaa.nyaacore.NyaaCoreLoader;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Spread large main thread jobs over several ticks, e.g. scanning containers or teleporting many players.
+ * <p>
+ * A job is done in small steps. Each tick all jobs share a time budget (2ms by default, see config.yml),
+ * split by the weight of their {@link Priority}: a high priority job gets more time each tick,
+ * but a low priority one still makes progress. Jobs of a disabled plugin are cancelled.
+ * <p>
+ * Jobs can be submitted from any thread while NyaaCore is enabled, steps and progress callbacks run on the server thread.
+ */
+public final class TickScheduler {
+    public static final long DEFAULT_BUDGET_NANOS = 2_000_000L;
+    private static final Queue<Task> pending = new ConcurrentLinkedQueue<>();
+    private static final List<Task> tasks = new ArrayList<>(); // server thread only, by priority then submit order
+    private static final Map<String, PluginStats> pluginStats = new ConcurrentHashMap<>();
+    private static volatile long budgetNanos = DEFAULT_BUDGET_NANOS;
+    private static BukkitTask driver; // guarded by TickScheduler.class
+
+    private TickScheduler() {
+    }
+
+    /**
+     * @param plugin   owner of the job, it is cancelled when the plugin is disabled
+     * @param name     shown in stats and logs
+     * @param priority share of the tick budget
+     * @param job      called on the server thread until it returns false
+     * @return the scheduled task
+     * @throws IllegalStateException if NyaaCore is not enabled
+     */
+    public static Task submit(Plugin plugin, String name, Priority priority, Job job) {
+        if (job == null) throw new IllegalArgumentException();
+        return enqueue(new Task(plugin, name, priority, job));
+    }
+
+    /**
+     * Run the action for each item, as many items per tick as the budget allows
+     *
+     * @param items copied when submitted
+     */
+    public static <T> Task forEach(Plugin plugin, String name, Priority priority, Collection<? extends T> items, Consumer<? super T> action) {
+        if (items == null || action == null) throw new IllegalArgumentException();
+        List<T> list = new ArrayList<>(items);
+        int[] next = {0};
+        Task task = new Task(plugin, name, priority, null);
+        task.job = () -> {
+            if (next[0] < list.size()) action.accept(list.get(next[0]++));
+            task.setProgress(next[0], list.size());
+            return next[0] < list.size();
+        };
+        task.setProgress(0, list.size());
+        return enqueue(task);
+    }
+
+    private static Task enqueue(Task task) {
+        if (task.plugin == null || task.name == null || task.priority == null) throw new IllegalArgumentException();
+        NyaaCoreLoader core = NyaaCoreLoader.getInstance();
+        if (core == null || !core.isEnabled()) throw new IllegalStateException("NyaaCore is not enabled");
+        pending.add(task);
+        ensureDriver(core);
+        return task;
+    }
+
+    public static long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    /**
+     * @param nanos time all jobs may take each tick
+     */
+    public static void setBudgetNanos(long nanos) {
+        if (nanos <= 0) throw new IllegalArgumentException();
+        budgetNanos = nanos;
+    }
+
+    /**
+     * @return tasks not done yet, including those submitted this tick
+     */
+    public static List<Task> getTasks() {
+        List<Task> ret = new ArrayList<>();
+        synchronized (TickScheduler.class) {
+            ret.addAll(tasks);
+        }
+        ret.addAll(pending);
+        ret.removeIf(Task::isDone);
+        return ret;
+    }
+
+    /**
+     * @return counters per plugin name, since the server started
+     */
+    public static Map<String, PluginStats> getPluginStats() {
+        return Collections.unmodifiableMap(pluginStats);
+    }
+
+    /**
+     * Cancel all tasks and stop, called when NyaaCore is disabled
+     */
+    public static synchronized void shutdown() {
+        if (driver != null) {
+            driver.cancel();
+            driver = null;
+        }
+        for (Task task : tasks) task.cancel();
+        tasks.clear();
+        Task task;
+        while ((task = pending.poll()) != null) task.cancel();
+    }
+
+    // the driver is always owned by NyaaCore, so it does not die with the plugin that happened to submit first
+    private static synchronized void ensureDriver(Plugin core) {
+        if (driver != null && !driver.isCancelled()) return; // cancelled from outside, e.g. Scheduler#cancelTasks
+        driver = Bukkit.getScheduler().runTaskTimer(core, TickScheduler::tick, 1, 1);
+    }
+
+    private static void tick() {
+        synchronized (TickScheduler.class) {
+            Task task;
+            while ((task = pending.poll()) != null) {
+                int i = tasks.size();
+                while (i > 0 && tasks.get(i - 1).priority.ordinal() > task.priority.ordinal()) i--;
+                tasks.add(i, task);
+            }
+            for (Task t : tasks) {
+                if (!t.plugin.isEnabled()) t.cancel();
+            }
+            tasks.removeIf(Task::isDone);
+            if (tasks.isEmpty()) {
+                driver.cancel();
+                driver = null;
+                return;
+            }
+        }
+
+        List<Task> running = new ArrayList<>(tasks);
+        int totalWeight = 0;
+        for (Task task : running) totalWeight += task.priority.weight;
+        long budget = budgetNanos;
+        long deadline = System.nanoTime() + budget;
+        boolean active = true;
+        while (active && System.nanoTime() < deadline) {
+            active = false;
+            for (Task task : running) {
+                if (task.isDone()) continue;
+                long now = System.nanoTime();
+                if (now >= deadline) break;
+                task.run(Math.min(deadline, now + budget * task.priority.weight / totalWeight));
+                active |= !task.isDone();
+            }
+        }
+        for (Task task : running) task.notifyProgress();
+    }
+
+    private static PluginStats statsOf(Plugin plugin) {
+        return pluginStats.computeIfAbsent(plugin.getName(), k -> new PluginStats());
+    }
+
+    public enum Priority {
+        HIGH(4),
+        NORMAL(2),
+        LOW(1);
+
+        final int weight;
+
+        Priority(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Job {
+        /**
+         * Do a small piece of work, well under a millisecond
+         *
+         * @return true if there is more work to do
+         */
+        boolean step() throws Exception;
+    }
+
+    public static final class Task {
+        private final Plugin plugin;
+        private final String name;
+        private final Priority priority;
+        private Job job;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private final List<Consumer<Task>> progressListeners = new ArrayList<>();
+        private volatile long done;
+        private volatile long total = -1;
+        private volatile long nanos;
+        private boolean ran; // this tick
+
+        private Task(Plugin plugin, String name, Priority priority, Job job) {
+            this.plugin = plugin;
+            this.name = name;
+            this.priority = priority;
+            this.job = job;
+        }
+
+        private void run(long until) {
+            PluginStats stats = statsOf(plugin);
+            long start = System.nanoTime();
+            long now = start;
+            long steps = 0;
+            try {
+                boolean more;
+                do {
+                    more = job.step();
+                    steps++;
+                    now = System.nanoTime();
+                } while (more && now < until && !future.isDone());
+                if (!more) {
+                    stats.completed.increment();
+                    future.complete(null);
+                }
+            } catch (Throwable t) {
+                now = System.nanoTime();
+                stats.failed.increment();
+                plugin.getLogger().log(Level.WARNING, "Scheduled job " + name + " failed", t);
+                future.completeExceptionally(t);
+            }
+            nanos += now - start;
+            stats.nanos.add(now - start);
+            stats.steps.add(steps);
+            ran = true;
+        }
+
+        private void notifyProgress() {
+            if (!ran) return;
+            ran = false;
+            for (Consumer<Task> listener : progressListeners) {
+                try {
+                    listener.accept(this);
+                } catch (Throwable t) {
+                    plugin.getLogger().log(Level.WARNING, "Progress callback of " + name + " failed", t);
+                }
+            }
+        }
+
+        public Plugin getPlugin() {
+            return plugin;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        /**
+         * Called by the job to tell how far it is
+         *
+         * @param total -1 if unknown
+         */
+        public void setProgress(long done, long total) {
+            this.done = done;
+            this.total = total;
+        }
+
+        public long getDone() {
+            return done;
+        }
+
+        /**
+         * @return -1 if unknown
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * @param listener called on the server thread at the end of each tick the job ran, including the last one
+         */
+        public Task onProgress(Consumer<Task> listener) {
+            progressListeners.add(listener);
+            return this;
+        }
+
+        /**
+         * @return time the job spent running
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return completed on the server thread when the job is done or failed, cancelled with the task
+         */
+        public CompletableFuture<Void> getFuture() {
+            return future;
+        }
+
+        public boolean isDone() {
+            return future.isDone();
+        }
+
+        /**
+         * Stop the job before its next step
+         */
+        public void cancel() {
+            if (future.cancel(false)) statsOf(plugin).cancelled.increment();
+        }
+    }
+
+    /**
+     * Work done for one plugin
+     */
+    public static final class PluginStats {
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder steps = new LongAdder();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder cancelled = new LongAdder();
+
+        public long getNanos() {
+            return nanos.sum();
+        }
+
+        public long getSteps() {
+            return steps.sum();
+        }
+
+        public long getCompleted() {
+            return completed.sum();
+        }
+
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        public long getCancelled() {
+            return cancelled.sum();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package cat.nyaa.nyaacore;
+
+import net.minecraft.SharedConstants;
+import net.minecraft.core.component.DataComponentMap;
+import net.minecraft.core.component.DataComponents;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.util.Unit;
+import net.minecraft.world.item.component.CustomData;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BasicItemMatcherTest {
+    @BeforeAll
+    public static void bootstrap() {
+        // data components and their registry, no server needed
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+    }
+
+    private static DataComponentMap customData(Consumer<CompoundTag> filler) {
+        CompoundTag tag = new CompoundTag();
+        filler.accept(tag);
+        return DataComponentMap.builder().set(DataComponents.CUSTOM_DATA, CustomData.of(tag)).build();
+    }
+
+    private static DataComponentMap shopItem(Consumer<CompoundTag> shopFiller) {
+        return customData(tag -> {
+            CompoundTag shop = new CompoundTag();
+            shopFiller.accept(shop);
+            tag.put("shop", shop);
+        });
+    }
+
+    @Test
+    public void dataRulesRoundTrip() {
+        BasicItemMatcher matcher = new BasicItemMatcher();
+        matcher.dataRules.put("owner", new ItemDataRule(ItemDataRule.Target.CUSTOM_DATA, "shop.owner", ItemDataRule.Mode.PRESENT));
+        matcher.dataRules.put("level", ItemDataRule.range(ItemDataRule.Target.CUSTOM_DATA, "level", 3, Double.POSITIVE_INFINITY));
+        matcher.dataRules.put("unbreakable", new ItemDataRule(ItemDataRule.Target.COMPONENT, "minecraft:unbreakable", ItemDataRule.Mode.ABSENT));
+
+        YamlConfiguration cfg = new YamlConfiguration();
+        matcher.serialize(cfg);
+        BasicItemMatcher loaded = new BasicItemMatcher();
+        loaded.deserialize(YamlConfiguration.loadConfiguration(new StringReader(cfg.saveToString())));
+
+        assertEquals(3, loaded.dataRules.size());
+        ItemDataRule owner = loaded.dataRules.get("owner");
+        assertEquals(ItemDataRule.Target.CUSTOM_DATA, owner.target);
+        assertEquals("shop.owner", owner.key);
+        assertEquals(ItemDataRule.Mode.PRESENT, owner.mode);
+        assertNull(owner.value);
+        ItemDataRule level = loaded.dataRules.get("level");
+        assertEquals(ItemDataRule.Mode.RANGE, level.mode);
+        assertEquals(3, level.min);
+        assertEquals(Double.POSITIVE_INFINITY, level.max);
+        ItemDataRule unbreakable = loaded.dataRules.get("unbreakable");
+        assertEquals(ItemDataRule.Target.COMPONENT, unbreakable.target);
+        assertEquals("minecraft:unbreakable", unbreakable.key);
+        assertEquals(ItemDataRule.Mode.ABSENT, unbreakable.mode);
+    }
+
+    @Test
+    public void customDataPresentAndAbsent() {
+        ItemDataRule rule = new ItemDataRule(ItemDataRule.Target.CUSTOM_DATA, "shop.owner", ItemDataRule.Mode.PRESENT);
+        Predicate<DataComponentMap> present = rule.compile(DataComponentMap.EMPTY);
+        rule.mode = ItemDataRule.Mode.ABSENT;
+        Predicate<DataComponentMap> absent = rule.compile(DataComponentMap.EMPTY);
+
+        DataComponentMap owned = shopItem(shop -> shop.putString("owner", "alice"));
+        DataComponentMap otherKey = shopItem(shop -> shop.putString("price", "3"));
+        DataComponentMap flat = customData(tag -> tag.putString("owner", "alice")); // not nested under shop
+        for (DataComponentMap c : new DataComponentMap[]{owned, otherKey, flat, DataComponentMap.EMPTY}) {
+            assertEquals(c == owned, present.test(c));
+            assertEquals(c != owned, absent.test(c));
+        }
+    }
+
+    @Test
+    public void customDataEquals() {
+        ItemDataRule rule = new ItemDataRule(ItemDataRule.Target.CUSTOM_DATA, "level", ItemDataRule.Mode.EQUALS);
+        rule.value = "5";
+        Predicate<DataComponentMap> five = rule.compile(DataComponentMap.EMPTY);
+        assertTrue(five.test(customData(tag -> tag.putInt("level", 5))));
+        assertTrue(five.test(customData(tag -> tag.putDouble("level", 5D))));
+        assertFalse(five.test(customData(tag -> tag.putInt("level", 6))));
+        assertFalse(five.test(DataComponentMap.EMPTY));
+
+        rule.key = "shop.owner";
+        rule.value = "alice";
+        Predicate<DataComponentMap> alice = rule.compile(DataComponentMap.EMPTY);
+        assertTrue(alice.test(shopItem(shop -> shop.putString("owner", "alice"))));
+        assertFalse(alice.test(shopItem(shop -> shop.putString("owner", "bob"))));
+
+        rule.value = null; // same as template
+        Predicate<DataComponentMap> sameAsTemplate = rule.compile(shopItem(shop -> shop.putString("owner", "bob")));
+        assertTrue(sameAsTemplate.test(shopItem(shop -> shop.putString("owner", "bob"))));
+        assertFalse(sameAsTemplate.test(shopItem(shop -> shop.putString("owner", "alice"))));
+        assertFalse(sameAsTemplate.test(DataComponentMap.EMPTY));
+    }
+
+    @Test
+    public void customDataRange() {
+        Predicate<DataComponentMap> range = ItemDataRule.range(ItemDataRule.Target.CUSTOM_DATA, "level", 3, 10).compile(DataComponentMap.EMPTY);
+        assertTrue(range.test(customData(tag -> tag.putInt("level", 3))));
+        assertTrue(range.test(customData(tag -> tag.putInt("level", 10))));
+        assertTrue(range.test(customData(tag -> tag.putDouble("level", 7.5D))));
+        assertFalse(range.test(customData(tag -> tag.putDouble("level", 2.999D))));
+        assertFalse(range.test(customData(tag -> tag.putDouble("level", 10.001D))));
+        assertFalse(range.test(customData(tag -> tag.putString("level", "5")))); // a number stored as text
+        assertFalse(range.test(DataComponentMap.EMPTY));
+    }
+
+    @Test
+    public void componentUnbreakable() {
+        DataComponentMap unbreakable = DataComponentMap.builder().set(DataComponents.UNBREAKABLE, Unit.INSTANCE).build();
+        ItemDataRule rule = new ItemDataRule(ItemDataRule.Target.COMPONENT, "minecraft:unbreakable", ItemDataRule.Mode.PRESENT);
+        Predicate<DataComponentMap> present = rule.compile(DataComponentMap.EMPTY);
+        assertTrue(present.test(unbreakable));
+        assertFalse(present.test(DataComponentMap.EMPTY));
+
+        rule.mode = ItemDataRule.Mode.ABSENT;
+        Predicate<DataComponentMap> absent = rule.compile(DataComponentMap.EMPTY);
+        assertFalse(absent.test(unbreakable));
+        assertTrue(absent.test(DataComponentMap.EMPTY));
+
+        rule.mode = ItemDataRule.Mode.EQUALS;
+        Predicate<DataComponentMap> sameAsTemplate = rule.compile(unbreakable);
+        assertTrue(sameAsTemplate.test(unbreakable));
+        assertFalse(sameAsTemplate.test(DataComponentMap.EMPTY));
+
+        rule.key = "minecraft:no_such_component";
+        assertThrows(IllegalArgumentException.class, () -> rule.compile(DataComponentMap.EMPTY));
+    }
+}
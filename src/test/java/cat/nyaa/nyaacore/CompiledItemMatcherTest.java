@@ -0,0 +1,332 @@
+package cat.nyaa.nyaacore;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import cat.nyaa.nyaacore.BasicItemMatcher.MatchingMode;
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.Damageable;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.inventory.meta.Repairable;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompiledItemMatcherTest {
+    private static final int[][] DAMAGE_BOUNDS = {{-2, -2}, {-1, -1}, {4, 6}, {-1, 5}, {-2, -1}};
+
+    @BeforeAll
+    public static void setUpMockServer() {
+        MockBukkit.mock();
+    }
+
+    @AfterAll
+    public static void tearDownMockServer() {
+        MockBukkit.unmock();
+    }
+
+    private static ItemStack sword(String name, int damage, int repairCost, Map<Enchantment, Integer> enchants, String... lore) {
+        ItemStack item = new ItemStack(Material.DIAMOND_SWORD);
+        ItemMeta meta = item.getItemMeta();
+        if (name != null) meta.setDisplayName(name);
+        if (lore.length > 0) meta.setLore(Arrays.asList(lore));
+        enchants.forEach((e, level) -> meta.addEnchant(e, level, true));
+        ((Damageable) meta).setDamage(damage);
+        ((Repairable) meta).setRepairCost(repairCost);
+        item.setItemMeta(meta);
+        return item;
+    }
+
+    private static ItemStack template() {
+        return sword(ChatColor.GREEN + "Blade", 5, 3, Map.of(Enchantment.SHARPNESS, 2), ChatColor.GRAY + "Sharp", "Old");
+    }
+
+    private static List<ItemStack> candidates() {
+        Map<Enchantment, Integer> sharp2 = Map.of(Enchantment.SHARPNESS, 2);
+        List<ItemStack> ret = new ArrayList<>();
+        ret.add(template());
+        ItemStack stack = template();
+        stack.setAmount(3);
+        ret.add(stack);
+        ret.add(sword(ChatColor.GREEN + "Blade", 3, 3, sharp2, ChatColor.GRAY + "Sharp", "Old"));
+        ret.add(sword(ChatColor.GREEN + "Blade", 6, 3, sharp2, ChatColor.GRAY + "Sharp", "Old"));
+        ret.add(sword(ChatColor.GREEN + "Blade", 8, 3, sharp2, ChatColor.GRAY + "Sharp", "Old"));
+        ret.add(sword("Blade", 5, 3, sharp2, ChatColor.GRAY + "Sharp", "Old"));
+        ret.add(sword(ChatColor.GREEN + "Blade of Doom", 5, 3, sharp2, ChatColor.GRAY + "Sharp", "Old"));
+        ret.add(sword(null, 5, 3, sharp2, ChatColor.GRAY + "Sharp", "Old"));
+        ret.add(sword(ChatColor.GREEN + "Blade", 5, 3, sharp2, "Old", ChatColor.GRAY + "Sharp"));
+        ret.add(sword(ChatColor.GREEN + "Blade", 5, 3, sharp2, "Sharp", "Old"));
+        ret.add(sword(ChatColor.GREEN + "Blade", 5, 3, sharp2, ChatColor.GRAY + "Sharp", "Old", "Extra"));
+        ret.add(sword(ChatColor.GREEN + "Blade", 5, 3, sharp2));
+        ret.add(sword(ChatColor.GREEN + "Blade", 5, 3, Map.of(Enchantment.SHARPNESS, 1), ChatColor.GRAY + "Sharp", "Old"));
+        ret.add(sword(ChatColor.GREEN + "Blade", 5, 3, Map.of(Enchantment.SHARPNESS, 3), ChatColor.GRAY + "Sharp", "Old"));
+        ret.add(sword(ChatColor.GREEN + "Blade", 5, 3, Map.of(Enchantment.SHARPNESS, 2, Enchantment.UNBREAKING, 1), ChatColor.GRAY + "Sharp", "Old"));
+        ret.add(sword(ChatColor.GREEN + "Blade", 5, 3, Collections.emptyMap(), ChatColor.GRAY + "Sharp", "Old"));
+        ret.add(sword(ChatColor.GREEN + "Blade", 5, 4, sharp2, ChatColor.GRAY + "Sharp", "Old"));
+        ret.add(new ItemStack(Material.IRON_SWORD));
+        return ret;
+    }
+
+    private static BasicItemMatcher matcher(ItemStack template, boolean exact, int[] damage, MatchingMode name, MatchingMode lore,
+                                            MatchingMode enchant, MatchingMode repairCost) {
+        BasicItemMatcher m = new BasicItemMatcher();
+        m.itemTemplate = template;
+        m.requireExact = exact;
+        m.minDamageValue = damage[0];
+        m.maxDamageValue = damage[1];
+        m.nameMatch = name;
+        m.loreMatch = lore;
+        m.enchantMatch = enchant;
+        m.repairCostMatch = repairCost;
+        return m;
+    }
+
+    @Test
+    public void sameAsLegacyRules() {
+        ItemStack template = template();
+        List<ItemStack> candidates = candidates();
+        MatchingMode[] enchantModes = {MatchingMode.EXACT, MatchingMode.CONTAINS, MatchingMode.ARBITRARY};
+        MatchingMode[] repairModes = {MatchingMode.EXACT, MatchingMode.ARBITRARY};
+        int compared = 0;
+        for (boolean exact : new boolean[]{false, true}) {
+            for (int[] damage : DAMAGE_BOUNDS) {
+                for (MatchingMode name : MatchingMode.values()) {
+                    for (MatchingMode lore : MatchingMode.values()) {
+                        if (lore == MatchingMode.CONTAINS_TEXT) continue; // changed on purpose, see containsTextStripsTemplateLore
+                        for (MatchingMode enchant : enchantModes) {
+                            for (MatchingMode repairCost : repairModes) {
+                                BasicItemMatcher m = matcher(template, exact, damage, name, lore, enchant, repairCost);
+                                CompiledItemMatcher compiled = m.compile();
+                                for (ItemStack item : candidates) {
+                                    assertEquals(legacyMatches(m, item), compiled.matches(item),
+                                            () -> "exact=" + exact + " damage=" + Arrays.toString(damage) + " name=" + name + " lore=" + lore
+                                                    + " enchant=" + enchant + " repair=" + repairCost + " item=" + item);
+                                    compared++;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        assertTrue(compared > 1000);
+    }
+
+    @Test
+    public void requireExact() {
+        BasicItemMatcher m = matcher(template(), true, DAMAGE_BOUNDS[1], MatchingMode.ARBITRARY, MatchingMode.ARBITRARY,
+                MatchingMode.ARBITRARY, MatchingMode.ARBITRARY);
+        ItemStack stack = template();
+        stack.setAmount(10);
+        assertTrue(m.matches(stack)); // amount is ignored
+        assertFalse(m.matches(sword(ChatColor.GREEN + "Blade", 6, 3, Map.of(Enchantment.SHARPNESS, 2), ChatColor.GRAY + "Sharp", "Old")));
+        assertFalse(m.matches(new ItemStack(Material.DIAMOND_SWORD)));
+    }
+
+    @Test
+    public void damageBounds() {
+        Map<Enchantment, Integer> sharp2 = Map.of(Enchantment.SHARPNESS, 2);
+        BasicItemMatcher same = matcher(template(), false, new int[]{-2, -2}, MatchingMode.ARBITRARY, MatchingMode.ARBITRARY,
+                MatchingMode.ARBITRARY, MatchingMode.ARBITRARY);
+        BasicItemMatcher explicit = matcher(template(), false, new int[]{4, 6}, MatchingMode.ARBITRARY, MatchingMode.ARBITRARY,
+                MatchingMode.ARBITRARY, MatchingMode.ARBITRARY);
+        for (int damage = 2; damage <= 8; damage++) {
+            ItemStack item = sword(null, damage, 0, sharp2);
+            assertEquals(damage == 5, same.matches(item), "damage " + damage);
+            assertEquals(damage >= 4 && damage <= 6, explicit.matches(item), "damage " + damage);
+        }
+    }
+
+    @Test
+    public void nameModes() {
+        ItemStack plain = sword("Blade", 5, 3, Map.of(Enchantment.SHARPNESS, 2));
+        ItemStack longer = sword(ChatColor.GREEN + "Blade of Doom", 5, 3, Map.of(Enchantment.SHARPNESS, 2));
+        ItemStack colored = sword(ChatColor.GREEN + "Blade", 5, 3, Map.of(Enchantment.SHARPNESS, 2));
+        Map<MatchingMode, boolean[]> expected = Map.of( // plain, longer, colored
+                MatchingMode.EXACT, new boolean[]{false, false, true},
+                MatchingMode.EXACT_TEXT, new boolean[]{true, false, true},
+                MatchingMode.CONTAINS, new boolean[]{false, true, true},
+                MatchingMode.CONTAINS_TEXT, new boolean[]{true, true, true},
+                MatchingMode.ARBITRARY, new boolean[]{true, true, true});
+        expected.forEach((mode, results) -> {
+            BasicItemMatcher m = matcher(template(), false, DAMAGE_BOUNDS[1], mode, MatchingMode.ARBITRARY,
+                    MatchingMode.ARBITRARY, MatchingMode.ARBITRARY);
+            assertEquals(results[0], m.matches(plain), mode.name());
+            assertEquals(results[1], m.matches(longer), mode.name());
+            assertEquals(results[2], m.matches(colored), mode.name());
+        });
+    }
+
+    @Test
+    public void loreModes() {
+        Map<Enchantment, Integer> none = Collections.emptyMap();
+        ItemStack same = sword(null, 0, 0, none, ChatColor.GRAY + "Sharp", "Old");
+        ItemStack stripped = sword(null, 0, 0, none, "Sharp", "Old");
+        ItemStack reordered = sword(null, 0, 0, none, "Old", ChatColor.GRAY + "Sharp", "Extra");
+        ItemStack missing = sword(null, 0, 0, none, "Old");
+        Map<MatchingMode, boolean[]> expected = Map.of( // same, stripped, reordered, missing
+                MatchingMode.EXACT, new boolean[]{true, false, false, false},
+                MatchingMode.EXACT_TEXT, new boolean[]{true, true, false, false},
+                MatchingMode.CONTAINS, new boolean[]{true, false, true, false},
+                MatchingMode.CONTAINS_TEXT, new boolean[]{true, true, true, false},
+                MatchingMode.ARBITRARY, new boolean[]{true, true, true, true});
+        expected.forEach((mode, results) -> {
+            BasicItemMatcher m = matcher(template(), false, DAMAGE_BOUNDS[1], MatchingMode.ARBITRARY, mode,
+                    MatchingMode.ARBITRARY, MatchingMode.ARBITRARY);
+            assertEquals(results[0], m.matches(same), mode.name());
+            assertEquals(results[1], m.matches(stripped), mode.name());
+            assertEquals(results[2], m.matches(reordered), mode.name());
+            assertEquals(results[3], m.matches(missing), mode.name());
+        });
+    }
+
+    @Test
+    public void containsTextStripsTemplateLore() {
+        BasicItemMatcher m = matcher(template(), false, DAMAGE_BOUNDS[1], MatchingMode.ARBITRARY, MatchingMode.CONTAINS_TEXT,
+                MatchingMode.ARBITRARY, MatchingMode.ARBITRARY);
+        ItemStack item = sword(null, 0, 0, Collections.emptyMap(), ChatColor.RED + "Sharp", "Old");
+        assertTrue(m.matches(item));
+        assertFalse(legacyMatches(m, item)); // the colored template line never matched before
+    }
+
+    @Test
+    public void enchantContains() {
+        BasicItemMatcher m = matcher(template(), false, DAMAGE_BOUNDS[1], MatchingMode.ARBITRARY, MatchingMode.ARBITRARY,
+                MatchingMode.CONTAINS, MatchingMode.ARBITRARY);
+        assertFalse(m.matches(sword(null, 0, 0, Map.of(Enchantment.SHARPNESS, 1))));
+        assertTrue(m.matches(sword(null, 0, 0, Map.of(Enchantment.SHARPNESS, 2))));
+        assertTrue(m.matches(sword(null, 0, 0, Map.of(Enchantment.SHARPNESS, 5, Enchantment.UNBREAKING, 1))));
+        assertFalse(m.matches(sword(null, 0, 0, Map.of(Enchantment.UNBREAKING, 3))));
+    }
+
+    @Test
+    public void repairCost() {
+        ItemStack other = sword(ChatColor.GREEN + "Blade", 5, 4, Map.of(Enchantment.SHARPNESS, 2), ChatColor.GRAY + "Sharp", "Old");
+        BasicItemMatcher exact = matcher(template(), false, DAMAGE_BOUNDS[0], MatchingMode.EXACT, MatchingMode.EXACT,
+                MatchingMode.EXACT, MatchingMode.EXACT);
+        assertFalse(exact.matches(other));
+        exact.repairCostMatch = MatchingMode.ARBITRARY;
+        assertTrue(exact.matches(other));
+    }
+
+    @Test
+    public void invalidatePicksUpTemplateEdits() {
+        BasicItemMatcher m = matcher(template(), false, DAMAGE_BOUNDS[1], MatchingMode.EXACT, MatchingMode.ARBITRARY,
+                MatchingMode.ARBITRARY, MatchingMode.ARBITRARY);
+        ItemStack renamed = sword("Renamed", 0, 0, Collections.emptyMap());
+        CompiledItemMatcher compiled = m.compile();
+        assertSame(compiled, m.compile());
+        assertFalse(m.matches(renamed));
+
+        ItemMeta meta = m.itemTemplate.getItemMeta();
+        meta.setDisplayName("Renamed");
+        m.itemTemplate.setItemMeta(meta);
+        assertSame(compiled, m.compile()); // edits inside the template are not seen
+        assertFalse(m.matches(renamed));
+
+        m.invalidate();
+        assertNotSame(compiled, m.compile());
+        assertTrue(m.matches(renamed));
+    }
+
+    @Test
+    public void reassignedFieldRecompiles() {
+        BasicItemMatcher m = matcher(template(), false, DAMAGE_BOUNDS[1], MatchingMode.EXACT, MatchingMode.ARBITRARY,
+                MatchingMode.ARBITRARY, MatchingMode.ARBITRARY);
+        ItemStack plain = sword("Blade", 0, 0, Collections.emptyMap());
+        CompiledItemMatcher compiled = m.compile();
+        assertFalse(m.matches(plain));
+
+        m.nameMatch = MatchingMode.EXACT_TEXT;
+        assertNotSame(compiled, m.compile());
+        assertTrue(m.matches(plain));
+
+        compiled = m.compile();
+        m.itemTemplate = new ItemStack(Material.IRON_SWORD);
+        assertNotSame(compiled, m.compile());
+        assertFalse(m.matches(plain));
+    }
+
+    // BasicItemMatcher#matches before it was compiled
+    private static boolean legacyMatches(BasicItemMatcher m, ItemStack anotherItem) {
+        ItemStack base = m.itemTemplate.clone();
+        ItemStack given = anotherItem.clone();
+        base.setAmount(1);
+        given.setAmount(1);
+        if (m.requireExact) return base.equals(given);
+        if (!base.getType().equals(given.getType())) return false;
+
+        ItemMeta baseItemMeta = base.getItemMeta();
+        ItemMeta givenItemMeta = given.getItemMeta();
+        if (m.repairCostMatch == MatchingMode.EXACT &&
+                baseItemMeta instanceof Repairable && givenItemMeta instanceof Repairable &&
+                !(((Repairable) givenItemMeta).getRepairCost() == ((Repairable) baseItemMeta).getRepairCost())) {
+            return false;
+        }
+
+        int baseDamage = ((Damageable) baseItemMeta).getDamage();
+        int givenDamage = ((Damageable) givenItemMeta).getDamage();
+        if (m.minDamageValue == -2 && givenDamage < baseDamage) return false;
+        if (m.minDamageValue >= 0 && givenDamage < m.minDamageValue) return false;
+        if (m.maxDamageValue == -2 && givenDamage > baseDamage) return false;
+        if (m.maxDamageValue >= 0 && givenDamage > m.maxDamageValue) return false;
+
+        String baseDisplay = legacyDisplayName(base);
+        String givenDisplay = legacyDisplayName(given);
+        if (m.nameMatch == MatchingMode.EXACT && !baseDisplay.equals(givenDisplay)) return false;
+        if (m.nameMatch == MatchingMode.EXACT_TEXT && !ChatColor.stripColor(baseDisplay).equals(ChatColor.stripColor(givenDisplay)))
+            return false;
+        if (m.nameMatch == MatchingMode.CONTAINS && !givenDisplay.contains(baseDisplay)) return false;
+        if (m.nameMatch == MatchingMode.CONTAINS_TEXT && !ChatColor.stripColor(givenDisplay).contains(ChatColor.stripColor(baseDisplay)))
+            return false;
+
+        Map<Enchantment, Integer> baseEnch = base.getEnchantments();
+        Map<Enchantment, Integer> givenEnch = given.getEnchantments();
+        if (m.enchantMatch == MatchingMode.EXACT || m.enchantMatch == MatchingMode.EXACT_TEXT) {
+            if (!baseEnch.equals(givenEnch)) return false;
+        } else if (m.enchantMatch == MatchingMode.CONTAINS || m.enchantMatch == MatchingMode.CONTAINS_TEXT) {
+            for (Map.Entry<Enchantment, Integer> e : baseEnch.entrySet()) {
+                if (!givenEnch.containsKey(e.getKey()) || givenEnch.get(e.getKey()) < e.getValue())
+                    return false;
+            }
+        }
+
+        String[] baseLore = legacyLore(base);
+        String[] givenLore = legacyLore(given);
+        if (m.loreMatch == MatchingMode.EXACT && !Arrays.deepEquals(baseLore, givenLore)) return false;
+        if (m.loreMatch == MatchingMode.CONTAINS && !legacyContains(givenLore, baseLore, false)) return false;
+        if (m.loreMatch == MatchingMode.EXACT_TEXT) {
+            for (int i = 0; i < baseLore.length; i++) baseLore[i] = ChatColor.stripColor(baseLore[i]);
+            for (int i = 0; i < givenLore.length; i++) givenLore[i] = ChatColor.stripColor(givenLore[i]);
+            if (!Arrays.deepEquals(baseLore, givenLore)) return false;
+        }
+        return m.loreMatch != MatchingMode.CONTAINS_TEXT || legacyContains(givenLore, baseLore, true);
+    }
+
+    private static String legacyDisplayName(ItemStack i) {
+        if (i.hasItemMeta() && i.getItemMeta().hasDisplayName()) return i.getItemMeta().getDisplayName();
+        return i.getType().name();
+    }
+
+    private static String[] legacyLore(ItemStack i) {
+        if (!i.hasItemMeta() || !i.getItemMeta().hasLore()) return new String[0];
+        return i.getItemMeta().getLore().toArray(new String[0]);
+    }
+
+    private static boolean legacyContains(String[] sample, String[] pattern, boolean stripColor) {
+        Set<String> sampleSet = new HashSet<>();
+        for (String s : sample) {
+            sampleSet.add(stripColor ? ChatColor.stripColor(s) : s);
+        }
+        for (String s : pattern) {
+            if (!sampleSet.contains(s))
+                return false;
+        }
+        return true;
+    }
+}
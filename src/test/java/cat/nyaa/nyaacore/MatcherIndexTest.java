@@ -0,0 +1,156 @@
+package cat.nyaa.nyaacore;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import cat.nyaa.nyaacore.BasicItemMatcher.MatchingMode;
+import cat.nyaa.nyaacore.utils.ItemFingerprint;
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.junit.jupiter.api.*;
+import org.mockito.ArgumentMatchers;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+
+import java.lang.reflect.Constructor;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MatcherIndexTest {
+    private MockedStatic<ItemFingerprint> fingerprints;
+    private final List<ItemStack> fingerprinted = new ArrayList<>();
+
+    @BeforeAll
+    public static void setUpMockServer() {
+        MockBukkit.mock();
+    }
+
+    @AfterAll
+    public static void tearDownMockServer() {
+        MockBukkit.unmock();
+    }
+
+    // real fingerprints save the item, which needs a running server; similar items share a fake one here
+    @BeforeEach
+    public void fakeFingerprints() throws ReflectiveOperationException {
+        Constructor<ItemFingerprint> ctor = ItemFingerprint.class.getDeclaredConstructor(long.class, long.class);
+        ctor.setAccessible(true);
+        fingerprints = Mockito.mockStatic(ItemFingerprint.class, Mockito.CALLS_REAL_METHODS);
+        fingerprints.when(() -> ItemFingerprint.of(ArgumentMatchers.any())).thenAnswer(inv -> {
+            ItemStack item = inv.getArgument(0);
+            int i = 0;
+            while (i < fingerprinted.size() && !fingerprinted.get(i).isSimilar(item)) i++;
+            if (i == fingerprinted.size()) fingerprinted.add(item.clone());
+            return ctor.newInstance(1L, i + 1L);
+        });
+    }
+
+    @AfterEach
+    public void closeFingerprints() {
+        fingerprints.close();
+    }
+
+    private static ItemStack item(Material type, String name, Enchantment enchant, String... lore) {
+        ItemStack item = new ItemStack(type);
+        ItemMeta meta = item.getItemMeta();
+        if (name != null) meta.setDisplayName(name);
+        if (enchant != null) meta.addEnchant(enchant, 2, true);
+        if (lore.length > 0) meta.setLore(Arrays.asList(lore));
+        item.setItemMeta(meta);
+        return item;
+    }
+
+    private static CompiledItemMatcher matcher(ItemStack template, boolean exact, MatchingMode name, MatchingMode enchant) {
+        BasicItemMatcher m = new BasicItemMatcher();
+        m.itemTemplate = template;
+        m.requireExact = exact;
+        m.minDamageValue = -1;
+        m.maxDamageValue = -1;
+        m.nameMatch = name;
+        m.enchantMatch = enchant;
+        m.loreMatch = MatchingMode.ARBITRARY;
+        m.repairCostMatch = MatchingMode.ARBITRARY;
+        return m.compile();
+    }
+
+    private static String first(List<Map.Entry<String, CompiledItemMatcher>> rules, ItemStack item) {
+        for (Map.Entry<String, CompiledItemMatcher> e : rules) {
+            if (CompiledItemMatcher.containsMatch(List.of(e.getValue()), item)) return e.getKey();
+        }
+        return null;
+    }
+
+    private static List<String> all(List<Map.Entry<String, CompiledItemMatcher>> rules, ItemStack item) {
+        Set<String> ret = new LinkedHashSet<>();
+        for (Map.Entry<String, CompiledItemMatcher> e : rules) {
+            if (CompiledItemMatcher.containsMatch(List.of(e.getValue()), item)) ret.add(e.getKey());
+        }
+        return new ArrayList<>(ret);
+    }
+
+    @Test
+    public void sameAsLinearScan() {
+        ItemStack blade = item(Material.DIAMOND_SWORD, ChatColor.GREEN + "Blade", null, "Sharp");
+        ItemStack plain = new ItemStack(Material.DIAMOND_SWORD);
+        List<Map.Entry<String, CompiledItemMatcher>> rules = new ArrayList<>();
+        rules.add(Map.entry("exact-blade", matcher(blade, true, MatchingMode.ARBITRARY, MatchingMode.ARBITRARY)));
+        rules.add(Map.entry("any-sword", matcher(plain, false, MatchingMode.ARBITRARY, MatchingMode.ARBITRARY)));
+        rules.add(Map.entry("named-blade-text", matcher(item(Material.DIAMOND_SWORD, "Blade", null), false, MatchingMode.EXACT_TEXT, MatchingMode.ARBITRARY)));
+        rules.add(Map.entry("sharp-sword", matcher(item(Material.DIAMOND_SWORD, null, Enchantment.SHARPNESS), false, MatchingMode.ARBITRARY, MatchingMode.CONTAINS)));
+        rules.add(Map.entry("exact-plain", matcher(plain, true, MatchingMode.ARBITRARY, MatchingMode.ARBITRARY)));
+        rules.add(Map.entry("named-blade-colored", matcher(item(Material.DIAMOND_SWORD, ChatColor.GREEN + "Blade", null), false, MatchingMode.EXACT, MatchingMode.ARBITRARY)));
+        rules.add(Map.entry("named-other", matcher(item(Material.DIAMOND_SWORD, "Other", null), false, MatchingMode.EXACT_TEXT, MatchingMode.ARBITRARY)));
+        rules.add(Map.entry("exact-blade-again", matcher(blade, true, MatchingMode.ARBITRARY, MatchingMode.ARBITRARY)));
+        rules.add(Map.entry("iron", matcher(new ItemStack(Material.IRON_SWORD), false, MatchingMode.ARBITRARY, MatchingMode.ARBITRARY)));
+        rules.add(Map.entry("named-blade-text", matcher(item(Material.DIAMOND_SWORD, null, Enchantment.SHARPNESS), false, MatchingMode.ARBITRARY, MatchingMode.CONTAINS))); // same rule, second matcher
+
+        List<ItemStack> queries = List.of(
+                blade,
+                plain,
+                item(Material.DIAMOND_SWORD, "Blade", null),
+                item(Material.DIAMOND_SWORD, ChatColor.RED + "Blade", null),
+                item(Material.DIAMOND_SWORD, ChatColor.GREEN + "Blade", Enchantment.SHARPNESS, "Sharp"),
+                item(Material.DIAMOND_SWORD, null, Enchantment.SHARPNESS),
+                item(Material.DIAMOND_SWORD, "Other", null),
+                new ItemStack(Material.IRON_SWORD),
+                new ItemStack(Material.STONE));
+
+        // without the permissive rule, so the buckets decide which rule comes first
+        List<Map.Entry<String, CompiledItemMatcher>> withoutAny = new ArrayList<>(rules);
+        withoutAny.removeIf(e -> e.getKey().equals("any-sword"));
+        for (List<Map.Entry<String, CompiledItemMatcher>> ruleList : List.of(rules, withoutAny)) {
+            MatcherIndex<String> index = new MatcherIndex<>();
+            for (Map.Entry<String, CompiledItemMatcher> e : ruleList) index.add(e.getKey(), e.getValue());
+            assertEquals(ruleList.size(), index.size());
+            for (ItemStack query : queries) {
+                assertEquals(first(ruleList, query), index.findFirst(query), query::toString);
+                assertEquals(all(ruleList, query), index.findAll(query), query::toString);
+            }
+
+            index.remove("exact-blade");
+            index.remove("named-blade-text");
+            List<Map.Entry<String, CompiledItemMatcher>> remaining = new ArrayList<>(ruleList);
+            remaining.removeIf(e -> e.getKey().equals("exact-blade") || e.getKey().equals("named-blade-text"));
+            assertEquals(remaining.size(), index.size());
+            for (ItemStack query : queries) {
+                assertEquals(first(remaining, query), index.findFirst(query), query::toString);
+                assertEquals(all(remaining, query), index.findAll(query), query::toString);
+            }
+        }
+    }
+
+    @Test
+    public void bucketsLimitEvaluations() {
+        MatcherIndex<String> index = new MatcherIndex<>();
+        for (int i = 0; i < 50; i++) {
+            index.add("named" + i, matcher(item(Material.DIAMOND_SWORD, "Sword " + i, null), false, MatchingMode.EXACT_TEXT, MatchingMode.ARBITRARY));
+        }
+        assertEquals("named7", index.findFirst(item(Material.DIAMOND_SWORD, ChatColor.GOLD + "Sword 7", null)));
+        assertEquals(1, index.getEvaluations());
+        assertNull(index.findFirst(new ItemStack(Material.DIAMOND_SWORD)));
+        assertEquals(1, index.getEvaluations());
+        assertEquals(1, index.getHits("named7"));
+    }
+}
@@ -0,0 +1,72 @@
+package cat.nyaa.nyaacore.orm;
+
+import cat.nyaa.nyaacore.orm.annotations.Column;
+import cat.nyaa.nyaacore.orm.annotations.Table;
+import cat.nyaa.nyaacore.orm.backends.ITypedTable;
+import cat.nyaa.nyaacore.orm.backends.SQLiteDatabase;
+import org.junit.jupiter.api.Test;
+
+import java.sql.DriverManager;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChangeTrackingTest {
+    @Test
+    public void updateWritesOnlyChangedColumns() throws Exception {
+        try (SQLiteDatabase db = new SQLiteDatabase(DriverManager.getConnection("jdbc:sqlite::memory:"))) {
+            ITypedTable<Account> table = db.getTable(Account.class);
+            table.insert(new Account(1, 100, "a"));
+
+            Account loaded = table.selectUnique(WhereClause.EQ("id", 1L));
+            assertEquals(Collections.emptyList(), table.getJavaTypeModifier().getChangedColumns(loaded));
+
+            // someone else changes the note column in the meantime
+            Account other = table.selectUnique(WhereClause.EQ("id", 1L));
+            other.note = "b";
+            table.update(other);
+
+            loaded.balance = 200;
+            assertEquals(Collections.singletonList("balance"), table.getJavaTypeModifier().getChangedColumns(loaded));
+            table.update(loaded);
+            assertEquals(Collections.emptyList(), table.getJavaTypeModifier().getChangedColumns(loaded));
+
+            Account result = table.selectUnique(WhereClause.EQ("id", 1L));
+            assertEquals(200, result.balance);
+            assertEquals("b", result.note);
+        }
+    }
+
+    @Test
+    public void untrackedObjectUpdatesAllColumns() throws Exception {
+        try (SQLiteDatabase db = new SQLiteDatabase(DriverManager.getConnection("jdbc:sqlite::memory:"))) {
+            ITypedTable<Account> table = db.getTable(Account.class);
+            table.insert(new Account(1, 100, "a"));
+            Account fresh = new Account(1, 300, "c");
+            assertNull(table.getJavaTypeModifier().getChangedColumns(fresh));
+            table.update(fresh);
+            Account result = table.selectUnique(WhereClause.EQ("id", 1L));
+            assertEquals(300, result.balance);
+            assertEquals("c", result.note);
+        }
+    }
+
+    @Table(value = "tracked_account", trackChanges = true)
+    public static class Account {
+        @Column(primary = true)
+        public long id;
+        @Column
+        public long balance;
+        @Column
+        public String note;
+
+        public Account() {
+        }
+
+        public Account(long id, long balance, String note) {
+            this.id = id;
+            this.balance = balance;
+            this.note = note;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package cat.nyaa.nyaacore.orm;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import cat.nyaa.nyaacore.orm.backends.IConnectedDatabase;
+import cat.nyaa.nyaacore.orm.backends.ITypedTable;
+import cat.nyaa.nyaacore.orm.backends.SQLiteDatabase;
+import cat.nyaa.nyaacore.utils.ItemStackUtils;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.UnsafeValues;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.*;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+
+public class ItemStoreTest {
+    private SQLiteDatabase db;
+    private MockedStatic<ItemStackUtils> itemCodec;
+
+    @BeforeAll
+    public static void setUpMockServer() throws ClassNotFoundException {
+        MockBukkit.mock();
+        // ItemStackUtils reads the data version when loaded
+        try (MockedStatic<Bukkit> bukkit = Mockito.mockStatic(Bukkit.class, Mockito.CALLS_REAL_METHODS)) {
+            UnsafeValues unsafe = Mockito.mock(UnsafeValues.class);
+            Mockito.when(unsafe.getDataVersion()).thenReturn(1);
+            bukkit.when(Bukkit::getUnsafe).thenReturn(unsafe);
+            Class.forName(ItemStackUtils.class.getName());
+        }
+    }
+
+    @AfterAll
+    public static void tearDownMockServer() {
+        MockBukkit.unmock();
+    }
+
+    // items are encoded as "TYPE*amount", saving real NBT needs a running server
+    private static String encode(ItemStack item) {
+        return item.getType().name() + "*" + item.getAmount();
+    }
+
+    private static ItemStack decode(String s) {
+        String[] parts = s.split("\\*");
+        return new ItemStack(Material.valueOf(parts[0]), Integer.parseInt(parts[1]));
+    }
+
+    @BeforeEach
+    public void openDatabase() throws SQLException {
+        itemCodec = Mockito.mockStatic(ItemStackUtils.class);
+        itemCodec.when(() -> ItemStackUtils.itemToBinary(any())).thenAnswer(inv -> encode(inv.getArgument(0)).getBytes(StandardCharsets.UTF_8));
+        itemCodec.when(() -> ItemStackUtils.itemToBase64(any())).thenAnswer(inv -> encode(inv.getArgument(0)));
+        itemCodec.when(() -> ItemStackUtils.itemFromBase64(any())).thenAnswer(inv -> decode(inv.getArgument(0)));
+        db = new SQLiteDatabase(DriverManager.getConnection("jdbc:sqlite::memory:"));
+    }
+
+    @AfterEach
+    public void closeDatabase() throws SQLException {
+        db.close();
+        itemCodec.close();
+    }
+
+    private int rows() {
+        return db.getTable(ItemStore.StoredItem.class).count(WhereClause.EMPTY);
+    }
+
+    @Test
+    public void putStoresOnce() {
+        ItemStore store = new ItemStore(db);
+        ItemRef ref = store.put(new ItemStack(Material.DIAMOND, 64));
+        assertEquals(ref, store.put(new ItemStack(Material.DIAMOND, 64)));
+        assertEquals(ref, new ItemStore(db).put(new ItemStack(Material.DIAMOND, 64)));
+        assertEquals(ref, ItemStore.hash(new ItemStack(Material.DIAMOND, 64)));
+        assertEquals(1, rows());
+
+        assertNotEquals(ref, store.put(new ItemStack(Material.DIAMOND, 1)));
+        assertEquals(2, rows());
+    }
+
+    @Test
+    public void getReturnsCopies() {
+        ItemStore store = new ItemStore(db);
+        ItemStack item = new ItemStack(Material.EMERALD, 5);
+        ItemRef ref = store.put(item);
+        item.setAmount(1); // the caller still owns its item
+
+        ItemStack first = store.get(ref);
+        assertEquals(5, first.getAmount());
+        first.setAmount(2);
+        assertNotSame(first, store.get(ref));
+        assertEquals(5, store.get(ref).getAmount());
+
+        // decoded from the table by a store with an empty cache
+        ItemStore other = new ItemStore(db);
+        ItemStack loaded = other.get(ref);
+        assertEquals(Material.EMERALD, loaded.getType());
+        assertEquals(5, loaded.getAmount());
+        loaded.setAmount(3);
+        assertEquals(5, other.get(ref).getAmount());
+
+        assertNull(store.get(ItemRef.fromString("missing")));
+        assertNull(store.get(null));
+    }
+
+    @Test
+    public void putToleratesConcurrentInsert() {
+        ITypedTable<ItemStore.StoredItem> table = Mockito.spy(db.getTable(ItemStore.StoredItem.class));
+        IConnectedDatabase racing = Mockito.mock(IConnectedDatabase.class);
+        Mockito.when(racing.getTable(ItemStore.StoredItem.class)).thenReturn(table);
+        Mockito.when(racing.getConnection()).thenReturn(db.getConnection());
+        ItemStore store = new ItemStore(racing);
+
+        // another store inserts the item after this one found it missing
+        ItemRef expected = new ItemStore(db).put(new ItemStack(Material.GOLD_INGOT, 7));
+        Mockito.doReturn(0).doCallRealMethod().when(table).count(any());
+
+        assertEquals(expected, store.put(new ItemStack(Material.GOLD_INGOT, 7)));
+        Mockito.verify(table).insert(any());
+        assertEquals(1, rows());
+        assertEquals(7, store.get(expected).getAmount());
+    }
+
+    @Test
+    public void retainAllDeletesUnused() {
+        ItemStore store = new ItemStore(db);
+        ItemRef kept = store.put(new ItemStack(Material.DIAMOND, 1));
+        ItemRef dropped1 = store.put(new ItemStack(Material.DIAMOND, 2));
+        ItemRef dropped2 = store.put(new ItemStack(Material.STONE, 1));
+
+        assertEquals(2, store.retainAll(Set.of(kept)));
+        assertEquals(1, rows());
+        assertNotNull(store.get(kept));
+        assertNull(store.get(dropped1)); // evicted from the cache too
+        assertNull(store.get(dropped2));
+        assertEquals(0, store.retainAll(Set.of(kept)));
+
+        // stored again after being deleted
+        assertEquals(dropped1, store.put(new ItemStack(Material.DIAMOND, 2)));
+        assertEquals(2, rows());
+    }
+}
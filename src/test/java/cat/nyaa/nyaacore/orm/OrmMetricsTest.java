@@ -0,0 +1,75 @@
+package cat.nyaa.nyaacore.orm;
+
+import cat.nyaa.nyaacore.orm.backends.ITypedTable;
+import cat.nyaa.nyaacore.orm.backends.SQLiteDatabase;
+import cat.nyaa.nyaacore.orm.metrics.DatabaseMetrics;
+import cat.nyaa.nyaacore.orm.metrics.OrmMetrics;
+import cat.nyaa.nyaacore.orm.metrics.TableMetrics;
+import org.junit.jupiter.api.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.sql.DriverManager;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OrmMetricsTest {
+    @Test
+    public void countsStatementsAndRows() throws Exception {
+        DatabaseMetrics metrics;
+        try (SQLiteDatabase db = new SQLiteDatabase(DriverManager.getConnection("jdbc:sqlite::memory:"), null, "metrics_test")) {
+            metrics = db.getMetrics();
+            assertTrue(OrmMetrics.getDatabases().contains(metrics));
+            ITypedTable<ChangeTrackingTest.Account> table = db.getTable(ChangeTrackingTest.Account.class);
+            for (long i = 1; i <= 10; i++) {
+                table.insert(new ChangeTrackingTest.Account(i, i, "n"));
+            }
+            assertEquals(10, table.select(WhereClause.EMPTY).size());
+            try (RollbackGuard guard = new RollbackGuard(db)) {
+                table.delete(WhereClause.EQ("id", 1L));
+                guard.commit();
+            }
+
+            TableMetrics tableMetrics = metrics.getTables().get(0);
+            assertEquals("tracked_account", tableMetrics.getTableName());
+            assertEquals(12, tableMetrics.getStatements());
+            assertEquals(10, tableMetrics.getRowsRead());
+            assertEquals(11, tableMetrics.getRowsWritten());
+            assertEquals(1, metrics.getTransactions());
+            assertEquals(0, metrics.getRollbacks());
+            assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(
+                    new ObjectName(OrmMetrics.JMX_DOMAIN + ":type=Database,name=" + ObjectName.quote("metrics_test"))));
+        }
+        assertFalse(OrmMetrics.getDatabases().contains(metrics));
+    }
+
+    @Test
+    public void snapshotReadsCountedOnce() throws Exception {
+        try (SQLiteDatabase db = new SQLiteDatabase(DriverManager.getConnection("jdbc:sqlite::memory:"),
+                Collections.singletonList("tracked_account"), "metrics_snapshot_test")) {
+            ITypedTable<ChangeTrackingTest.Account> table = db.getTable(ChangeTrackingTest.Account.class);
+            assertInstanceOf(SQLiteDatabase.SnapshotTypedTable.class, table);
+            for (long i = 1; i <= 5; i++) {
+                table.insert(new ChangeTrackingTest.Account(i, i, "n"));
+            }
+            assertEquals(5, table.select(WhereClause.EMPTY).size());
+            assertEquals(1, table.count(WhereClause.EQ("id", 3L)));
+
+            TableMetrics tableMetrics = db.getMetrics().getTables().get(0);
+            assertEquals(7, tableMetrics.getStatements());
+            assertEquals(5, tableMetrics.getRowsRead());
+            assertEquals(5, tableMetrics.getRowsWritten());
+        }
+    }
+
+    @Test
+    public void unnamedDatabaseNotRegistered() throws Exception {
+        int before = OrmMetrics.getDatabases().size();
+        try (SQLiteDatabase db = new SQLiteDatabase(DriverManager.getConnection("jdbc:sqlite::memory:"))) {
+            assertNull(db.getMetrics());
+            db.getTable(ChangeTrackingTest.Account.class).insert(new ChangeTrackingTest.Account(1L, 1L, "n"));
+            assertEquals(before, OrmMetrics.getDatabases().size());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package cat.nyaa.nyaacore.orm;
+
+import cat.nyaa.nyaacore.orm.annotations.Column;
+import cat.nyaa.nyaacore.orm.annotations.Table;
+import cat.nyaa.nyaacore.orm.backends.ITypedTable;
+import cat.nyaa.nyaacore.orm.backends.SQLiteDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnapshotTableTest {
+    @TempDir
+    public File tempDir;
+
+    private String jdbcUrl;
+    private SQLiteDatabase db;
+
+    @BeforeEach
+    public void openDatabase() throws SQLException {
+        jdbcUrl = "jdbc:sqlite:" + new File(tempDir, "snapshot.db").getAbsolutePath();
+        db = new SQLiteDatabase(DriverManager.getConnection(jdbcUrl), Collections.singletonList("prices"));
+    }
+
+    @AfterEach
+    public void closeDatabase() throws SQLException {
+        db.close();
+    }
+
+    @Test
+    public void writeThrough() throws Exception {
+        ITypedTable<PriceRecord> table = db.getTable(PriceRecord.class);
+        assertInstanceOf(SQLiteDatabase.SnapshotTypedTable.class, table);
+        table.insert(new PriceRecord(null, "diamond", 100));
+        table.insert(new PriceRecord(null, "emerald", 50));
+        table.update(new PriceRecord(null, "diamond", 120), WhereClause.EQ("name", "diamond"), "price");
+
+        assertEquals(120, table.selectUnique(WhereClause.EQ("name", "diamond")).price);
+        assertEquals(2, table.selectUnique(WhereClause.EQ("name", "emerald")).id);
+        try (SQLiteDatabase other = new SQLiteDatabase(DriverManager.getConnection(jdbcUrl))) {
+            assertEquals(120, other.getTable(PriceRecord.class).selectUnique(WhereClause.EQ("id", 1)).price);
+        }
+    }
+
+    @Test
+    public void readsFromSnapshotUntilReload() throws Exception {
+        ITypedTable<PriceRecord> table = db.getTable(PriceRecord.class);
+        table.insert(new PriceRecord(1, "diamond", 100));
+
+        try (Connection conn = DriverManager.getConnection(jdbcUrl);
+             Statement st = conn.createStatement()) {
+            st.executeUpdate("UPDATE prices SET price=1 WHERE id=1");
+        }
+        assertEquals(100, table.selectUnique(WhereClause.EMPTY).price);
+
+        db.reloadSnapshots();
+        assertEquals(1, table.selectUnique(WhereClause.EMPTY).price);
+    }
+
+    @Test
+    public void reloadDuringReadsAndWrites() throws Exception {
+        ITypedTable<PriceRecord> table = db.getTable(PriceRecord.class);
+        SQLiteDatabase.SnapshotTypedTable<?> snapshot = (SQLiteDatabase.SnapshotTypedTable<?>) table;
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        int writes = 200;
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; i < writes; i++) table.insert(new PriceRecord(null, "item" + i, i));
+            } catch (Throwable t) {
+                error.compareAndSet(null, t);
+            }
+        });
+        Thread reader = new Thread(() -> {
+            try {
+                while (writer.isAlive()) table.count(WhereClause.EMPTY);
+            } catch (Throwable t) {
+                error.compareAndSet(null, t);
+            }
+        });
+        writer.start();
+        reader.start();
+        while (writer.isAlive()) snapshot.reload();
+        writer.join();
+        reader.join();
+
+        assertNull(error.get());
+        assertEquals(writes, table.count(WhereClause.EMPTY));
+        for (PriceRecord record : table.select(WhereClause.EMPTY)) {
+            assertEquals("item" + record.price, record.name);
+            assertEquals(record.price + 1, record.id);
+        }
+    }
+
+    @Table("prices")
+    public static class PriceRecord {
+        @Column(primary = true)
+        public Integer id;
+        @Column
+        public String name;
+        @Column
+        public int price;
+
+        public PriceRecord() {
+        }
+
+        public PriceRecord(Integer id, String name, int price) {
+            this.id = id;
+            this.name = name;
+            this.price = price;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package cat.nyaa.nyaacore.orm;
+
+import cat.nyaa.nyaacore.orm.annotations.Column;
+import cat.nyaa.nyaacore.orm.annotations.Table;
+import cat.nyaa.nyaacore.orm.backends.ITypedTable;
+import cat.nyaa.nyaacore.orm.backends.SQLiteDatabase;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.sql.DriverManager;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TableDumpTest {
+    @Test
+    public void exportThenImport() throws Exception {
+        ByteArrayOutputStream dump = new ByteArrayOutputStream();
+        try (SQLiteDatabase db = new SQLiteDatabase(DriverManager.getConnection("jdbc:sqlite::memory:"))) {
+            ITypedTable<DumpRecord> table = db.getTable(DumpRecord.class);
+            for (long i = 1; i <= 100; i++) {
+                table.insert(new DumpRecord(i, i % 10 == 0 ? null : "name" + i, i / 4D, UUID.randomUUID()));
+            }
+            assertEquals(100, table.exportTo(Channels.newChannel(dump), WhereClause.EMPTY));
+        }
+
+        try (SQLiteDatabase db = new SQLiteDatabase(DriverManager.getConnection("jdbc:sqlite::memory:"))) {
+            ITypedTable<DumpRecord> table = db.getTable(DumpRecord.class);
+            assertEquals(100, table.importFrom(Channels.newChannel(new ByteArrayInputStream(dump.toByteArray()))));
+            List<DumpRecord> rows = table.select(WhereClause.EMPTY);
+            assertEquals(100, rows.size());
+            DumpRecord r = table.selectUnique(WhereClause.EQ("id", 42L));
+            assertEquals("name42", r.name);
+            assertEquals(10.5D, r.score);
+            assertNull(table.selectUnique(WhereClause.EQ("id", 50L)).name);
+        }
+    }
+
+    @Test
+    public void exportToPartialWritingChannel() throws Exception {
+        ByteArrayOutputStream dump = new ByteArrayOutputStream();
+        WritableByteChannel trickle = new WritableByteChannel() { // writes at most 3 bytes per call
+            @Override
+            public int write(ByteBuffer src) {
+                int n = Math.min(3, src.remaining());
+                for (int i = 0; i < n; i++) dump.write(src.get());
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try (SQLiteDatabase db = new SQLiteDatabase(DriverManager.getConnection("jdbc:sqlite::memory:"))) {
+            ITypedTable<DumpRecord> table = db.getTable(DumpRecord.class);
+            for (long i = 1; i <= 10; i++) table.insert(new DumpRecord(i, "name" + i, i, UUID.randomUUID()));
+            assertEquals(10, table.exportTo(trickle, WhereClause.EMPTY));
+        }
+        try (SQLiteDatabase db = new SQLiteDatabase(DriverManager.getConnection("jdbc:sqlite::memory:"))) {
+            ITypedTable<DumpRecord> table = db.getTable(DumpRecord.class);
+            assertEquals(10, table.importFrom(Channels.newChannel(new ByteArrayInputStream(dump.toByteArray()))));
+            assertEquals("name7", table.selectUnique(WhereClause.EQ("id", 7L)).name);
+        }
+    }
+
+    private static byte[] dumpOf(long... ids) throws Exception {
+        ByteArrayOutputStream dump = new ByteArrayOutputStream();
+        try (SQLiteDatabase db = new SQLiteDatabase(DriverManager.getConnection("jdbc:sqlite::memory:"))) {
+            ITypedTable<DumpRecord> table = db.getTable(DumpRecord.class);
+            for (long id : ids) table.insert(new DumpRecord(id, "name" + id, id, UUID.randomUUID()));
+            table.exportTo(Channels.newChannel(dump), WhereClause.EMPTY);
+        }
+        return dump.toByteArray();
+    }
+
+    @Test
+    public void importJoinsOpenTransaction() throws Exception {
+        byte[] dump = dumpOf(1, 2, 3);
+        try (SQLiteDatabase db = new SQLiteDatabase(DriverManager.getConnection("jdbc:sqlite::memory:"))) {
+            ITypedTable<DumpRecord> table = db.getTable(DumpRecord.class);
+            try (RollbackGuard guard = new RollbackGuard(db)) {
+                table.insert(new DumpRecord(10, "before", 0, UUID.randomUUID()));
+                assertEquals(3, table.importFrom(Channels.newChannel(new ByteArrayInputStream(dump))));
+                assertFalse(db.getConnection().getAutoCommit());
+            } // not committed
+            assertEquals(0, table.count(WhereClause.EMPTY));
+        }
+    }
+
+    @Test
+    public void failedImportKeepsOpenTransaction() throws Exception {
+        byte[] dump = dumpOf(1, 2, 3);
+        try (SQLiteDatabase db = new SQLiteDatabase(DriverManager.getConnection("jdbc:sqlite::memory:"))) {
+            ITypedTable<DumpRecord> table = db.getTable(DumpRecord.class);
+            try (RollbackGuard guard = new RollbackGuard(db)) {
+                table.insert(new DumpRecord(2, "before", 0, UUID.randomUUID()));
+                assertThrows(IOException.class, () -> table.importFrom(Channels.newChannel(new ByteArrayInputStream(dump))));
+                guard.commit();
+            }
+            assertEquals(1, table.count(WhereClause.EMPTY)); // the import is undone, the earlier write is not
+            assertEquals("before", table.selectUnique(WhereClause.EQ("id", 2L)).name);
+        }
+    }
+
+    @Table("dump_test")
+    public static class DumpRecord {
+        @Column(primary = true)
+        public long id;
+        @Column(nullable = true)
+        public String name;
+        @Column
+        public double score;
+        @Column
+        public UUID uuid;
+
+        public DumpRecord() {
+        }
+
+        public DumpRecord(long id, String name, double score, UUID uuid) {
+            this.id = id;
+            this.name = name;
+            this.score = score;
+            this.uuid = uuid;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package cat.nyaa.nyaacore.utils;
+
+import org.bukkit.plugin.Plugin;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncUtilsTest {
+    private Plugin plugin;
+
+    @BeforeEach
+    public void setUp() {
+        plugin = Mockito.mock(Plugin.class);
+        Mockito.when(plugin.isEnabled()).thenReturn(true);
+        Mockito.when(plugin.getName()).thenReturn("AsyncUtilsTest");
+    }
+
+    @Test
+    public void ioResultAndMetrics() throws Exception {
+        assertEquals(42, AsyncUtils.supplyIo(plugin, "answer", () -> {
+            assertTrue(Thread.currentThread().isVirtual());
+            return 42;
+        }).get(5, TimeUnit.SECONDS));
+        AsyncUtils.TaskMetrics metrics = AsyncUtils.getMetrics().get("AsyncUtilsTest:answer");
+        assertNotNull(metrics);
+        assertEquals(1, metrics.getCount());
+        assertEquals(0, metrics.getFailures());
+    }
+
+    @Test
+    public void ioExceptionPropagates() {
+        CompletableFuture<Object> future = AsyncUtils.supplyIo(plugin, "fail", () -> {
+            throw new IOException("disk on fire");
+        });
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, ex.getCause());
+        assertEquals(1, AsyncUtils.getMetrics().get("AsyncUtilsTest:fail").getFailures());
+    }
+
+    @Test
+    public void timeoutInterrupts() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<Object> future = AsyncUtils.supplyIo(plugin, "slow", () -> {
+            try {
+                Thread.sleep(60_000);
+            } catch (InterruptedException ex) {
+                interrupted.countDown();
+            }
+            return null;
+        }, Duration.ofMillis(50));
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, ex.getCause());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void cancelledWhenPluginDisabled() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<Object> future = AsyncUtils.supplyIo(plugin, "blocked", () -> {
+            started.countDown();
+            Thread.sleep(60_000);
+            return null;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        AsyncUtils.cancelAll(plugin);
+        assertTrue(future.isCancelled());
+
+        Mockito.when(plugin.isEnabled()).thenReturn(false);
+        CompletableFuture<Object> rejected = AsyncUtils.supplyIo(plugin, "late", () -> null);
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, ex.getCause());
+    }
+}
@@ -0,0 +1,73 @@
+package cat.nyaa.nyaacore.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ByteBufferDataOutputTest {
+    private static void writeSample(DataOutput out) throws IOException {
+        for (int i = 0; i < 5000; i++) {
+            out.writeByte(i);
+            out.writeShort(i * 3);
+            out.writeInt(i * 7);
+            out.writeLong(i * 11L);
+            out.writeFloat(i / 3F);
+            out.writeDouble(i / 7D);
+            out.writeUTF("item \u0000 \u00e9 \u4e2d\u6587 " + i);
+        }
+    }
+
+    @Test
+    public void sameAsDataOutputStream() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        writeSample(new DataOutputStream(bos));
+        ByteBufferDataOutput out = new ByteBufferDataOutput();
+        writeSample(out);
+        assertArrayEquals(bos.toByteArray(), out.toByteArray());
+        writeSample(out.clear());
+        assertArrayEquals(bos.toByteArray(), out.toByteArray());
+    }
+
+    @Test
+    public void deflateRoundTrip() throws Exception {
+        ByteBufferDataOutput raw = new ByteBufferDataOutput();
+        writeSample(raw);
+        ByteBufferDataOutput packed = new ByteBufferDataOutput();
+        packed.deflate(new Deflater(), raw.view());
+        ByteBufferDataOutput unpacked = new ByteBufferDataOutput();
+        unpacked.inflate(new Inflater(), packed.view());
+        assertArrayEquals(raw.toByteArray(), unpacked.toByteArray());
+
+        Inflater inflater = new Inflater();
+        inflater.setInput(packed.toByteArray());
+        byte[] result = new byte[raw.position()];
+        inflater.inflate(ByteBuffer.wrap(result));
+        assertArrayEquals(raw.toByteArray(), result);
+    }
+
+    @Test
+    public void inflateWindowOfLargeBuffer() throws Exception {
+        ByteBufferDataOutput raw = new ByteBufferDataOutput();
+        writeSample(raw);
+        ByteBufferDataOutput packed = new ByteBufferDataOutput();
+        packed.deflate(new Deflater(), raw.view());
+        ByteBuffer large = ByteBuffer.allocate(16 * 1024 * 1024);
+        large.position(1000);
+        large.put(packed.view());
+        large.limit(large.position()).position(1000);
+
+        ByteBufferDataOutput unpacked = new ByteBufferDataOutput();
+        unpacked.inflate(new Inflater(), large);
+        assertArrayEquals(raw.toByteArray(), unpacked.toByteArray());
+        assertTrue(unpacked.view().capacity() < 4 * raw.position()); // sized by the window, not the whole buffer
+    }
+}
@@ -0,0 +1,120 @@
+package cat.nyaa.nyaacore.utils;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import be.seeseemelk.mockbukkit.ServerMock;
+import org.bukkit.Material;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InventoryTransactionTest {
+    private static ServerMock server;
+
+    @BeforeAll
+    public static void setUpMockServer() {
+        server = MockBukkit.mock();
+    }
+
+    @AfterAll
+    public static void tearDownMockServer() {
+        MockBukkit.unmock();
+    }
+
+    private static int amountAt(Inventory inv, int slot) {
+        ItemStack item = inv.getItem(slot);
+        return item == null ? 0 : item.getAmount();
+    }
+
+    @Test
+    public void tradeCommits() {
+        Inventory player = server.createInventory(null, 9);
+        Inventory shop = server.createInventory(null, 9);
+        player.setItem(0, new ItemStack(Material.EMERALD, 10));
+        shop.setItem(0, new ItemStack(Material.DIAMOND, 3));
+
+        InventoryTransaction.Result result = new InventoryTransaction()
+                .transfer(player, shop, new ItemStack(Material.EMERALD, 8))
+                .transfer(shop, player, new ItemStack(Material.DIAMOND, 2))
+                .commit();
+        assertTrue(result.isSuccess());
+        assertTrue(result.getFailures().isEmpty());
+        assertEquals(2, amountAt(player, 0));
+        assertEquals(2, amountAt(player, 1));
+        assertEquals(1, amountAt(shop, 0));
+        assertEquals(8, amountAt(shop, 1));
+    }
+
+    @Test
+    public void failureChangesNothing() {
+        Inventory player = server.createInventory(null, 9);
+        Inventory shop = server.createInventory(null, 9);
+        player.setItem(0, new ItemStack(Material.EMERALD, 4));
+        for (int i = 0; i < 8; i++) shop.setItem(i, new ItemStack(Material.DIRT, 64));
+        shop.setItem(8, new ItemStack(Material.DIAMOND, 60));
+
+        InventoryTransaction.Result result = new InventoryTransaction()
+                .withdraw(player, new ItemStack(Material.EMERALD, 10))
+                .deposit(shop, new ItemStack(Material.DIAMOND, 10))
+                .deposit(player, new ItemStack(Material.STONE, 1))
+                .commit();
+        assertFalse(result.isSuccess());
+        List<InventoryTransaction.Failure> failures = result.getFailures();
+        assertEquals(2, failures.size());
+
+        assertSame(player, failures.get(0).getInventory());
+        assertEquals(InventoryTransaction.OperationType.WITHDRAW, failures.get(0).getType());
+        assertEquals(Material.EMERALD, failures.get(0).getItem().getType());
+        assertEquals(10, failures.get(0).getItem().getAmount());
+        assertEquals(6, failures.get(0).getMissing());
+
+        assertSame(shop, failures.get(1).getInventory());
+        assertEquals(InventoryTransaction.OperationType.DEPOSIT, failures.get(1).getType());
+        assertEquals(6, failures.get(1).getMissing());
+
+        assertEquals(4, amountAt(player, 0));
+        assertNull(player.getItem(1));
+        assertEquals(60, amountAt(shop, 8));
+    }
+
+    @Test
+    public void operationsSeeEarlierOnes() {
+        Inventory inv = server.createInventory(null, 9);
+        inv.setItem(0, new ItemStack(Material.STONE, 5));
+
+        // the withdrawal only fits after the deposit planned before it
+        InventoryTransaction tx = new InventoryTransaction()
+                .deposit(inv, new ItemStack(Material.STONE, 10))
+                .withdraw(inv, new ItemStack(Material.STONE, 12));
+        assertTrue(tx.check().isSuccess());
+        assertEquals(5, amountAt(inv, 0)); // check() does not apply
+
+        InventoryTransaction reversed = new InventoryTransaction()
+                .withdraw(inv, new ItemStack(Material.STONE, 12))
+                .deposit(inv, new ItemStack(Material.STONE, 10));
+        InventoryTransaction.Result result = reversed.check();
+        assertFalse(result.isSuccess());
+        assertEquals(7, result.getFailures().get(0).getMissing());
+
+        assertTrue(tx.commit().isSuccess());
+        assertEquals(3, amountAt(inv, 0));
+    }
+
+    @Test
+    public void operationItemsAreCopied() {
+        Inventory inv = server.createInventory(null, 9);
+        ItemStack item = new ItemStack(Material.STONE, 5);
+        InventoryTransaction tx = new InventoryTransaction().deposit(inv, item);
+        item.setAmount(50);
+
+        assertTrue(tx.commit().isSuccess());
+        assertEquals(5, amountAt(inv, 0));
+        assertEquals(50, item.getAmount());
+        assertNotSame(item, inv.getItem(0));
+    }
+}
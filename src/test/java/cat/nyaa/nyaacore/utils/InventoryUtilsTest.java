@@ -0,0 +1,138 @@
+package cat.nyaa.nyaacore.utils;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import be.seeseemelk.mockbukkit.ServerMock;
+import org.bukkit.Material;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InventoryUtilsTest {
+    private static ServerMock server;
+
+    @BeforeAll
+    public static void setUpMockServer() {
+        server = MockBukkit.mock();
+    }
+
+    @AfterAll
+    public static void tearDownMockServer() {
+        MockBukkit.unmock();
+    }
+
+    private static ItemStack named(Material type, int amount, String name) {
+        ItemStack item = new ItemStack(type, amount);
+        ItemMeta meta = item.getItemMeta();
+        meta.setDisplayName(name);
+        item.setItemMeta(meta);
+        return item;
+    }
+
+    private static int amountAt(Inventory inv, int slot) {
+        ItemStack item = inv.getItem(slot);
+        return item == null ? 0 : item.getAmount();
+    }
+
+    @Test
+    public void addSplitsIntoStacks() {
+        Inventory inv = server.createInventory(null, 9);
+        inv.setItem(4, new ItemStack(Material.STONE, 10));
+
+        assertTrue(InventoryUtils.addItem(inv, new ItemStack(Material.STONE, 150)));
+        assertEquals(64, amountAt(inv, 4)); // similar stack filled first
+        assertEquals(64, amountAt(inv, 0));
+        assertEquals(32, amountAt(inv, 1));
+        assertEquals(160, InventoryUtils.getAmount(inv, new ItemStack(Material.STONE)));
+    }
+
+    @Test
+    public void addItemsAllOrNothing() {
+        Inventory inv = server.createInventory(null, 9);
+        for (int i = 0; i < 7; i++) inv.setItem(i, new ItemStack(Material.DIRT, 64));
+
+        assertFalse(InventoryUtils.addItems(inv, List.of(new ItemStack(Material.STONE, 64), new ItemStack(Material.STONE, 65))));
+        assertNull(inv.getItem(7));
+        assertNull(inv.getItem(8));
+
+        assertTrue(InventoryUtils.addItems(inv, List.of(new ItemStack(Material.STONE, 64), new ItemStack(Material.STONE, 64))));
+        assertEquals(64, amountAt(inv, 7));
+        assertEquals(64, amountAt(inv, 8));
+    }
+
+    @Test
+    public void removeAllOrNothing() {
+        Inventory inv = server.createInventory(null, 9);
+        inv.setItem(0, new ItemStack(Material.STONE, 20));
+        inv.setItem(5, new ItemStack(Material.STONE, 10));
+        inv.setItem(6, named(Material.STONE, 64, "not plain stone"));
+
+        assertFalse(InventoryUtils.removeItem(inv, new ItemStack(Material.STONE), 31));
+        assertEquals(20, amountAt(inv, 0));
+        assertEquals(10, amountAt(inv, 5));
+
+        assertTrue(InventoryUtils.removeItem(inv, new ItemStack(Material.STONE), 25));
+        assertNull(inv.getItem(0));
+        assertEquals(5, amountAt(inv, 5));
+        assertEquals(64, amountAt(inv, 6));
+    }
+
+    @Test
+    public void similarityIncludesMeta() {
+        Inventory inv = server.createInventory(null, 9);
+        inv.setItem(0, named(Material.STONE, 3, "a"));
+        inv.setItem(1, named(Material.STONE, 5, "b"));
+        inv.setItem(2, new ItemStack(Material.STONE, 7));
+
+        assertEquals(3, InventoryUtils.getAmount(inv, named(Material.STONE, 1, "a")));
+        assertEquals(5, InventoryUtils.getAmount(inv, named(Material.STONE, 1, "b")));
+        assertEquals(7, InventoryUtils.getAmount(inv, new ItemStack(Material.STONE)));
+    }
+
+    @Test
+    public void addSkipsArmorSlots() {
+        PlayerInventory inv = server.addPlayer().getInventory();
+        for (int i = 0; i < 36; i++) inv.setItem(i, new ItemStack(Material.DIRT, 64));
+
+        assertFalse(InventoryUtils.hasEnoughSpace(inv, new ItemStack(Material.STONE), 1));
+        assertFalse(InventoryUtils.addItem(inv, new ItemStack(Material.STONE)));
+        for (int i = 36; i <= 39; i++) assertNull(inv.getItem(i));
+
+        // items already in armor slots are still counted and removed
+        inv.setItem(36, new ItemStack(Material.STONE, 1));
+        assertEquals(1, InventoryUtils.getAmount(inv, new ItemStack(Material.STONE)));
+        assertTrue(InventoryUtils.removeItem(inv, new ItemStack(Material.STONE), 1));
+        assertNull(inv.getItem(36));
+    }
+
+    @Test
+    public void withdrawAtomicReportsMissing() {
+        Inventory inv = server.createInventory(null, 9);
+        inv.setItem(0, new ItemStack(Material.STONE, 10));
+        inv.setItem(1, new ItemStack(Material.DIRT, 10));
+        ItemStack stone = new ItemStack(Material.STONE, 5);
+        ItemStack dirt = new ItemStack(Material.DIRT, 14);
+
+        List<ItemStack> missing = InventoryUtils.withdrawInventoryAtomic(inv, List.of(stone, dirt));
+        assertNotNull(missing);
+        assertEquals(1, missing.size());
+        assertEquals(Material.DIRT, missing.get(0).getType());
+        assertEquals(4, missing.get(0).getAmount());
+        assertEquals(5, stone.getAmount());
+        assertEquals(14, dirt.getAmount());
+        assertEquals(10, amountAt(inv, 0));
+        assertEquals(10, amountAt(inv, 1));
+
+        assertNull(InventoryUtils.withdrawInventoryAtomic(inv, List.of(stone, new ItemStack(Material.DIRT, 10))));
+        assertEquals(5, amountAt(inv, 0));
+        assertNull(inv.getItem(1));
+        assertEquals(5, stone.getAmount());
+    }
+}
@@ -0,0 +1,134 @@
+package cat.nyaa.nyaacore.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ItemContainerCodecTest {
+    // compound payload resembling a saved item
+    private static byte[] sampleNbt(int i) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(8);
+        dos.writeUTF("id");
+        dos.writeUTF("minecraft:diamond_sword");
+        dos.writeByte(3);
+        dos.writeUTF("count");
+        dos.writeInt(i % 64 + 1);
+        dos.writeByte(10);
+        dos.writeUTF("components");
+        {
+            dos.writeByte(9);
+            dos.writeUTF("minecraft:lore");
+            dos.writeByte(8);
+            dos.writeInt(2);
+            dos.writeUTF("line one " + i);
+            dos.writeUTF("line two");
+            dos.writeByte(11);
+            dos.writeUTF("ints");
+            dos.writeInt(3);
+            dos.writeInt(1);
+            dos.writeInt(2);
+            dos.writeInt(i);
+            dos.writeByte(9);
+            dos.writeUTF("nested");
+            dos.writeByte(10);
+            dos.writeInt(1);
+            dos.writeByte(1);
+            dos.writeUTF("flag");
+            dos.writeByte(1);
+            dos.writeByte(0);
+            dos.writeByte(0);
+        }
+        dos.writeByte(3);
+        dos.writeUTF("nyaacore_itemstack_dataversion");
+        dos.writeInt(4325);
+        dos.writeByte(0);
+        return bos.toByteArray();
+    }
+
+    private static byte[] encode(List<byte[]> items, int version, ItemCodec codec) throws IOException {
+        ByteBuffer packed = ItemContainerCodec.encode(items.size(), (i, out) -> out.write(items.get(i)), version, codec);
+        byte[] blob = new byte[packed.remaining()];
+        packed.get(blob);
+        return blob;
+    }
+
+    private static List<byte[]> roundTrip(List<byte[]> items, int version) throws IOException {
+        return roundTrip(items, version, ItemCodec.DEFLATE);
+    }
+
+    private static List<byte[]> roundTrip(List<byte[]> items, int version, ItemCodec codec) throws IOException {
+        byte[] blob = encode(items, version, codec);
+        assertEquals(version == ItemContainerCodec.V2, ItemContainerCodec.isV2(blob));
+        List<byte[]> ret = new ArrayList<>();
+        ItemContainerCodec.decode(blob, (array, offset, length) -> ret.add(Arrays.copyOfRange(array, offset, offset + length)));
+        return ret;
+    }
+
+    @Test
+    public void bothVersionsRoundTrip() throws IOException {
+        for (int n : new int[]{1, 2, 127}) {
+            List<byte[]> items = new ArrayList<>();
+            for (int i = 0; i < n; i++) items.add(sampleNbt(i));
+            for (int version : new int[]{ItemContainerCodec.V1, ItemContainerCodec.V2}) {
+                List<byte[]> result = roundTrip(items, version);
+                assertEquals(n, result.size());
+                for (int i = 0; i < n; i++) assertArrayEquals(items.get(i), result.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void v2HasNoItemLimit() throws IOException {
+        List<byte[]> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) items.add(sampleNbt(i));
+        assertThrows(IllegalArgumentException.class, () -> ItemContainerCodec.encode(items.size(), (i, out) -> out.write(items.get(i)), ItemContainerCodec.V1));
+        List<byte[]> result = roundTrip(items, ItemContainerCodec.V2);
+        for (int i = 0; i < items.size(); i++) assertArrayEquals(items.get(i), result.get(i));
+    }
+
+    @Test
+    public void corruptedDataThrows() {
+        byte[] blob = {'N', 'Y', 'I', 2, 1, 0x12, 0x34};
+        assertThrows(IOException.class, () -> ItemContainerCodec.decode(blob, (array, offset, length) -> {
+        }));
+    }
+
+    @Test
+    public void everyCodecRoundTrips() throws IOException {
+        for (int n : new int[]{1, 2, 200}) {
+            List<byte[]> items = new ArrayList<>();
+            for (int i = 0; i < n; i++) items.add(sampleNbt(i));
+            for (ItemCodec codec : ItemCodec.values()) {
+                List<byte[]> result = roundTrip(items, ItemContainerCodec.V2, codec);
+                assertEquals(n, result.size());
+                for (int i = 0; i < n; i++) assertArrayEquals(items.get(i), result.get(i), codec.name());
+            }
+        }
+    }
+
+    @Test
+    public void dictionaryHelpsSingleItems() throws IOException {
+        List<byte[]> items = List.of(sampleNbt(0));
+        int deflated = encode(items, ItemContainerCodec.V2, ItemCodec.DEFLATE).length;
+        int dictionary = encode(items, ItemContainerCodec.V2, ItemCodec.DICTIONARY_DEFLATE).length;
+        assertTrue(dictionary < deflated, dictionary + " >= " + deflated);
+    }
+
+    @Test
+    public void v1OnlySupportsDeflate() throws IOException {
+        List<byte[]> items = List.of(sampleNbt(0));
+        assertThrows(IllegalArgumentException.class, () -> encode(items, ItemContainerCodec.V1, ItemCodec.STORE));
+        assertThrows(IllegalArgumentException.class, () -> encode(items, ItemContainerCodec.V1, ItemCodec.DICTIONARY_DEFLATE));
+        assertArrayEquals(items.get(0), roundTrip(items, ItemContainerCodec.V1, ItemCodec.FAST_DEFLATE).get(0));
+    }
+}
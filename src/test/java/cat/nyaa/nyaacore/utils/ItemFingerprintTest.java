@@ -0,0 +1,69 @@
+package cat.nyaa.nyaacore.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ItemFingerprintTest {
+    // saved item with the entries in the given order: id, count, components{damage, lore}
+    private static ItemFingerprint fingerprint(boolean reversed, int count, int damage, String... lore) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        for (int entry = 0; entry < 3; entry++) {
+            switch (reversed ? 2 - entry : entry) {
+                case 0 -> {
+                    dos.writeByte(8);
+                    dos.writeUTF("id");
+                    dos.writeUTF("minecraft:diamond_sword");
+                }
+                case 1 -> {
+                    dos.writeByte(3);
+                    dos.writeUTF("count");
+                    dos.writeInt(count);
+                }
+                case 2 -> {
+                    dos.writeByte(10);
+                    dos.writeUTF("components");
+                    if (reversed) writeLore(dos, lore);
+                    dos.writeByte(3);
+                    dos.writeUTF("minecraft:damage");
+                    dos.writeInt(damage);
+                    if (!reversed) writeLore(dos, lore);
+                    dos.writeByte(0);
+                }
+            }
+        }
+        dos.writeByte(0);
+        return ItemFingerprint.fromNbt(ByteBuffer.wrap(bos.toByteArray()));
+    }
+
+    private static void writeLore(DataOutputStream dos, String... lore) throws IOException {
+        dos.writeByte(9);
+        dos.writeUTF("minecraft:lore");
+        dos.writeByte(8);
+        dos.writeInt(lore.length);
+        for (String line : lore) dos.writeUTF(line);
+    }
+
+    @Test
+    public void ignoresAmountAndEntryOrder() throws IOException {
+        ItemFingerprint base = fingerprint(false, 1, 10, "a", "b");
+        assertEquals(base, fingerprint(false, 64, 10, "a", "b"));
+        assertEquals(base, fingerprint(true, 1, 10, "a", "b"));
+        assertEquals(base.hashCode(), fingerprint(true, 7, 10, "a", "b").hashCode());
+    }
+
+    @Test
+    public void differsOnComponents() throws IOException {
+        ItemFingerprint base = fingerprint(false, 1, 10, "a", "b");
+        assertNotEquals(base, fingerprint(false, 1, 11, "a", "b"));
+        assertNotEquals(base, fingerprint(false, 1, 10, "b", "a"));
+        assertNotEquals(base, fingerprint(false, 1, 10, "a"));
+        assertNotEquals(ItemFingerprint.EMPTY, base);
+    }
+}
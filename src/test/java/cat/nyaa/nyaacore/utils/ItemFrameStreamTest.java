@@ -0,0 +1,53 @@
+package cat.nyaa.nyaacore.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ItemFrameStreamTest {
+    private static byte[] stream(List<byte[]> items) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ItemFrameStream.write(Channels.newChannel(bos), items.size(), (i, out) -> out.write(items.get(i)));
+        return bos.toByteArray();
+    }
+
+    private static List<byte[]> read(byte[] stream) throws IOException {
+        List<byte[]> ret = new ArrayList<>();
+        ItemFrameStream.read(Channels.newChannel(new ByteArrayInputStream(stream)), (array, offset, length) -> ret.add(Arrays.copyOfRange(array, offset, offset + length)));
+        return ret;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        Random random = new Random(1);
+        List<byte[]> items = new ArrayList<>();
+        // small frames spanning several buffer flushes, and frames larger than the read buffer
+        for (int i = 0; i < 2000; i++) {
+            byte[] nbt = new byte[1 + random.nextInt(i % 500 == 0 ? 300000 : 200)];
+            random.nextBytes(nbt);
+            items.add(nbt);
+        }
+        List<byte[]> result = read(stream(items));
+        assertEquals(items.size(), result.size());
+        for (int i = 0; i < items.size(); i++) assertArrayEquals(items.get(i), result.get(i));
+        assertTrue(read(stream(new ArrayList<>())).isEmpty());
+    }
+
+    @Test
+    public void truncatedStreamThrows() throws IOException {
+        byte[] stream = stream(List.of(new byte[]{1, 2, 3}, new byte[]{4, 5}));
+        assertThrows(EOFException.class, () -> read(Arrays.copyOf(stream, stream.length - 1)));
+        assertThrows(EOFException.class, () -> read(Arrays.copyOf(stream, 6)));
+        assertThrows(IOException.class, () -> read(new byte[]{'N', 'Y', 'I', 2, 0}));
+    }
+}
@@ -0,0 +1,134 @@
+package cat.nyaa.nyaacore.utils;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import net.minecraft.SharedConstants;
+import net.minecraft.core.component.DataComponents;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.world.item.Items;
+import net.minecraft.world.item.component.CustomData;
+import org.bukkit.Material;
+import org.bukkit.craftbukkit.inventory.CraftItemStack;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TagSchemaTest {
+    private static final TagKey<Integer> LEVEL = TagKey.ofInt("rpg.level").withDefault(1);
+    private static final TagKey<String> OWNER = TagKey.ofString("rpg.owner");
+    private static final TagKey<Boolean> BOUND = TagKey.ofBoolean("rpg.bound");
+    private static final TagSchema SCHEMA = TagSchema.builder().add(LEVEL).add(OWNER).build();
+
+    @BeforeAll
+    public static void setUpMockServer() {
+        MockBukkit.mock();
+        // items with data components, no server needed
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+    }
+
+    @AfterAll
+    public static void tearDownMockServer() {
+        MockBukkit.unmock();
+    }
+
+    private static ItemStack itemWith(Consumer<CompoundTag> filler) {
+        net.minecraft.world.item.ItemStack nms = new net.minecraft.world.item.ItemStack(Items.DIAMOND_SWORD);
+        CompoundTag tag = new CompoundTag();
+        filler.accept(tag);
+        nms.set(DataComponents.CUSTOM_DATA, CustomData.of(tag));
+        return CraftItemStack.asCraftMirror(nms);
+    }
+
+    private static CompoundTag customData(ItemStack item) {
+        CustomData data = CraftItemStack.unwrap(item).get(DataComponents.CUSTOM_DATA);
+        return data == null ? new CompoundTag() : data.copyTag();
+    }
+
+    @Test
+    public void valuesAndDefaults() {
+        TagSchema.Values values = SCHEMA.newValues();
+        assertFalse(values.isPresent(LEVEL));
+        assertEquals(Integer.valueOf(1), values.getOrDefault(LEVEL));
+        assertNull(values.getOrDefault(OWNER));
+        values.set(LEVEL, 5).set(OWNER, "alice");
+        assertEquals(Integer.valueOf(5), values.get(LEVEL).orElseThrow());
+        assertEquals("alice", values.getOrDefault(OWNER));
+        values.remove(OWNER);
+        assertTrue(values.get(OWNER).isEmpty());
+    }
+
+    @Test
+    public void rejectsForeignAndDuplicateKeys() {
+        TagSchema.Values values = SCHEMA.newValues();
+        assertThrows(IllegalArgumentException.class, () -> values.get(TagKey.ofInt("rpg.level")));
+        assertThrows(IllegalArgumentException.class, () -> TagSchema.builder().add(LEVEL).add(TagKey.ofString("rpg.level")));
+    }
+
+    @Test
+    public void writeKeepsOtherData() {
+        ItemStack item = itemWith(tag -> {
+            tag.putInt("rpg.level", 3);
+            tag.putString("rpg.owner", "bob");
+            tag.putString("other", "keep");
+        });
+        TagSchema.Values values = SCHEMA.read(item);
+        assertEquals(Integer.valueOf(3), values.get(LEVEL).orElseThrow());
+        assertEquals("bob", values.get(OWNER).orElseThrow());
+
+        assertTrue(SCHEMA.write(item, values.set(LEVEL, 4)));
+        CompoundTag tag = customData(item);
+        assertEquals(4, tag.getIntOr("rpg.level", 0));
+        assertEquals("bob", tag.getStringOr("rpg.owner", ""));
+        assertEquals("keep", tag.getStringOr("other", ""));
+        assertEquals(Integer.valueOf(4), SCHEMA.read(item).getOrDefault(LEVEL));
+    }
+
+    @Test
+    public void removeDeletesKey() {
+        ItemStack item = itemWith(tag -> {
+            tag.putInt("rpg.level", 3);
+            tag.putString("rpg.owner", "bob");
+        });
+        assertTrue(SCHEMA.write(item, SCHEMA.read(item).remove(OWNER)));
+        CompoundTag tag = customData(item);
+        assertFalse(tag.contains("rpg.owner"));
+        assertTrue(tag.contains("rpg.level"));
+        assertTrue(SCHEMA.read(item).get(OWNER).isEmpty());
+
+        assertTrue(LEVEL.remove(item));
+        assertFalse(customData(item).contains("rpg.level"));
+    }
+
+    @Test
+    public void typeMismatchReadsEmpty() {
+        ItemStack item = itemWith(tag -> {
+            tag.putDouble("rpg.level", 2.7D);
+            tag.putInt("rpg.owner", 5);
+            tag.putInt("rpg.bound", 1);
+        });
+        TagSchema.Values values = SCHEMA.read(item);
+        assertTrue(values.get(LEVEL).isEmpty());
+        assertEquals(Integer.valueOf(1), values.getOrDefault(LEVEL));
+        assertTrue(values.get(OWNER).isEmpty());
+        assertTrue(LEVEL.get(item).isEmpty());
+        assertTrue(BOUND.get(item).isEmpty()); // an int, not a byte
+
+        ItemStack bound = itemWith(tag -> tag.putBoolean("rpg.bound", true));
+        assertEquals(Boolean.TRUE, BOUND.get(bound).orElseThrow());
+    }
+
+    @Test
+    public void writeToPlainItemStack() {
+        ItemStack plain = new ItemStack(Material.DIAMOND_SWORD);
+        TagSchema.Values values = SCHEMA.newValues().set(LEVEL, 2);
+        assertFalse(SCHEMA.write(plain, values));
+        assertFalse(LEVEL.set(plain, 2));
+        assertFalse(plain.hasItemMeta());
+    }
+}